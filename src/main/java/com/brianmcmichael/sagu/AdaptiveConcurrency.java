@@ -0,0 +1,195 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+
+/**
+ * Number of requests to one account allowed in flight at the same time, adapted to how Glacier answers them.
+ * <p>
+ * The limit grows additively, by 1/limit for every healthy request, so it rises by about one each round trip
+ * of all requests in flight. A request is healthy when it succeeds and its latency per megabyte stays within
+ * {@value #LATENCY_TOLERANCE} times the best recent latency; longer latency means the requests only queue up
+ * somewhere. A throttled request, also one retried by the SDK, halves the limit. Requests in flight when the limit
+ * was cut are likely throttled as well, so the limit is cut at most once per typical latency. Other failures leave
+ * the limit as it is. Decisions are published in {@link TransferMetrics}.
+ */
+public class AdaptiveConcurrency {
+
+    static final double DECREASE_FACTOR = 0.5;
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final List<String> THROTTLING_CODES = Arrays.asList("ThrottlingException",
+            "RequestTimeoutException", "RequestTimeout", "SlowDown", "TooManyRequestsException",
+            "RequestLimitExceeded", "LimitExceededException");
+    private static final long INITIAL_LATENCY_NANOS = 1000000000L;
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final int maxLimit;
+    private final TransferMetrics metrics;
+    private final LongSupplier nanoClock;
+    private double limit;
+    private int inFlight;
+    private double baseline = Double.MAX_VALUE;
+    private double latencyNanos = INITIAL_LATENCY_NANOS;
+    private long lastDecrease;
+    private boolean decreased;
+
+    /**
+     * @param initialLimit number of requests allowed in flight at first
+     * @param maxLimit     number of requests the limit never grows over, e.g. the size of the connection pool
+     * @param metrics      metrics the decisions are published in
+     */
+    public AdaptiveConcurrency(final int initialLimit, final int maxLimit, final TransferMetrics metrics) {
+        this(initialLimit, maxLimit, metrics, System::nanoTime);
+    }
+
+    AdaptiveConcurrency(final int initialLimit, final int maxLimit, final TransferMetrics metrics,
+                        final LongSupplier nanoClock) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException(
+                    "Limits have to satisfy 1 <= initial <= max, were " + initialLimit + " and " + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.metrics = metrics;
+        this.nanoClock = nanoClock;
+        metrics.concurrencyLimit(initialLimit);
+    }
+
+    /**
+     * Waits until another request may be sent.
+     *
+     * @return permit of the request, it has to be completed or failed exactly once
+     * @throws AmazonClientException if the thread is interrupted while waiting
+     */
+    public synchronized Permit acquire() {
+        while (inFlight >= (int) limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while waiting for a request slot", e);
+            }
+        }
+        inFlight++;
+        return new Permit(nanoClock.getAsLong());
+    }
+
+    /**
+     * Cuts the limit after a throttled attempt of a request, unless it was cut within the typical latency already.
+     */
+    public synchronized void throttled() {
+        metrics.requestThrottled();
+        final long now = nanoClock.getAsLong();
+        if (decreased && now - lastDecrease < latencyNanos) {
+            return;
+        }
+        decreased = true;
+        lastDecrease = now;
+        final int before = (int) limit;
+        limit = Math.max(1, limit * DECREASE_FACTOR);
+        if ((int) limit < before) {
+            metrics.concurrencyDecreased((int) limit);
+        }
+    }
+
+    /**
+     * @return number of requests currently allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return number of requests the limit never grows over
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @param e failure of a request
+     * @return whether Glacier asked to slow down, a request timeout means requests queue up at Glacier as well
+     */
+    public static boolean isThrottling(final Throwable e) {
+        if (!(e instanceof AmazonServiceException)) {
+            return false;
+        }
+        final AmazonServiceException service = (AmazonServiceException) e;
+        return THROTTLING_CODES.contains(service.getErrorCode()) || service.getStatusCode() == 429;
+    }
+
+    private synchronized void release(final long started, final long bytes, final Throwable failure) {
+        inFlight--;
+        if (failure == null) {
+            succeeded(Math.max(1, nanoClock.getAsLong() - started), bytes);
+        } else if (isThrottling(failure)) {
+            throttled();
+        }
+        notifyAll();
+    }
+
+    private void succeeded(final long nanos, final long bytes) {
+        latencyNanos += (long) ((nanos - latencyNanos) * LATENCY_WEIGHT);
+        // requests without a body still take a round trip, count them as a megabyte
+        final double perMB = nanos / ((double) Math.max(bytes, MB) / MB);
+        baseline = Math.min(perMB, baseline == Double.MAX_VALUE ? perMB : baseline * (1 + BASELINE_DRIFT));
+        if (perMB > baseline * LATENCY_TOLERANCE || limit >= maxLimit) {
+            return;
+        }
+        final int before = (int) limit;
+        limit = Math.min(maxLimit, limit + 1 / limit);
+        if ((int) limit > before) {
+            metrics.concurrencyIncreased((int) limit);
+        }
+    }
+
+    /**
+     * One request in flight.
+     */
+    public final class Permit {
+        private final long started;
+        private boolean released;
+
+        private Permit(final long started) {
+            this.started = started;
+        }
+
+        /**
+         * @param bytes number of bytes sent by the request
+         */
+        public void completed(final long bytes) {
+            release(null, bytes);
+        }
+
+        /**
+         * @param failure failure of the request
+         */
+        public void failed(final Throwable failure) {
+            release(failure, 0);
+        }
+
+        private void release(final Throwable failure, final long bytes) {
+            if (released) {
+                throw new IllegalStateException("Permit was released already");
+            }
+            released = true;
+            AdaptiveConcurrency.this.release(started, bytes, failure);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static javax.crypto.Cipher.DECRYPT_MODE;
+import static javax.crypto.Cipher.ENCRYPT_MODE;
+
+/**
+ * Client-side encryption of independent chunks with AES-256-GCM.
+ * <p>
+ * Format version {@value #FORMAT_VERSION}: a header of {@value #HEADER_LENGTH} bytes (magic "SAGU", version, chunk
+ * size, random salt and random nonce prefix) is followed by the chunks. Every chunk of the plaintext is sealed on its
+ * own, so a {@link ParallelBlockPipeline} encrypts chunks on all cores, and it grows by its {@value #TAG_LENGTH}-byte
+ * authentication tag. The archive ends with an empty final chunk.
+ * <p>
+ * Every archive gets its own AES key, derived from the {@link EncryptionKey} and the salt with HKDF-SHA256, so nonces
+ * never repeat under one key. The nonce of a chunk is the nonce prefix, the chunk index and a flag of the final chunk,
+ * and the header is authenticated with every chunk. Reordered, dropped or truncated chunks and a modified header all
+ * fail decryption.
+ */
+public class AesGcmStage implements ParallelBlockPipeline.Stage {
+
+    static final int FORMAT_VERSION = 1;
+    static final int CHUNK_SIZE = 1024 * 1024;
+    static final int TAG_LENGTH = 16;
+    static final int HEADER_LENGTH = 32;
+
+    private static final byte[] MAGIC = "SAGU".getBytes(US_ASCII);
+    private static final byte[] KEY_INFO = "SAGU chunked AES-256-GCM".getBytes(US_ASCII);
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final byte[] header;
+    private final SecretKeySpec archiveKey;
+    private final byte[] noncePrefix;
+    private long chunks;
+
+    /**
+     * Initializes encryption of one archive.
+     *
+     * @param key master key
+     */
+    public AesGcmStage(final EncryptionKey key) {
+        final SecureRandom random = new SecureRandom();
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        random.nextBytes(noncePrefix);
+        header = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put((byte) FORMAT_VERSION)
+                .putInt(CHUNK_SIZE)
+                .put(salt)
+                .put(noncePrefix)
+                .array();
+        archiveKey = deriveKey(key, salt);
+    }
+
+    @Override
+    public byte[] header() {
+        return header.clone();
+    }
+
+    @Override
+    public void read(final byte[] block, final int length) {
+        chunks++;
+    }
+
+    @Override
+    public byte[] transform(final long index, final byte[] block, final int length, final byte[] previous)
+            throws GeneralSecurityException {
+        return seal(index, block, length, false);
+    }
+
+    @Override
+    public byte[] trailer() {
+        try {
+            return seal(chunks, new byte[0], 0, true);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    }
+
+    /**
+     * Computes length of the encrypted archive.
+     *
+     * @param length length of the plaintext
+     * @return length of the encrypted archive in bytes
+     */
+    public static long encryptedLength(final long length) {
+        return HEADER_LENGTH + length + ((length + CHUNK_SIZE - 1) / CHUNK_SIZE + 1) * TAG_LENGTH;
+    }
+
+    /**
+     * Decrypts an archive and verifies that it is complete and unmodified. Plaintext of a chunk is written only after
+     * the chunk was verified, but a failure leaves the chunks before it written.
+     *
+     * @param in  encrypted archive
+     * @param out receiver of the plaintext
+     * @param key master key the archive was encrypted with
+     * @throws IOException If an I/O error occurs, or the archive is damaged or was encrypted with another key
+     */
+    public static void decrypt(final InputStream in, final OutputStream out, final EncryptionKey key)
+            throws IOException {
+        final byte[] header = new byte[HEADER_LENGTH];
+        if (readUpTo(in, header, 0) < HEADER_LENGTH) {
+            throw new EOFException("Encrypted archive is shorter than its header");
+        }
+        final ByteBuffer fields = ByteBuffer.wrap(header);
+        final byte[] magic = new byte[MAGIC.length];
+        fields.get(magic);
+        final int version = fields.get();
+        if (!Arrays.equals(magic, MAGIC) || version != FORMAT_VERSION) {
+            throw new IOException("Not a SAGU encrypted archive of format version " + FORMAT_VERSION);
+        }
+        final int chunkSize = fields.getInt();
+        if (chunkSize <= 0 || chunkSize > 64 * CHUNK_SIZE) {
+            throw new IOException("Invalid chunk size " + chunkSize);
+        }
+        final byte[] salt = new byte[SALT_LENGTH];
+        fields.get(salt);
+        final byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+        fields.get(prefix);
+        final SecretKeySpec archiveKey = deriveKey(key, salt);
+
+        // the empty final chunk is a bare tag after the last record, which may be full or shorter; records are read
+        // with one more tag behind them, so a record is split off only when it is full and the final tag is not in it
+        final int recordLength = chunkSize + TAG_LENGTH;
+        final byte[] buffer = new byte[recordLength + TAG_LENGTH];
+        long index = 0;
+        int length = 0;
+        while (true) {
+            length += readUpTo(in, buffer, length);
+            if (length < buffer.length) {
+                break;
+            }
+            out.write(open(archiveKey, header, prefix, index++, buffer, 0, recordLength, false));
+            System.arraycopy(buffer, recordLength, buffer, 0, TAG_LENGTH);
+            length = TAG_LENGTH;
+        }
+        if (length < TAG_LENGTH) {
+            throw new EOFException("Encrypted archive is truncated");
+        }
+        if (length > TAG_LENGTH) {
+            out.write(open(archiveKey, header, prefix, index++, buffer, 0, length - TAG_LENGTH, false));
+        }
+        open(archiveKey, header, prefix, index, buffer, length - TAG_LENGTH, TAG_LENGTH, true);
+    }
+
+    private byte[] seal(final long index, final byte[] data, final int length, final boolean last)
+            throws GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(ENCRYPT_MODE, archiveKey, new GCMParameterSpec(8 * TAG_LENGTH, nonce(noncePrefix, index, last)));
+        cipher.updateAAD(header);
+        return cipher.doFinal(data, 0, length);
+    }
+
+    private static byte[] open(final SecretKeySpec archiveKey, final byte[] header, final byte[] prefix,
+                               final long index, final byte[] record, final int offset, final int length,
+                               final boolean last) throws IOException {
+        try {
+            final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(DECRYPT_MODE, archiveKey, new GCMParameterSpec(8 * TAG_LENGTH, nonce(prefix, index, last)));
+            cipher.updateAAD(header);
+            return cipher.doFinal(record, offset, length);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " of the encrypted archive was modified, or the key is wrong", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM is not available", e);
+        }
+    }
+
+    private static byte[] nonce(final byte[] prefix, final long index, final boolean last) {
+        if (index > 0xffffffffL) {
+            throw new IllegalStateException("Archive has too many chunks to be encrypted");
+        }
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 5)
+                .put(prefix)
+                .putInt((int) index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    /**
+     * Derives the key of one archive with HKDF-SHA256 (RFC 5869).
+     */
+    private static SecretKeySpec deriveKey(final EncryptionKey key, final byte[] salt) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            final byte[] pseudoRandomKey = mac.doFinal(key.getEncoded());
+            mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+            mac.update(KEY_INFO);
+            mac.update((byte) 1);
+            return new SecretKeySpec(mac.doFinal(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    /**
+     * @return number of bytes read from the offset on, fewer than the buffer has room for only at the end of stream
+     */
+    private static int readUpTo(final InputStream in, final byte[] buffer, final int from) throws IOException {
+        int offset = from;
+        while (offset < buffer.length) {
+            final int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        return offset - from;
+    }
+}
@@ -13,9 +13,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Properties;
 
 import static com.amazonaws.util.StringUtils.isNullOrEmpty;
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
 import static java.lang.Integer.parseInt;
 import static java.lang.String.valueOf;
 import static java.lang.System.getProperty;
@@ -39,6 +41,49 @@ public class AppProperties {
     private static final String VAULT_KEY = "vaultKey";
     private static final String LOCATION_INDEX = "locationSet";
     private static final String LOG_TYPE_INDEX = "logType";
+    private static final String PART_SIZE_MB = "partSizeMB";
+    private static final String UPLOAD_THREADS = "uploadThreads";
+    private static final String CONCURRENT_FILES = "concurrentFiles";
+    private static final String READ_AHEAD_PARTS = "readAheadParts";
+    private static final String BUFFER_BUDGET_MB = "bufferBudgetMB";
+    private static final String UNCACHED_READS = "uncachedReads";
+    private static final String DISK_READ_LIMITS = "diskReadLimits";
+    private static final String DISK_LAYOUT_ORDER = "diskLayoutOrder";
+    private static final String ADAPTIVE_PART_SIZE = "adaptivePartSize";
+    private static final String SERVER_RESUME = "serverResume";
+    private static final String STALE_UPLOAD_DAYS = "staleUploadDays";
+    private static final String MAX_CONNECTIONS = "maxConnections";
+    private static final String TCP_KEEP_ALIVE = "tcpKeepAlive";
+    private static final String CONNECTION_IDLE_SECONDS = "connectionIdleSeconds";
+    private static final String CONNECTION_TTL_SECONDS = "connectionTtlSeconds";
+    private static final String PACK_SMALL_FILES = "packSmallFiles";
+    private static final String PACK_MAX_FILE_KB = "packMaxFileKB";
+    private static final String PACK_TARGET_MB = "packTargetMB";
+    private static final String TAR_DIRECTORIES = "tarDirectories";
+    private static final String COMPRESS_UPLOADS = "compressUploads";
+    private static final String COMPRESSION_LEVEL = "compressionLevel";
+    private static final String ENCRYPT_UPLOADS = "encryptUploads";
+    private static final String ENCRYPTION_KEY_FILE = "encryptionKeyFile";
+    private static final String DEFAULT_ENCRYPTION_KEY_FILE = "SAGU.key";
+    private static final String BANDWIDTH_LIMIT = "bandwidthLimit";
+    private static final String BANDWIDTH_SCHEDULE = "bandwidthSchedule";
+    private static final String BANDWIDTH_BURST_KB = "bandwidthBurstKB";
+    private static final String DEDUPLICATE = "deduplicate";
+    private static final String WALK_INCLUDE = "walkInclude";
+    private static final String WALK_EXCLUDE = "walkExclude";
+    private static final String WALK_SYMLINKS = "walkSymlinks";
+
+    private static final int DEFAULT_PART_SIZE_MB = 16;
+    private static final int DEFAULT_UPLOAD_THREADS = 4;
+    private static final int DEFAULT_CONCURRENT_FILES = 3;
+    private static final int DEFAULT_STALE_UPLOAD_DAYS = 7;
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+    private static final int DEFAULT_CONNECTION_IDLE_SECONDS = 60;
+    private static final int DEFAULT_CONNECTION_TTL_SECONDS = 300;
+    private static final int DEFAULT_PACK_MAX_FILE_KB = 1024;
+    private static final int DEFAULT_PACK_TARGET_MB = 256;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final int DEFAULT_BANDWIDTH_BURST_KB = 1024;
 
     private final Properties properties = new Properties();
     private final Path dir;
@@ -120,6 +165,257 @@ public class AppProperties {
         }
     }
 
+    /**
+     * @return size of one multipart upload part in megabytes (MiB), the initial one if part size is adaptive
+     */
+    public int getPartSizeMB() {
+        return getIntProperty(PART_SIZE_MB, DEFAULT_PART_SIZE_MB);
+    }
+
+    /**
+     * @return true if part size should be adjusted from measured throughput and error rate of uploaded parts
+     */
+    public boolean isAdaptivePartSize() {
+        return getBooleanProperty(ADAPTIVE_PART_SIZE, true);
+    }
+
+    /**
+     * @return number of parts of one archive being uploaded at the same time
+     */
+    public int getUploadThreads() {
+        return getIntProperty(UPLOAD_THREADS, DEFAULT_UPLOAD_THREADS);
+    }
+
+    /**
+     * @return number of files uploaded at the same time
+     */
+    public int getConcurrentFiles() {
+        return getIntProperty(CONCURRENT_FILES, DEFAULT_CONCURRENT_FILES);
+    }
+
+    /**
+     * @return number of parts of a file read ahead of the parts being sent, 0 to choose it by the source device
+     */
+    public int getReadAheadParts() {
+        return Math.max(0, getIntProperty(READ_AHEAD_PARTS, 0));
+    }
+
+    /**
+     * @return most bytes of part buffers of all uploads together, by default half of the memory the JVM may use
+     */
+    public long getBufferBudgetBytes() {
+        final int budgetMB = getIntProperty(BUFFER_BUDGET_MB, 0);
+        return budgetMB > 0 ? budgetMB * MB : Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * @return true if uploaded files should be read past the page cache, so a backup does not evict the data other
+     * services on the machine use
+     */
+    public boolean isUncachedReads() {
+        return getBooleanProperty(UNCACHED_READS, false);
+    }
+
+    /**
+     * @return true if files should be uploaded in the order their data lies on the disk, see {@link DiskLayoutOrder},
+     * which saves seeks on spinning disks
+     */
+    public boolean isDiskLayoutOrder() {
+        return getBooleanProperty(DISK_LAYOUT_ORDER, false);
+    }
+
+    /**
+     * Returns limits of reads from local disks by mount, {@code diskReadLimits}, see {@link DiskReadLimiter}. Invalid
+     * limits are reported on the console and ignored, reads are not limited then.
+     *
+     * @return the limits, unlimited by default
+     */
+    public DiskReadLimiter getDiskReadLimiter() {
+        try {
+            return DiskReadLimiter.parse(properties.getProperty(DISK_READ_LIMITS));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring disk read limits: " + e.getMessage());
+            return DiskReadLimiter.unlimited();
+        }
+    }
+
+    /**
+     * @return true if uploads left open on the server should be matched to uploaded files and resumed
+     */
+    public boolean isServerResume() {
+        return getBooleanProperty(SERVER_RESUME, true);
+    }
+
+    /**
+     * @return age in days after which an open multipart upload is considered abandoned
+     */
+    public int getStaleUploadDays() {
+        return getIntProperty(STALE_UPLOAD_DAYS, DEFAULT_STALE_UPLOAD_DAYS);
+    }
+
+    /**
+     * @return maximal number of open HTTP connections of one Glacier client
+     */
+    public int getMaxConnections() {
+        return getIntProperty(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @return true if TCP keep-alive should be enabled on connections to AWS
+     */
+    public boolean isTcpKeepAlive() {
+        return getBooleanProperty(TCP_KEEP_ALIVE, true);
+    }
+
+    /**
+     * @return seconds after which an idle pooled connection is closed
+     */
+    public int getConnectionIdleSeconds() {
+        return getIntProperty(CONNECTION_IDLE_SECONDS, DEFAULT_CONNECTION_IDLE_SECONDS);
+    }
+
+    /**
+     * @return seconds after which a pooled connection is not reused any more, -1 to reuse it forever
+     */
+    public int getConnectionTtlSeconds() {
+        return getIntProperty(CONNECTION_TTL_SECONDS, DEFAULT_CONNECTION_TTL_SECONDS);
+    }
+
+    /**
+     * @return true if small files of a batch should be packed into container archives
+     */
+    public boolean isPackSmallFiles() {
+        return getBooleanProperty(PACK_SMALL_FILES, false);
+    }
+
+    /**
+     * @return size in kilobytes (KiB) below which a file is packed into a container
+     */
+    public int getPackMaxFileKB() {
+        return getIntProperty(PACK_MAX_FILE_KB, DEFAULT_PACK_MAX_FILE_KB);
+    }
+
+    /**
+     * @return target size of one container archive in megabytes (MiB)
+     */
+    public int getPackTargetMB() {
+        return getIntProperty(PACK_TARGET_MB, DEFAULT_PACK_TARGET_MB);
+    }
+
+    /**
+     * @return true if every directory of a batch should be uploaded as one tar archive instead of file by file
+     */
+    public boolean isTarDirectories() {
+        return getBooleanProperty(TAR_DIRECTORIES, false);
+    }
+
+    /**
+     * @return true if files which look compressible should be uploaded gzip compressed
+     */
+    public boolean isCompressUploads() {
+        return getBooleanProperty(COMPRESS_UPLOADS, false);
+    }
+
+    /**
+     * @return deflate level of compressed uploads, 1 (fastest) to 9 (smallest)
+     */
+    public int getCompressionLevel() {
+        return getIntProperty(COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * @return true if uploaded files should be encrypted before they leave this computer
+     */
+    public boolean isEncryptUploads() {
+        return getBooleanProperty(ENCRYPT_UPLOADS, false);
+    }
+
+    /**
+     * @return file of the encryption master key, by default in the directory of properties
+     */
+    public Path getEncryptionKeyFile() {
+        final String value = properties.getProperty(ENCRYPTION_KEY_FILE);
+        return isNullOrEmpty(value) ? dir.resolve(DEFAULT_ENCRYPTION_KEY_FILE) : get(value.trim());
+    }
+
+    /**
+     * Returns rates of all transfers by time of day, from the default rate {@code bandwidthLimit} and the windows
+     * {@code bandwidthSchedule}, see {@link BandwidthSchedule}. An invalid schedule is reported on the console and
+     * ignored, transfers are not limited then.
+     *
+     * @return the schedule, unlimited by default
+     */
+    public BandwidthSchedule getBandwidthSchedule() {
+        try {
+            return BandwidthSchedule.parse(properties.getProperty(BANDWIDTH_LIMIT),
+                    properties.getProperty(BANDWIDTH_SCHEDULE));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring bandwidth limit: " + e.getMessage());
+            return BandwidthSchedule.unlimited();
+        }
+    }
+
+    /**
+     * @return amount in kilobytes (KiB) which may be transferred at full speed after an idle period
+     */
+    public int getBandwidthBurstKB() {
+        return getIntProperty(BANDWIDTH_BURST_KB, DEFAULT_BANDWIDTH_BURST_KB);
+    }
+
+    /**
+     * Returns what happens to files whose content is in the vault already, {@code off}, {@code skip} or {@code alias}
+     * (see {@link DedupIndex.Mode}). An invalid value is reported on the console and ignored.
+     *
+     * @return the mode, {@link DedupIndex.Mode#OFF} by default
+     */
+    public DedupIndex.Mode getDeduplication() {
+        final String value = properties.getProperty(DEDUPLICATE);
+        if (isNullOrEmpty(value)) {
+            return DedupIndex.Mode.OFF;
+        }
+        try {
+            return DedupIndex.Mode.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring deduplication mode " + value + ", expected off, skip or alias");
+            return DedupIndex.Mode.OFF;
+        }
+    }
+
+    /**
+     * @return comma separated globs of files in uploaded directories to be uploaded, empty for all files
+     */
+    public String getWalkInclude() {
+        final String value = properties.getProperty(WALK_INCLUDE);
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * @return comma separated globs of files and directories in uploaded directories to be skipped
+     */
+    public String getWalkExclude() {
+        final String value = properties.getProperty(WALK_EXCLUDE);
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * Returns what happens to symbolic links in uploaded directories, {@code skip}, {@code files} or {@code follow}
+     * (see {@link FileTreeWalker.SymlinkPolicy}). An invalid value is reported on the console and ignored.
+     *
+     * @return the policy, {@link FileTreeWalker.SymlinkPolicy#SKIP} by default
+     */
+    public FileTreeWalker.SymlinkPolicy getWalkSymlinks() {
+        final String value = properties.getProperty(WALK_SYMLINKS);
+        if (isNullOrEmpty(value)) {
+            return FileTreeWalker.SymlinkPolicy.SKIP;
+        }
+        try {
+            return FileTreeWalker.SymlinkPolicy.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring symbolic link policy " + value + ", expected skip, files or follow");
+            return FileTreeWalker.SymlinkPolicy.SKIP;
+        }
+    }
+
     /**
      * @return vault key
      */
@@ -194,6 +490,23 @@ public class AppProperties {
         return dir;
     }
 
+    private int getIntProperty(final String propertyKey, final int defaultValue) {
+        final String value = properties.getProperty(propertyKey);
+        if (isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private boolean getBooleanProperty(final String propertyKey, final boolean defaultValue) {
+        final String value = properties.getProperty(propertyKey);
+        return isNullOrEmpty(value) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
     private boolean setProperty(final String oldValue, final String newValue, final String propertyKey) {
         if (isNullOrEmpty(oldValue) && !isNullOrEmpty(newValue) ||
                 !isNullOrEmpty(oldValue) && !oldValue.equals(newValue)) {
@@ -0,0 +1,107 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static com.brianmcmichael.sagu.BandwidthSchedule.UNLIMITED;
+
+/**
+ * Token bucket shared by all transfers.
+ * <p>
+ * Tokens are bytes. They flow into the bucket at the rate the {@link BandwidthSchedule} gives for the current time of
+ * day, and the bucket holds at most the burst size, so an idle period lets at most one burst through at full speed.
+ * A transfer takes tokens for every chunk it sends or receives; when the bucket is empty it waits. Waiting happens in
+ * short slices and the rate is looked up again after each of them, so schedule windows take effect in the middle of a
+ * transfer. The schedule itself is fixed; a changed one applies to limiters created after the change.
+ */
+public class BandwidthLimiter {
+
+    private static final long MAX_WAIT_MILLIS = 100;
+
+    private final long burst;
+    private final LongSupplier nanoClock;
+    private final Supplier<LocalTime> timeOfDay;
+    private final BandwidthSchedule schedule;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Initializes the limiter with a full bucket.
+     *
+     * @param schedule   rates by time of day
+     * @param burstBytes size of the bucket in bytes
+     */
+    public BandwidthLimiter(final BandwidthSchedule schedule, final long burstBytes) {
+        this(schedule, burstBytes, System::nanoTime, LocalTime::now);
+    }
+
+    BandwidthLimiter(final BandwidthSchedule schedule, final long burstBytes, final LongSupplier nanoClock,
+                     final Supplier<LocalTime> timeOfDay) {
+        if (burstBytes < 1) {
+            throw new IllegalArgumentException("Burst has to be at least one byte, was " + burstBytes);
+        }
+        this.schedule = schedule;
+        this.burst = burstBytes;
+        this.nanoClock = nanoClock;
+        this.timeOfDay = timeOfDay;
+        this.tokens = burstBytes;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+
+    /**
+     * Waits until the bytes may be transferred. A request larger than the bucket is let through once the bucket is
+     * not empty and leaves the bucket in debt, so later requests wait for it.
+     *
+     * @param bytes number of bytes to be transferred
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public synchronized void acquire(final long bytes) throws InterruptedIOException {
+        while (true) {
+            final long rate = schedule.rateAt(timeOfDay.get());
+            refill(rate);
+            if (rate == UNLIMITED) {
+                // unlimited transfers leave no debt behind for the next limited window
+                return;
+            }
+            if (tokens > 0) {
+                tokens -= bytes;
+                return;
+            }
+            final long waitMillis = (long) Math.ceil(-tokens * 1000 / rate);
+            try {
+                wait(Math.max(1, Math.min(MAX_WAIT_MILLIS, waitMillis)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+
+    /**
+     * @return current rate in bytes per second, {@link BandwidthSchedule#UNLIMITED} for no limit
+     */
+    public synchronized long getRate() {
+        return schedule.rateAt(timeOfDay.get());
+    }
+
+    private void refill(final long rate) {
+        final long now = nanoClock.getAsLong();
+        final long elapsed = now - lastRefill;
+        lastRefill = now;
+        if (rate == UNLIMITED) {
+            tokens = burst;
+        } else {
+            tokens = Math.min(burst, tokens + elapsed * (double) rate / 1e9);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Transfer rate by time of day.
+ * <p>
+ * The schedule is a default rate and a comma separated list of windows {@code HH:mm-HH:mm=rate} which override it,
+ * e.g. default {@code 50Mbit} with windows {@code 22:00-06:00=unlimited}. A window which ends before it starts spans
+ * midnight; the first window containing the time wins. Rates are {@code unlimited} or a number followed by
+ * {@code bit}, {@code kbit}, {@code Mbit}, {@code Gbit} (bits per second) or {@code B}, {@code KB}, {@code MB},
+ * {@code GB} (bytes per second, binary multiples); a plain number is bytes per second.
+ */
+public class BandwidthSchedule {
+
+    /**
+     * Rate of an unlimited transfer.
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final long defaultRate;
+    private final List<Window> windows;
+
+    private BandwidthSchedule(final long defaultRate, final List<Window> windows) {
+        this.defaultRate = defaultRate;
+        this.windows = Collections.unmodifiableList(windows);
+    }
+
+    /**
+     * @return schedule without any limit
+     */
+    public static BandwidthSchedule unlimited() {
+        return new BandwidthSchedule(UNLIMITED, Collections.<Window>emptyList());
+    }
+
+    /**
+     * Parses the schedule.
+     *
+     * @param defaultRate rate outside of all windows
+     * @param windows     comma separated windows, may be null or empty
+     * @return the schedule
+     * @throws IllegalArgumentException if a rate or a window is not valid
+     */
+    public static BandwidthSchedule parse(final String defaultRate, final String windows) {
+        final List<Window> parsed = new ArrayList<>();
+        if (windows != null && !windows.trim().isEmpty()) {
+            for (String window : windows.split(",")) {
+                parsed.add(Window.parse(window.trim()));
+            }
+        }
+        return new BandwidthSchedule(parseRate(defaultRate), parsed);
+    }
+
+    /**
+     * @param time time of day
+     * @return rate in bytes per second at the time, {@link #UNLIMITED} for no limit
+     */
+    public long rateAt(final LocalTime time) {
+        for (Window window : windows) {
+            if (window.contains(time)) {
+                return window.rate;
+            }
+        }
+        return defaultRate;
+    }
+
+    /**
+     * Parses a rate.
+     *
+     * @param rate rate with its unit
+     * @return rate in bytes per second, {@link #UNLIMITED} for no limit
+     * @throws IllegalArgumentException if the rate is not valid
+     */
+    static long parseRate(final String rate) {
+        final String value = rate == null ? "" : rate.trim();
+        if (value.isEmpty() || value.equalsIgnoreCase("unlimited")) {
+            return UNLIMITED;
+        }
+        int digits = 0;
+        while (digits < value.length() && (Character.isDigit(value.charAt(digits)) || value.charAt(digits) == '.')) {
+            digits++;
+        }
+        final double number;
+        try {
+            number = Double.parseDouble(value.substring(0, digits));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate " + rate, e);
+        }
+        final String unit = value.substring(digits).trim();
+        final double bytesPerSecond;
+        switch (unit.toLowerCase(Locale.ENGLISH)) {
+            case "":
+            case "b":
+                bytesPerSecond = number;
+                break;
+            case "kb":
+                bytesPerSecond = number * 1024;
+                break;
+            case "mb":
+                bytesPerSecond = number * 1024 * 1024;
+                break;
+            case "gb":
+                bytesPerSecond = number * 1024 * 1024 * 1024;
+                break;
+            case "bit":
+                bytesPerSecond = number / 8;
+                break;
+            case "kbit":
+                bytesPerSecond = number * 1e3 / 8;
+                break;
+            case "mbit":
+                bytesPerSecond = number * 1e6 / 8;
+                break;
+            case "gbit":
+                bytesPerSecond = number * 1e9 / 8;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid unit of rate " + rate);
+        }
+        if (bytesPerSecond < 1) {
+            throw new IllegalArgumentException("Rate " + rate + " is lower than one byte per second");
+        }
+        return (long) bytesPerSecond;
+    }
+
+    private static final class Window {
+        private final LocalTime start;
+        private final LocalTime end;
+        private final long rate;
+
+        private Window(final LocalTime start, final LocalTime end, final long rate) {
+            this.start = start;
+            this.end = end;
+            this.rate = rate;
+        }
+
+        private static Window parse(final String window) {
+            final int equals = window.indexOf('=');
+            final int dash = window.indexOf('-');
+            if (equals < 0 || dash < 0 || dash > equals) {
+                throw new IllegalArgumentException("Invalid window " + window + ", expected HH:mm-HH:mm=rate");
+            }
+            try {
+                return new Window(LocalTime.parse(window.substring(0, dash).trim()),
+                        LocalTime.parse(window.substring(dash + 1, equals).trim()),
+                        parseRate(window.substring(equals + 1)));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid window " + window + ", expected HH:mm-HH:mm=rate", e);
+            }
+        }
+
+        private boolean contains(final LocalTime time) {
+            if (start.isBefore(end)) {
+                return !time.isBefore(start) && time.isBefore(end);
+            }
+            return !time.isBefore(start) || time.isBefore(end);
+        }
+    }
+}
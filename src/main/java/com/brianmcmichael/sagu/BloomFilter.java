@@ -0,0 +1,113 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Bloom filter of content keys, a SHA-256 tree hash and a length.
+ * <p>
+ * The hash is uniformly random already, so bit positions come from its first 16 bytes and the length by double
+ * hashing instead of from further hash functions.
+ */
+class BloomFilter {
+
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    private final long[] words;
+    private final long bits;
+    private final int hashes;
+
+    /**
+     * @param expectedEntries   number of entries the filter is sized for
+     * @param falsePositiveRate probability of a false positive at the expected number of entries
+     */
+    BloomFilter(final long expectedEntries, final double falsePositiveRate) {
+        final long entries = Math.max(1, expectedEntries);
+        final double ln2 = Math.log(2);
+        final long wanted = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        final long wordCount = Math.min(Integer.MAX_VALUE - 8, Math.max(1, (wanted + 63) / 64));
+        this.words = new long[(int) wordCount];
+        this.bits = wordCount * 64;
+        this.hashes = (int) Math.max(1, Math.min(16, Math.round((double) bits / entries * ln2)));
+    }
+
+    private BloomFilter(final long[] words, final int hashes) {
+        this.words = words;
+        this.bits = words.length * 64L;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in input positioned at the filter
+     * @return the filter
+     * @throws IOException if the input fails or does not hold a valid filter
+     */
+    static BloomFilter readFrom(final DataInput in) throws IOException {
+        final int hashes = in.readInt();
+        final int wordCount = in.readInt();
+        if (hashes < 1 || hashes > 16 || wordCount < 1 || wordCount > Integer.MAX_VALUE - 8) {
+            throw new IOException("Invalid Bloom filter with " + hashes + " hashes and " + wordCount + " words");
+        }
+        final long[] words = new long[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = in.readLong();
+        }
+        return new BloomFilter(words, hashes);
+    }
+
+    void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    void add(final byte[] hash, final long length) {
+        final long h1 = first(hash, length);
+        final long h2 = second(hash);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = Math.floorMod(h1 + i * h2, bits);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(final byte[] hash, final long length) {
+        final long h1 = first(hash, length);
+        final long h2 = second(hash);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long first(final byte[] hash, final long length) {
+        return toLong(hash, 0) ^ length * MIX;
+    }
+
+    private static long second(final byte[] hash) {
+        return toLong(hash, 8) | 1;
+    }
+
+    private static long toLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | bytes[offset + i] & 0xff;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the remaining bytes of a buffer, which may be a direct one, without copying them to another buffer first.
+ * <p>
+ * The stream supports mark and reset with no read limit, so the SDK rewinds it to retry a request instead of
+ * buffering the body. The position of the given buffer is not changed.
+ * <p>
+ * The number of bytes read so far, rewinds included, can be published to a counter, which shows how far a request
+ * sending the stream got.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+    private final AtomicLong position;
+    private int mark;
+
+    ByteBufferInputStream(final ByteBuffer buffer) {
+        this(buffer, new AtomicLong());
+    }
+
+    /**
+     * @param buffer   buffer to be read
+     * @param position counter set to the number of bytes read whenever the stream moves
+     */
+    ByteBufferInputStream(final ByteBuffer buffer, final AtomicLong position) {
+        this.buffer = buffer.slice();
+        this.position = position;
+    }
+
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int b = buffer.get() & 0xff;
+        position.set(buffer.position());
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int read = Math.min(len, buffer.remaining());
+        buffer.get(b, off, read);
+        position.set(buffer.position());
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        position.set(buffer.position());
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buffer.position(mark);
+        position.set(mark);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Groups small files of a batch into container archives.
+ * <p>
+ * Every small file uploaded as its own archive costs a round trip, per-archive overhead in Glacier and a line in the
+ * vault inventory. Packing them into tar containers of about the target size uploads them as few large archives;
+ * the offsets recorded in the {@link PackCatalog} still allow to retrieve any single file by a ranged retrieval.
+ */
+public class ContainerPacker {
+
+    private final long maxMemberSize;
+    private final long targetSize;
+
+    /**
+     * Initializes the packer.
+     *
+     * @param maxMemberSize files smaller than this are packed, larger files are uploaded alone
+     * @param targetSize    maximal size of a container, unless a single member is larger
+     */
+    public ContainerPacker(final long maxMemberSize, final long targetSize) {
+        this.maxMemberSize = maxMemberSize;
+        this.targetSize = targetSize;
+    }
+
+    /**
+     * Splits the batch into groups. A group of several files is one container archive, a group of one file is an
+     * ordinary upload of that file. Files keep their order within the groups.
+     *
+     * @param files files of the batch
+     * @return the groups
+     */
+    public List<List<File>> pack(final List<File> files) {
+        final List<List<File>> groups = new ArrayList<>();
+        List<File> container = new ArrayList<>();
+        long containerSize = TarStream.END_LENGTH;
+        for (File file : files) {
+            if (file.length() >= maxMemberSize) {
+                groups.add(singletonList(file));
+                continue;
+            }
+            final long memberSize = TarStream.memberLength(memberName(file), file.length());
+            if (!container.isEmpty() && containerSize + memberSize > targetSize) {
+                groups.add(container);
+                container = new ArrayList<>();
+                containerSize = TarStream.END_LENGTH;
+            }
+            container.add(file);
+            containerSize += memberSize;
+        }
+        if (!container.isEmpty()) {
+            groups.add(container);
+        }
+        return groups;
+    }
+
+    /**
+     * Returns name of the file in containers: its absolute path with forward slashes and without the root, the same
+     * name tar uses.
+     *
+     * @param file packed file
+     * @return member name
+     */
+    public static String memberName(final File file) {
+        String name = file.getAbsolutePath().replace(File.separatorChar, '/');
+        if (name.length() > 1 && name.charAt(1) == ':') {
+            name = name.substring(2);
+        }
+        while (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        return name;
+    }
+
+    /**
+     * Returns name of the file in the container of a whole directory: its path relative to the parent of the
+     * directory with forward slashes, so the archive unpacks into a directory of the same name.
+     *
+     * @param directory packed directory
+     * @param file      file in the directory
+     * @return member name
+     */
+    public static String memberName(final File directory, final File file) {
+        final Path parent = directory.getAbsoluteFile().toPath().getParent();
+        if (parent == null) {
+            // root of a file system
+            return memberName(file);
+        }
+        return parent.relativize(file.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+    }
+}
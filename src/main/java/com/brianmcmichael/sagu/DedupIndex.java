@@ -0,0 +1,569 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.brianmcmichael.sagu.TreeHash.fromHex;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local index of uploaded content, which finds an archive holding the same bytes as a file about to be uploaded.
+ * <p>
+ * Content is identified by its tree hash and length. The index is built from the CSV log written by
+ * {@link LogWriter}: compressed or encrypted archives are indexed by their {@value #CONTENT_HASH} and
+ * {@value #ORIGINAL_BYTES} details, other archives by their own hash and length. The index file
+ * {@value #INDEX_FILE_NAME} keeps records sorted by the content, each pointing to its line in the log, and only lines
+ * appended to the log since the last run are read and merged in. A Bloom filter of all indexed content answers most
+ * lookups of new content without touching the disk, so checking a file stays cheap with tens of millions of logged
+ * archives. The filter is saved in {@value #BLOOM_FILE_NAME} whenever records are merged into the index, so opening
+ * the index reads the filter alone instead of every record.
+ */
+public class DedupIndex implements Closeable {
+
+    /**
+     * What happens to a file whose content is in the vault already.
+     */
+    public enum Mode {
+        /**
+         * Files are uploaded without looking them up.
+         */
+        OFF,
+        /**
+         * Duplicates are neither uploaded nor logged.
+         */
+        SKIP,
+        /**
+         * Duplicates are not uploaded, they are logged with the ID of the existing archive.
+         */
+        ALIAS
+    }
+
+    static final String INDEX_FILE_NAME = "GlacierDedup.idx";
+    static final String BLOOM_FILE_NAME = "GlacierDedup.bloom";
+    /**
+     * Detail with the tree hash of the original file of a compressed or encrypted archive.
+     */
+    static final String CONTENT_HASH = "ContentHash";
+    /**
+     * Detail with the length of the original file of a compressed or encrypted archive.
+     */
+    static final String ORIGINAL_BYTES = "OriginalBytes";
+    /**
+     * Detail of a file which was not uploaded because its content is in the vault already.
+     */
+    static final String DEDUPLICATED = "Deduplicated";
+
+    static final int MAX_MERGE_RECORDS = 1 << 20;
+
+    private static final int MAGIC = 0x53444958;
+    private static final int BLOOM_MAGIC = 0x53444246;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 24;
+    private static final int HASH_LENGTH = 32;
+    private static final int KEY_LENGTH = HASH_LENGTH + 8;
+    private static final int RECORD_LENGTH = KEY_LENGTH + 8;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long BLOOM_HEADROOM = 100000;
+    private static final Charset LOG_CHARSET = Charset.defaultCharset();
+
+    private final Path log;
+    private final Path indexFile;
+    private final Path bloomFile;
+    private final Map<String, List<Entry>> added = new HashMap<>();
+    private final FileChannel index;
+    private final FileChannel logChannel;
+    private final long count;
+    private final BloomFilter bloom;
+
+    /**
+     * Opens the index in the directory of logs and brings it up to date with the CSV log.
+     *
+     * @param appProperties Application properties (to get directory for log files)
+     * @throws IOException If an I/O error occurs
+     */
+    public DedupIndex(final AppProperties appProperties) throws IOException {
+        this(LogWriter.getLogFile(2, appProperties).toPath(), appProperties.getDir().resolve(INDEX_FILE_NAME));
+    }
+
+    DedupIndex(final Path log, final Path indexFile) throws IOException {
+        this.log = log;
+        this.indexFile = indexFile;
+        this.bloomFile = indexFile.resolveSibling(BLOOM_FILE_NAME);
+        update();
+        final long[] header = readHeader();
+        count = header == null ? 0 : header[1];
+        final BloomFilter saved = count > 0 ? readBloomFilter() : null;
+        if (saved != null) {
+            bloom = saved;
+        } else {
+            // no filter saved for this index yet, e.g. the index was written by an older version
+            bloom = new BloomFilter(count + BLOOM_HEADROOM, FALSE_POSITIVE_RATE);
+            if (count > 0) {
+                loadBloomFilter();
+                writeBloomFilter(bloom, count);
+            }
+        }
+        if (count > 0) {
+            index = FileChannel.open(indexFile, READ);
+            logChannel = FileChannel.open(log, READ);
+        } else {
+            index = null;
+            logChannel = null;
+        }
+    }
+
+    /**
+     * Looks up an archive with the content in the vault. The archive may hold the content compressed or encrypted, so
+     * it is returned as it was logged, with its own tree hash and length and the details of its transformations.
+     *
+     * @param vaultName The name of vault
+     * @param region    Amazon Region
+     * @param treeHash  hex encoded tree hash of the content
+     * @param length    length of the content in bytes
+     * @return the archive with the content, null if there is none
+     * @throws IOException If an I/O error occurs
+     */
+    public synchronized UploadedArchive lookup(final String vaultName, final String region, final String treeHash,
+                                      final long length) throws IOException {
+        final byte[] hash = fromHex(treeHash);
+        if (!bloom.mightContain(hash, length)) {
+            return null;
+        }
+        final List<Entry> session = added.get(key(treeHash, length));
+        if (session != null) {
+            for (Entry entry : session) {
+                if (entry.isIn(vaultName, region)) {
+                    return entry.archive;
+                }
+            }
+        }
+        if (index == null) {
+            return null;
+        }
+        final byte[] key = record(hash, length, 0);
+        final byte[] probe = new byte[RECORD_LENGTH];
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            readRecord(middle, probe);
+            if (compareKeys(probe, key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (long i = low; i < count; i++) {
+            readRecord(i, probe);
+            if (compareKeys(probe, key) != 0) {
+                break;
+            }
+            final Entry entry = Entry.parse(readLogLine(ByteBuffer.wrap(probe, KEY_LENGTH, 8).getLong()));
+            if (entry != null && entry.isIn(vaultName, region)) {
+                return entry.archive;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds content uploaded in this run, so that later files of the same batch find it. Content logged by
+     * {@link LogWriter} gets to the index file the next time the index is opened.
+     *
+     * @param vaultName The name of vault
+     * @param region    Amazon Region
+     * @param treeHash  hex encoded tree hash of the content
+     * @param length    length of the content in bytes
+     * @param archive   the archive with the content, with the details it is logged with
+     */
+    public synchronized void add(final String vaultName, final String region, final String treeHash,
+                                 final long length, final UploadedArchive archive) {
+        bloom.add(fromHex(treeHash), length);
+        List<Entry> entries = added.get(key(treeHash, length));
+        if (entries == null) {
+            entries = new ArrayList<>();
+            added.put(key(treeHash, length), entries);
+        }
+        entries.add(new Entry(archive, vaultName, region, treeHash, length));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (index != null) {
+                index.close();
+            }
+        } finally {
+            if (logChannel != null) {
+                logChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads lines appended to the log since the index file was written and merges them into it. A log which got
+     * shorter was replaced, the index is built from scratch then.
+     */
+    private void update() throws IOException {
+        final long logLength = Files.exists(log) ? Files.size(log) : 0;
+        final long[] header = readHeader();
+        long covered = header == null || header[0] > logLength ? 0 : header[0];
+        if (header != null && covered == 0) {
+            Files.delete(indexFile);
+            Files.deleteIfExists(bloomFile);
+        }
+        if (covered == logLength) {
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(log))) {
+            skipFully(in, covered);
+            final List<byte[]> records = new ArrayList<>();
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long position = covered;
+            long lineStart = covered;
+            int b;
+            while ((b = in.read()) >= 0) {
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                final Entry entry = Entry.parse(new String(line.toByteArray(), LOG_CHARSET));
+                if (entry != null) {
+                    records.add(record(fromHex(entry.treeHash), entry.length, lineStart));
+                }
+                line.reset();
+                lineStart = position;
+                if (records.size() == MAX_MERGE_RECORDS) {
+                    merge(records, lineStart);
+                    records.clear();
+                }
+            }
+            // an unfinished last line is read again next time
+            merge(records, lineStart);
+        }
+    }
+
+    /**
+     * Writes a new index file with the records merged into the records of the old one, then replaces the old one and
+     * saves the Bloom filter of the new one. The old filter is deleted first, so it is never taken for the new index.
+     */
+    private void merge(final List<byte[]> records, final long covered) throws IOException {
+        final long[] header = readHeader();
+        if (records.isEmpty() && header != null) {
+            // nothing to merge, only the covered length of the log moves on
+            try (FileChannel channel = FileChannel.open(indexFile, WRITE)) {
+                channel.write((ByteBuffer) ByteBuffer.allocate(8).putLong(covered).flip(), 8);
+            }
+            return;
+        }
+        Collections.sort(records, DedupIndex::compareKeys);
+        final long oldCount = header == null ? 0 : header[1];
+        final BloomFilter merged = new BloomFilter(oldCount + records.size() + BLOOM_HEADROOM, FALSE_POSITIVE_RATE);
+        final Path temporary = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+             DataInputStream old = oldCount == 0 ? null
+                     : new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(covered);
+            out.writeLong(oldCount + records.size());
+            byte[] oldRecord = null;
+            long oldRead = 0;
+            if (old != null) {
+                skipFully(old, HEADER_LENGTH);
+                oldRecord = new byte[RECORD_LENGTH];
+                old.readFully(oldRecord);
+                oldRead = 1;
+            }
+            for (byte[] record : records) {
+                while (oldRecord != null && compareKeys(oldRecord, record) <= 0) {
+                    writeRecord(out, merged, oldRecord);
+                    oldRecord = nextRecord(old, oldRecord, oldRead++, oldCount);
+                }
+                writeRecord(out, merged, record);
+            }
+            while (oldRecord != null) {
+                writeRecord(out, merged, oldRecord);
+                oldRecord = nextRecord(old, oldRecord, oldRead++, oldCount);
+            }
+        }
+        Files.deleteIfExists(bloomFile);
+        Files.move(temporary, indexFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        writeBloomFilter(merged, oldCount + records.size());
+    }
+
+    private static void writeRecord(final DataOutputStream out, final BloomFilter bloom, final byte[] record)
+            throws IOException {
+        out.write(record);
+        bloom.add(record, ByteBuffer.wrap(record, HASH_LENGTH, 8).getLong());
+    }
+
+    private static byte[] nextRecord(final DataInputStream in, final byte[] buffer, final long read, final long count)
+            throws IOException {
+        if (read >= count) {
+            return null;
+        }
+        in.readFully(buffer);
+        return buffer;
+    }
+
+    private void loadBloomFilter() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            skipFully(in, HEADER_LENGTH);
+            final byte[] record = new byte[RECORD_LENGTH];
+            for (long i = 0; i < count; i++) {
+                in.readFully(record);
+                bloom.add(record, ByteBuffer.wrap(record, HASH_LENGTH, 8).getLong());
+            }
+        }
+    }
+
+    /**
+     * Saves the filter with the number of index records it was built from.
+     */
+    private void writeBloomFilter(final BloomFilter filter, final long records) throws IOException {
+        final Path temporary = bloomFile.resolveSibling(BLOOM_FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(BLOOM_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(records);
+            filter.writeTo(out);
+        }
+        Files.move(temporary, bloomFile, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the saved filter, null if there is none or it was not built from the current index file
+     */
+    private BloomFilter readBloomFilter() {
+        if (!Files.exists(bloomFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bloomFile)))) {
+            if (in.readInt() != BLOOM_MAGIC || in.readInt() != VERSION || in.readLong() != count) {
+                return null;
+            }
+            final BloomFilter filter = BloomFilter.readFrom(in);
+            return in.read() < 0 ? filter : null;
+        } catch (IOException e) {
+            // truncated or damaged, it is built from the index again
+            return null;
+        }
+    }
+
+    /**
+     * @return covered length of the log and number of records, null if there is no valid index file
+     */
+    private long[] readHeader() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // fill the header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            final long covered = header.getLong();
+            final long records = header.getLong();
+            if (records < 0 || channel.size() != HEADER_LENGTH + records * RECORD_LENGTH) {
+                return null;
+            }
+            return new long[]{covered, records};
+        }
+    }
+
+    private void readRecord(final long i, final byte[] record) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        long position = HEADER_LENGTH + i * RECORD_LENGTH;
+        while (buffer.hasRemaining()) {
+            final int read = index.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Index file " + indexFile + " is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private String readLogLine(final long offset) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            final int read = logChannel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    line.write(buffer.array(), 0, i);
+                    return new String(line.toByteArray(), LOG_CHARSET);
+                }
+            }
+            line.write(buffer.array(), 0, read);
+            position += read;
+        }
+        return new String(line.toByteArray(), LOG_CHARSET);
+    }
+
+    private static byte[] record(final byte[] hash, final long length, final long offset) {
+        return ByteBuffer.allocate(RECORD_LENGTH).put(hash).putLong(length).putLong(offset).array();
+    }
+
+    private static int compareKeys(final byte[] a, final byte[] b) {
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            final int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private static String key(final String treeHash, final long length) {
+        return treeHash.toLowerCase() + "/" + length;
+    }
+
+    private static void skipFully(final InputStream in, final long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    /**
+     * Splits a line of the CSV log to its quoted cells.
+     */
+    static List<String> parseCsvLine(final String line) {
+        final List<String> cells = new ArrayList<>();
+        final StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else if (c != '\r') {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    private static final class Entry {
+        private final UploadedArchive archive;
+        private final String vaultName;
+        private final String region;
+        private final String treeHash;
+        private final long length;
+
+        private Entry(final UploadedArchive archive, final String vaultName, final String region,
+                      final String treeHash, final long length) {
+            this.archive = archive;
+            this.vaultName = vaultName;
+            this.region = region;
+            this.treeHash = treeHash;
+            this.length = length;
+        }
+
+        /**
+         * @return the logged content, null if the line is not an uploaded file or its content is not known
+         */
+        private static Entry parse(final String line) {
+            final List<String> cells = parseCsvLine(line);
+            if (cells.size() < 7 || cells.get(0).isEmpty()) {
+                return null;
+            }
+            final Map<String, String> details = new LinkedHashMap<>();
+            for (String cell : cells.subList(7, cells.size())) {
+                final int equals = cell.indexOf('=');
+                if (equals > 0) {
+                    details.put(cell.substring(0, equals), cell.substring(equals + 1));
+                }
+            }
+            String treeHash = details.get(CONTENT_HASH);
+            String length = details.get(ORIGINAL_BYTES);
+            if (treeHash == null) {
+                if (details.containsKey("Compression") || details.containsKey("Encryption")) {
+                    return null;
+                }
+                treeHash = cells.get(6);
+                length = cells.get(2);
+            }
+            if (!treeHash.matches("[0-9a-fA-F]{" + 2 * HASH_LENGTH + "}")) {
+                return null;
+            }
+            try {
+                // an alias is found as the archive it points to, with the details of its transformations
+                UploadedArchive archive = new UploadedArchive(cells.get(0), cells.get(6), Long.parseLong(cells.get(2)));
+                for (Map.Entry<String, String> detail : details.entrySet()) {
+                    if (!detail.getKey().equals(DEDUPLICATED)) {
+                        archive = archive.withDetail(detail.getKey(), detail.getValue());
+                    }
+                }
+                return new Entry(archive, cells.get(3), cells.get(4), treeHash,
+                        Long.parseLong(length == null ? cells.get(2) : length));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private boolean isIn(final String vaultName, final String region) {
+            return this.vaultName.equals(vaultName) && this.region.equals(region);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Orders files to be uploaded by where their data lies on the disk.
+ * <p>
+ * Files come in the order they are found in directories, which has little to do with where a file system put their
+ * data. On a spinning disk every file read in that order costs a seek, and reading thousands of small files turns into
+ * a seek storm. Files are therefore taken in windows of {@value #WINDOW_FILES} and every window is sorted by device
+ * and then by the first physical block of the file, which Linux reports through {@code filefrag}. Files whose blocks
+ * are not known, e.g. where {@code filefrag} is missing or the file system does not map extents, are sorted by inode
+ * number, which file systems such as ext4 and XFS allocate close to the data. Files without an inode, e.g. on Windows,
+ * keep the order they were found in. Windows keep the memory bounded and let uploads start before the walk ends.
+ */
+public class DiskLayoutOrder {
+
+    static final int WINDOW_FILES = 1024;
+
+    private static final Comparator<Located> BY_LOCATION = Comparator
+            .comparingLong((Located located) -> located.device)
+            .thenComparing(located -> located.block < 0)
+            .thenComparingLong(located -> located.block)
+            .thenComparingLong(located -> located.inode)
+            .thenComparingInt(located -> located.index);
+
+    private final ExtentLocator extents;
+    private final int windowFiles;
+
+    /**
+     * Initializes the order with physical blocks reported by {@code filefrag}.
+     */
+    public DiskLayoutOrder() {
+        this(new Filefrag(), WINDOW_FILES);
+    }
+
+    DiskLayoutOrder(final ExtentLocator extents, final int windowFiles) {
+        if (windowFiles < 1) {
+            throw new IllegalArgumentException("Window has to hold at least one file, was " + windowFiles);
+        }
+        this.extents = extents;
+        this.windowFiles = windowFiles;
+    }
+
+    /**
+     * @param files files in the order they were found
+     * @return the same files, sorted by location window by window
+     */
+    public Iterator<File> order(final Iterator<File> files) {
+        return new Iterator<File>() {
+            private Iterator<File> window = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                if (!window.hasNext() && files.hasNext()) {
+                    final List<File> next = new ArrayList<>(windowFiles);
+                    while (next.size() < windowFiles && files.hasNext()) {
+                        next.add(files.next());
+                    }
+                    window = sort(next).iterator();
+                }
+                return window.hasNext();
+            }
+
+            @Override
+            public File next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return window.next();
+            }
+        };
+    }
+
+    /**
+     * @param files files in the order they were found
+     * @return new list of the same files, sorted by location window by window
+     */
+    public List<File> order(final List<File> files) {
+        final List<File> ordered = new ArrayList<>(files.size());
+        order(files.iterator()).forEachRemaining(ordered::add);
+        return ordered;
+    }
+
+    private List<File> sort(final List<File> window) {
+        final List<Path> paths = new ArrayList<>(window.size());
+        for (File file : window) {
+            paths.add(file.toPath());
+        }
+        final Map<Path, Long> blocks = extents.firstBlocks(paths);
+        final List<Located> located = new ArrayList<>(window.size());
+        for (int i = 0; i < window.size(); i++) {
+            final Long block = blocks.get(paths.get(i));
+            located.add(locate(window.get(i), i, block == null ? -1 : block));
+        }
+        located.sort(BY_LOCATION);
+        final List<File> sorted = new ArrayList<>(window.size());
+        for (Located file : located) {
+            sorted.add(file.file);
+        }
+        return sorted;
+    }
+
+    private static Located locate(final File file, final int index, final long block) {
+        try {
+            final Map<String, Object> unix = Files.readAttributes(file.toPath(), "unix:dev,ino");
+            return new Located(file, index, (Long) unix.get("dev"), block, (Long) unix.get("ino"));
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException | ClassCastException e) {
+            // not a unix file system, or the file is gone; it keeps its place among the other such files
+            return new Located(file, index, Long.MAX_VALUE, -1, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Finds where data of files starts on their devices.
+     */
+    interface ExtentLocator {
+
+        /**
+         * @param files files of one window
+         * @return first physical block of every file it is known for, blocks of one device are comparable
+         */
+        Map<Path, Long> firstBlocks(List<Path> files);
+    }
+
+    /**
+     * Reads the first extent of files from {@code filefrag -v} of e2fsprogs, which asks the kernel by the FIEMAP
+     * ioctl. It is started once per batch of files; when it cannot be started, it is not tried again.
+     */
+    static final class Filefrag implements ExtentLocator {
+
+        private static final int FILES_PER_RUN = 256;
+        private static final String SIZE_PREFIX = "File size of ";
+        private static final Pattern FIRST_EXTENT = Pattern.compile("^\\s*0:\\s*\\d+\\.\\.\\s*\\d+:\\s*(\\d+)\\.\\.");
+
+        private volatile boolean available = true;
+
+        @Override
+        public Map<Path, Long> firstBlocks(final List<Path> files) {
+            final Map<Path, Long> blocks = new HashMap<>();
+            for (int from = 0; from < files.size() && available; from += FILES_PER_RUN) {
+                try {
+                    run(files.subList(from, Math.min(files.size(), from + FILES_PER_RUN)), blocks);
+                } catch (IOException e) {
+                    // not Linux, or e2fsprogs are not installed
+                    available = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    available = false;
+                }
+            }
+            return blocks;
+        }
+
+        private static void run(final List<Path> files, final Map<Path, Long> blocks)
+                throws IOException, InterruptedException {
+            final List<String> command = new ArrayList<>(files.size() + 3);
+            command.add("filefrag");
+            command.add("-v");
+            command.add("-e");
+            for (Path file : files) {
+                command.add(file.toString());
+            }
+            final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+                parse(output, files, blocks);
+            } finally {
+                process.waitFor();
+            }
+        }
+
+        /**
+         * Parses the report of every file, which starts with its size line and lists its first extent a few lines
+         * later. Files filefrag failed on have no report, only an error line.
+         */
+        static void parse(final BufferedReader output, final List<Path> files, final Map<Path, Long> blocks)
+                throws IOException {
+            int next = 0;
+            Path current = null;
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(SIZE_PREFIX)) {
+                    current = null;
+                    for (int i = next; i < files.size(); i++) {
+                        if (line.startsWith(SIZE_PREFIX + files.get(i) + " is ")) {
+                            current = files.get(i);
+                            next = i + 1;
+                            break;
+                        }
+                    }
+                    continue;
+                }
+                final Matcher extent = FIRST_EXTENT.matcher(line);
+                if (current != null && extent.find()) {
+                    blocks.put(current, Long.parseLong(extent.group(1)));
+                    current = null;
+                }
+            }
+        }
+    }
+
+    private static final class Located {
+        private final File file;
+        private final int index;
+        private final long device;
+        private final long block;
+        private final long inode;
+
+        private Located(final File file, final int index, final long device, final long block, final long inode) {
+            this.file = file;
+            this.index = index;
+            this.device = device;
+            this.block = block;
+            this.inode = inode;
+        }
+    }
+}
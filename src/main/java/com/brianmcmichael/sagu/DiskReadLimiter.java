@@ -0,0 +1,208 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.brianmcmichael.sagu.BandwidthSchedule.UNLIMITED;
+
+/**
+ * Limits of reads from local disks, per mount, independent of the network limit.
+ * <p>
+ * Hashing and read-ahead read files at full disk speed even when the uplink is slow, and files found in the dedup
+ * index are only hashed. A disk shared with production services can be given a rate in bytes per second and a number
+ * of reads per second, both are token buckets of their own holding one second of reads. Limits are a comma separated
+ * list of {@code mount=rate} or {@code mount=rate/iops}, e.g. {@code /mnt/nas=40MB/200,/srv=100MB}, with rates as in
+ * {@link BandwidthSchedule}. A file is limited by the entry whose path is on the same file store as the file, so any
+ * directory of the mount can name it.
+ */
+public class DiskReadLimiter {
+
+    private final List<Mount> mounts;
+    private final Map<FileStore, Limit> byStore = new ConcurrentHashMap<>();
+
+    private DiskReadLimiter(final List<Mount> mounts) {
+        this.mounts = mounts;
+    }
+
+    /**
+     * @return limiter which never waits
+     */
+    public static DiskReadLimiter unlimited() {
+        return new DiskReadLimiter(Collections.<Mount>emptyList());
+    }
+
+    /**
+     * Parses the limits.
+     *
+     * @param limits comma separated limits of mounts, may be null or empty
+     * @return the limiter
+     * @throws IllegalArgumentException if a limit is not valid
+     */
+    public static DiskReadLimiter parse(final String limits) {
+        final List<Mount> mounts = new ArrayList<>();
+        if (limits != null && !limits.trim().isEmpty()) {
+            for (String limit : limits.split(",")) {
+                mounts.add(Mount.parse(limit.trim()));
+            }
+        }
+        return new DiskReadLimiter(mounts);
+    }
+
+    /**
+     * @param file file to be read
+     * @return limit of the mount of the file, a limit which never waits if the mount has none
+     */
+    public Limit forFile(final Path file) {
+        if (mounts.isEmpty()) {
+            return Limit.NONE;
+        }
+        final FileStore store;
+        try {
+            store = Files.getFileStore(file);
+        } catch (IOException e) {
+            return Limit.NONE;
+        }
+        return byStore.computeIfAbsent(store, this::limitOf);
+    }
+
+    private Limit limitOf(final FileStore store) {
+        for (Mount mount : mounts) {
+            try {
+                if (store.equals(Files.getFileStore(mount.path))) {
+                    return mount.limit;
+                }
+            } catch (IOException e) {
+                // the mount is not there at the moment
+            }
+        }
+        return Limit.NONE;
+    }
+
+    /**
+     * Limit of one mount, shared by all threads reading from it.
+     */
+    public static final class Limit {
+
+        /**
+         * Limit which never waits.
+         */
+        static final Limit NONE = new Limit(null, null);
+
+        /**
+         * Largest read let through at once by {@link #wrap(InputStream)}.
+         */
+        static final int MAX_CHUNK = 1024 * 1024;
+
+        private final BandwidthLimiter bytes;
+        private final BandwidthLimiter reads;
+
+        Limit(final BandwidthLimiter bytes, final BandwidthLimiter reads) {
+            this.bytes = bytes;
+            this.reads = reads;
+        }
+
+        /**
+         * Waits until one read of the bytes may be done.
+         *
+         * @param length number of bytes to be read
+         * @throws InterruptedIOException if the thread is interrupted while waiting
+         */
+        public void acquire(final long length) throws InterruptedIOException {
+            if (reads != null) {
+                reads.acquire(1);
+            }
+            if (bytes != null) {
+                bytes.acquire(length);
+            }
+        }
+
+        /**
+         * @return true if reads are let through without waiting
+         */
+        public boolean isUnlimited() {
+            return bytes == null && reads == null;
+        }
+
+        /**
+         * @param in stream of a file of the mount
+         * @return stream whose reads are limited, the stream itself if there is no limit
+         */
+        public InputStream wrap(final InputStream in) {
+            if (isUnlimited()) {
+                return in;
+            }
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    acquire(1);
+                    return super.read();
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int chunk = Math.min(len, MAX_CHUNK);
+                    acquire(chunk);
+                    return super.read(b, off, chunk);
+                }
+            };
+        }
+    }
+
+    private static final class Mount {
+        private final Path path;
+        private final Limit limit;
+
+        private Mount(final Path path, final Limit limit) {
+            this.path = path;
+            this.limit = limit;
+        }
+
+        private static Mount parse(final String mount) {
+            final int equals = mount.lastIndexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException("Invalid disk read limit " + mount);
+            }
+            final String value = mount.substring(equals + 1);
+            final int slash = value.indexOf('/');
+            final long rate = BandwidthSchedule.parseRate(slash < 0 ? value : value.substring(0, slash));
+            final long iops;
+            try {
+                iops = slash < 0 ? UNLIMITED : Long.parseLong(value.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid reads per second in " + mount, e);
+            }
+            if (iops < 1) {
+                throw new IllegalArgumentException("Reads per second have to be positive in " + mount);
+            }
+            return new Mount(Paths.get(mount.substring(0, equals).trim()),
+                    new Limit(bucket(rate), bucket(iops)));
+        }
+
+        /**
+         * @return token bucket holding one second at the rate, null for no limit
+         */
+        private static BandwidthLimiter bucket(final long rate) {
+            return rate == UNLIMITED ? null
+                    : new BandwidthLimiter(BandwidthSchedule.parse(Long.toString(rate), null), Math.max(1, rate));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.brianmcmichael.sagu.TreeHash.fromHex;
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Master key of client-side encryption.
+ * <p>
+ * The key is a random 256-bit AES key kept as one hex line in a local file. It never leaves this computer; logs refer
+ * to it by its ID, a fingerprint which does not reveal the key. Losing the key file means losing every archive
+ * encrypted with it, so it has to be backed up apart from the vault.
+ */
+public class EncryptionKey {
+
+    static final int KEY_LENGTH = 32;
+
+    private static final int ID_LENGTH = 16;
+
+    private final byte[] key;
+    private final String id;
+
+    EncryptionKey(final byte[] key) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("Encryption key has to have " + KEY_LENGTH + " bytes, has "
+                    + key.length);
+        }
+        this.key = key.clone();
+        final byte[] fingerprint = TreeHash.sha256().digest(this.key);
+        this.id = toHex(Arrays.copyOf(fingerprint, ID_LENGTH / 2));
+    }
+
+    /**
+     * Loads the key from the file.
+     *
+     * @param file key file
+     * @return the key
+     * @throws IOException If an I/O error occurs or the file does not contain a key
+     */
+    public static EncryptionKey load(final Path file) throws IOException {
+        final String hex = new String(Files.readAllBytes(file), UTF_8).trim();
+        if (!hex.matches("[0-9a-fA-F]{" + 2 * KEY_LENGTH + "}")) {
+            throw new IOException("File " + file + " does not contain a " + 8 * KEY_LENGTH + "-bit hex key");
+        }
+        return new EncryptionKey(fromHex(hex));
+    }
+
+    /**
+     * Loads the key from the file, or generates a new key and saves it to the file if there is none.
+     *
+     * @param file key file
+     * @return the key
+     * @throws IOException If an I/O error occurs or the file does not contain a key
+     */
+    public static EncryptionKey loadOrGenerate(final Path file) throws IOException {
+        if (Files.exists(file)) {
+            return load(file);
+        }
+        final byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        final Set<OpenOption> options = new HashSet<>(Arrays.asList(CREATE_NEW, WRITE));
+        SeekableByteChannel channel;
+        try {
+            // the file is private from its creation, other users never see the key
+            channel = Files.newByteChannel(file, options,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system, the file keeps permissions of its directory
+            channel = Files.newByteChannel(file, options);
+        }
+        try (SeekableByteChannel out = channel) {
+            final ByteBuffer content = ByteBuffer.wrap((toHex(key) + "\n").getBytes(UTF_8));
+            while (content.hasRemaining()) {
+                out.write(content);
+            }
+        }
+        return new EncryptionKey(key);
+    }
+
+    /**
+     * @return fingerprint of the key which identifies it in logs
+     */
+    public String getId() {
+        return id;
+    }
+
+    byte[] getEncoded() {
+        return key.clone();
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * Finds files to be uploaded in directories, using all cores.
+ * <p>
+ * Every directory is listed by its own task of a fork-join pool, so subdirectories are scanned in parallel, which
+ * helps most on network and SSD storage. Files are returned by a {@link Walk} as soon as they are found, so their
+ * uploads start while the rest of the tree is still being scanned; the order of files is not defined.
+ * <p>
+ * Globs are comma separated. A glob without a slash is matched against the file name, e.g. {@code *.tmp}, a glob with
+ * a slash against the path relative to the walked directory, e.g. {@code photos/**}{@code /*.jpg}. When there are
+ * include globs, only files matching one of them are returned. Files and directories matching an exclude glob are
+ * skipped, with all the directory content. Files given instead of a directory are always returned.
+ */
+public class FileTreeWalker {
+
+    /**
+     * What happens to symbolic links found in walked directories.
+     */
+    public enum SymlinkPolicy {
+        /**
+         * Links are skipped.
+         */
+        SKIP,
+        /**
+         * Links to files are uploaded as the files they point to, links to directories are skipped.
+         */
+        FILES,
+        /**
+         * Links are followed, also into directories. A link to a directory containing it is skipped.
+         */
+        FOLLOW
+    }
+
+    private static final Object END = new Object();
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final SymlinkPolicy symlinks;
+    private final ForkJoinPool pool;
+
+    /**
+     * Initializes the walker using the common fork-join pool.
+     *
+     * @param includes comma separated globs of files to be returned, all files if empty or null
+     * @param excludes comma separated globs of files and directories to be skipped, may be empty or null
+     * @param symlinks what happens to symbolic links
+     * @throws IllegalArgumentException if a glob is not valid
+     */
+    public FileTreeWalker(final String includes, final String excludes, final SymlinkPolicy symlinks) {
+        this(includes, excludes, symlinks, ForkJoinPool.commonPool());
+    }
+
+    FileTreeWalker(final String includes, final String excludes, final SymlinkPolicy symlinks,
+                   final ForkJoinPool pool) {
+        this.includes = Glob.parse(includes);
+        this.excludes = Glob.parse(excludes);
+        this.symlinks = symlinks;
+        this.pool = pool;
+    }
+
+    /**
+     * Starts walking in the background.
+     *
+     * @param roots files and directories to be walked
+     * @return files as they are found
+     */
+    public Walk walk(final List<File> roots) {
+        final Walk walk = new Walk();
+        final Thread thread = new Thread(() -> {
+            try {
+                final List<DirectoryTask> tasks = new ArrayList<>();
+                for (File root : roots) {
+                    if (root.isDirectory()) {
+                        final Path path = root.toPath();
+                        tasks.add(new DirectoryTask(walk, path, path, ancestors(Collections.emptySet(), path)));
+                    } else {
+                        walk.found(root);
+                    }
+                }
+                for (DirectoryTask task : tasks) {
+                    pool.invoke(task);
+                }
+            } finally {
+                walk.queue.add(END);
+            }
+        }, "sagu-file-tree-walker");
+        thread.setDaemon(true);
+        thread.start();
+        return walk;
+    }
+
+    private Set<Object> ancestors(final Set<Object> parents, final Path directory) {
+        if (symlinks != SymlinkPolicy.FOLLOW) {
+            return parents;
+        }
+        final Set<Object> ancestors = new HashSet<>(parents);
+        try {
+            final Object key = Files.readAttributes(directory, BasicFileAttributes.class).fileKey();
+            ancestors.add(key == null ? directory.toRealPath() : key);
+        } catch (IOException e) {
+            // the directory cannot be read, its task reports that
+        }
+        return ancestors;
+    }
+
+    private boolean isLoop(final Set<Object> ancestors, final Path directory) {
+        try {
+            final Object key = Files.readAttributes(directory, BasicFileAttributes.class).fileKey();
+            return ancestors.contains(key == null ? directory.toRealPath() : key);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Files found by a walk. The iterator blocks until the next file is found or the walk ends; it is meant for one
+     * consumer thread.
+     */
+    public static final class Walk implements Iterator<File>, AutoCloseable {
+
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean cancelled;
+        private File next;
+        private boolean ended;
+
+        private Walk() {
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !ended) {
+                final Object item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                    ended = true;
+                    break;
+                }
+                if (item == END) {
+                    ended = true;
+                } else {
+                    next = (File) item;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final File file = next;
+            next = null;
+            return file;
+        }
+
+        /**
+         * @return descriptions of directories and links which could not be read, so far
+         */
+        public List<String> getErrors() {
+            synchronized (errors) {
+                return new ArrayList<>(errors);
+            }
+        }
+
+        /**
+         * Stops scanning of directories which have not been listed yet.
+         */
+        @Override
+        public void close() {
+            cancelled = true;
+        }
+
+        private void found(final File file) {
+            queue.add(file);
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk walk;
+        private final Path root;
+        private final Path directory;
+        private final Set<Object> ancestors;
+
+        private DirectoryTask(final Walk walk, final Path root, final Path directory, final Set<Object> ancestors) {
+            this.walk = walk;
+            this.root = root;
+            this.directory = directory;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            if (walk.cancelled) {
+                return;
+            }
+            final List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    visit(entry, subdirectories);
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                walk.errors.add("Cannot list " + directory + ": " + e);
+            }
+            invokeAll(subdirectories);
+        }
+
+        private void visit(final Path entry, final List<DirectoryTask> subdirectories) {
+            final boolean link = Files.isSymbolicLink(entry);
+            if (link && symlinks == SymlinkPolicy.SKIP) {
+                return;
+            }
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                        link ? new LinkOption[0] : new LinkOption[]{NOFOLLOW_LINKS});
+            } catch (IOException e) {
+                walk.errors.add("Cannot read " + entry + ": " + e);
+                return;
+            }
+            final Path relative = root.relativize(entry);
+            if (Glob.matchesAny(excludes, relative)) {
+                return;
+            }
+            if (attributes.isDirectory()) {
+                if (link && (symlinks != SymlinkPolicy.FOLLOW || isLoop(ancestors, entry))) {
+                    return;
+                }
+                subdirectories.add(new DirectoryTask(walk, root, entry, ancestors(ancestors, entry)));
+            } else if (attributes.isRegularFile() && (includes.isEmpty() || Glob.matchesAny(includes, relative))) {
+                walk.found(entry.toFile());
+            }
+        }
+    }
+
+    private static final class Glob {
+        private final PathMatcher matcher;
+        private final boolean nameOnly;
+
+        private Glob(final String pattern) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            this.nameOnly = !pattern.contains("/");
+        }
+
+        private static List<Glob> parse(final String globs) {
+            final List<Glob> parsed = new ArrayList<>();
+            if (globs != null) {
+                for (String glob : globs.split(",")) {
+                    if (!glob.trim().isEmpty()) {
+                        parsed.add(new Glob(glob.trim()));
+                    }
+                }
+            }
+            return parsed;
+        }
+
+        private static boolean matchesAny(final List<Glob> globs, final Path relative) {
+            for (Glob glob : globs) {
+                if (glob.matcher.matches(glob.nameOnly ? relative.getFileName() : relative)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps one Glacier client per credentials and {@link Endpoint}.
+ * <p>
+ * Every client owns an HTTP connection pool, so reusing the client for all uploaded files and all dialogs reuses
+ * its warm TLS connections. All clients share one {@link ClientConfiguration} built from {@link AppProperties}: the
+ * pool size should cover all parts uploaded at the same time, idle connections are evicted by the SDK reaper thread
+ * and connections are recycled after their time to live so DNS changes of the endpoint are picked up.
+ * <p>
+ * All clients also share one {@link BandwidthLimiter}, so uploads, downloads and inventory retrievals together stay
+ * within the rate scheduled in {@link AppProperties}.
+ * <p>
+ * Every client gets its own {@link AdaptiveConcurrency}, since Glacier throttles every account and region on its
+ * own. The limit starts at the number of upload threads, which is how many parts are sent at the same time without
+ * it, and never grows over the connection pool. Attempts the SDK retries after throttling cut the limit as well.
+ */
+public class GlacierClientRegistry {
+
+    private static final int SOCKET_TIMEOUT = 1000000;
+    private static final int MAX_RETRIES = 6;
+
+    private final ClientConfiguration configuration;
+    private final BandwidthLimiter limiter;
+    private final int initialConcurrency;
+    private final Map<Key, AmazonGlacierClient> clients = new HashMap<>();
+
+    public GlacierClientRegistry(final AppProperties appProperties) {
+        configuration = new ClientConfiguration()
+                .withSocketTimeout(SOCKET_TIMEOUT)
+                .withMaxErrorRetry(MAX_RETRIES)
+                .withMaxConnections(appProperties.getMaxConnections())
+                .withTcpKeepAlive(appProperties.isTcpKeepAlive())
+                .withConnectionMaxIdleMillis(appProperties.getConnectionIdleSeconds() * 1000L)
+                .withConnectionTTL(appProperties.getConnectionTtlSeconds() * 1000L)
+                .withReaper(true);
+        limiter = new BandwidthLimiter(appProperties.getBandwidthSchedule(),
+                appProperties.getBandwidthBurstKB() * 1024L);
+        initialConcurrency = Math.max(1, Math.min(appProperties.getUploadThreads(),
+                appProperties.getMaxConnections()));
+    }
+
+    /**
+     * Returns client for the credentials and endpoint, creating it on first use.
+     *
+     * @param accessKey AWS access key
+     * @param secretKey AWS secret key
+     * @param endpoint  Endpoint(Region) of the vaults
+     * @return shared client, it must not be shut down by the caller
+     */
+    public synchronized AmazonGlacierClient getClient(final String accessKey, final String secretKey,
+                                                      final Endpoint endpoint) {
+        final Key key = new Key(accessKey, secretKey, endpoint);
+        AmazonGlacierClient client = clients.get(key);
+        if (client == null) {
+            final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(initialConcurrency,
+                    configuration.getMaxConnections(), TransferMetrics.getInstance());
+            client = new ThrottledGlacierClient(new BasicAWSCredentials(accessKey, secretKey),
+                    withThrottlingReportedTo(concurrency), limiter, concurrency);
+            client.setEndpoint(endpoint.getGlacierEndpoint());
+            clients.put(key, client);
+        }
+        return client;
+    }
+
+    /**
+     * @return limiter shared by the transfers of all clients
+     */
+    public BandwidthLimiter getLimiter() {
+        return limiter;
+    }
+
+    private ClientConfiguration withThrottlingReportedTo(final AdaptiveConcurrency concurrency) {
+        final RetryPolicy.RetryCondition condition = (request, exception, retries) -> {
+            if (AdaptiveConcurrency.isThrottling(exception)) {
+                concurrency.throttled();
+            }
+            return PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, exception, retries);
+        };
+        return new ClientConfiguration(configuration).withRetryPolicy(new RetryPolicy(condition,
+                PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, MAX_RETRIES, false));
+    }
+
+    ClientConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    private static final class Key {
+        private final String accessKey;
+        private final String secretKey;
+        private final Endpoint endpoint;
+
+        private Key(final String accessKey, final String secretKey, final Endpoint endpoint) {
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(accessKey, key.accessKey)
+                    && Objects.equals(secretKey, key.secretKey)
+                    && endpoint == key.endpoint;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(accessKey, secretKey, endpoint);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.util.zip.Deflater.SYNC_FLUSH;
+
+/**
+ * Gzip compression of independent blocks, the way pigz compresses.
+ * <p>
+ * Every block is deflated on its own with the last 32 KB of the previous block as the preset dictionary, so blocks
+ * can be compressed in parallel by a {@link ParallelBlockPipeline} and still compress almost as well as one deflate
+ * stream. Blocks end with a sync flush, so their outputs simply follow each other; an empty final block, the CRC-32 and
+ * the length of the original content end the single gzip member. The result is read by any gzip implementation.
+ * <p>
+ * Files which are compressed already (zip, jpeg, video) do not get smaller. {@link #isCompressible(File)} estimates
+ * that up front from byte entropy of a few samples of the file, so such files can be uploaded as they are.
+ */
+public class GzipStage implements ParallelBlockPipeline.Stage {
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+    /**
+     * Byte entropy in bits above which a file is not compressed; random data has 8 bits per byte.
+     */
+    static final double MAX_ENTROPY = 7.5;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int SAMPLES = 16;
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255};
+
+    private final int level;
+    private final CRC32 crc = new CRC32();
+    private long length;
+
+    /**
+     * Initializes the stage.
+     *
+     * @param level deflate compression level, 1 to 9
+     */
+    public GzipStage(final int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level has to be between 1 and 9, was " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public byte[] header() {
+        return HEADER.clone();
+    }
+
+    @Override
+    public void read(final byte[] block, final int length) {
+        crc.update(block, 0, length);
+        this.length += length;
+    }
+
+    @Override
+    public byte[] transform(final long index, final byte[] block, final int length, final byte[] previous) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null) {
+                deflater.setDictionary(previous, previous.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            }
+            deflater.setInput(block, 0, length);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buffer = new byte[64 * 1024];
+            int deflated;
+            do {
+                deflated = deflater.deflate(buffer, 0, buffer.length, SYNC_FLUSH);
+                out.write(buffer, 0, deflated);
+            } while (deflated == buffer.length);
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] trailer() {
+        final Deflater deflater = new Deflater(level, true);
+        final byte[] last = new byte[16];
+        final int lastLength;
+        try {
+            deflater.finish();
+            lastLength = deflater.deflate(last);
+        } finally {
+            deflater.end();
+        }
+        final byte[] trailer = new byte[lastLength + 8];
+        System.arraycopy(last, 0, trailer, 0, lastLength);
+        putIntLittleEndian(trailer, lastLength, crc.getValue());
+        putIntLittleEndian(trailer, lastLength + 4, length);
+        return trailer;
+    }
+
+    /**
+     * Returns length the compressed stream never exceeds, even for content which does not compress at all.
+     *
+     * @param length length of the original content
+     * @return upper bound of the compressed length in bytes
+     */
+    public static long maxCompressedLength(final long length) {
+        return length + (length >> 11) + (length / BLOCK_SIZE + 1) * 32 + HEADER.length + 32;
+    }
+
+    /**
+     * Estimates whether compression makes the file noticeably smaller.
+     *
+     * @param file file to be uploaded
+     * @return true unless samples of the file look like compressed or encrypted data
+     * @throws IOException If an I/O error occurs
+     */
+    public static boolean isCompressible(final File file) throws IOException {
+        return sampleEntropy(file) < MAX_ENTROPY;
+    }
+
+    /**
+     * Computes Shannon entropy of bytes in samples spread evenly over the file.
+     *
+     * @param file sampled file
+     * @return entropy in bits per byte, 0 for an empty file
+     * @throws IOException If an I/O error occurs
+     */
+    static double sampleEntropy(final File file) throws IOException {
+        final long[] counts = new long[256];
+        long total = 0;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            final long length = in.length();
+            final byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, length)];
+            final long samples = Math.max(1, Math.min(SAMPLES, length / SAMPLE_SIZE));
+            for (long i = 0; i < samples; i++) {
+                in.seek((length - sample.length) * i / Math.max(1, samples - 1));
+                in.readFully(sample);
+                for (byte b : sample) {
+                    counts[b & 0xff]++;
+                }
+                total += sample.length;
+            }
+        }
+        double entropy = 0;
+        for (long count : counts) {
+            if (count > 0) {
+                final double p = (double) count / total;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private static void putIntLittleEndian(final byte[] bytes, final int offset, final long value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
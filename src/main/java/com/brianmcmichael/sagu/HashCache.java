@@ -0,0 +1,273 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.getProperty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Persistent cache of tree hashes of local files, so unchanged files are not read again to be hashed.
+ * <p>
+ * A hash is valid for the file with the same device, inode, size and modification time. It is kept in the cache file
+ * {@value #CACHE_FILE_NAME}, where new hashes are appended and the file is compacted on load once most of its lines
+ * are outdated, and also in the extended attribute {@code user.}{@value #ATTRIBUTE_NAME} of the file itself where the
+ * file system supports that, so the hash survives moving the file to another computer. File systems without inodes
+ * identify the file by its path instead.
+ * <p>
+ * A file modified within {@value #RACY_MILLIS} ms before it was hashed may be modified again without its time
+ * changing, since file systems store modification times with limited precision. Hashes of such files are not cached.
+ */
+public class HashCache {
+
+    static final String CACHE_FILE_NAME = "GlacierHashCache.txt";
+    static final String ATTRIBUTE_NAME = "sagu.treehash";
+    static final long RACY_MILLIS = 2000;
+
+    private static final int MIN_LINES_TO_COMPACT = 1000;
+
+    private final Path file;
+    private final ParallelTreeHasher hasher;
+    /**
+     * Size, modification time and hash of the last hashed version, by identity of the file.
+     */
+    private final Map<String, String> versions = new HashMap<>();
+
+    /**
+     * Loads the cache.
+     *
+     * @param dir directory of the cache file
+     * @throws IOException If an I/O error occurs
+     */
+    public HashCache(final Path dir) throws IOException {
+        this(dir, new ParallelTreeHasher());
+    }
+
+    /**
+     * Loads the cache whose hashing of files is limited per mount.
+     *
+     * @param dir       directory of the cache file
+     * @param diskReads limits of reads from the mounts files are read from
+     * @throws IOException If an I/O error occurs
+     */
+    public HashCache(final Path dir, final DiskReadLimiter diskReads) throws IOException {
+        this(dir, new ParallelTreeHasher(diskReads));
+    }
+
+    HashCache(final Path dir, final ParallelTreeHasher hasher) throws IOException {
+        this.file = dir.resolve(CACHE_FILE_NAME);
+        this.hasher = hasher;
+        load();
+    }
+
+    /**
+     * Returns tree hash of the file, from the cache if the file did not change since it was hashed, otherwise the
+     * file is hashed and the hash cached.
+     *
+     * @param file the file to be hashed
+     * @return the hex encoded tree hash of the file content
+     * @throws IOException If an I/O error occurs while reading the file
+     */
+    public String treeHash(final File file) throws IOException {
+        final Path path = file.toPath();
+        final Stamp before = Stamp.of(path);
+        final String cached = get(path, before);
+        if (cached != null) {
+            return cached;
+        }
+        final String hash = hasher.calculateTreeHash(file);
+        final Stamp after = Stamp.of(path);
+        if (after.equals(before) && System.currentTimeMillis() - before.modifiedMillis() >= RACY_MILLIS) {
+            put(path, before, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns cached tree hash of the file without reading it.
+     *
+     * @param file the file
+     * @return the hex encoded tree hash, null if the file was not hashed yet or changed since
+     * @throws IOException If an I/O error occurs
+     */
+    public String get(final File file) throws IOException {
+        final Path path = file.toPath();
+        return get(path, Stamp.of(path));
+    }
+
+    private String get(final Path path, final Stamp stamp) throws IOException {
+        String hash;
+        synchronized (this) {
+            hash = stamp.hashOf(versions.get(stamp.identity));
+        }
+        if (hash == null) {
+            hash = stamp.hashOf(readAttribute(path));
+            if (hash != null) {
+                remember(stamp, hash);
+            }
+        }
+        return hash;
+    }
+
+    private void put(final Path path, final Stamp stamp, final String hash) throws IOException {
+        writeAttribute(path, stamp.version(hash));
+        remember(stamp, hash);
+    }
+
+    private synchronized void remember(final Stamp stamp, final String hash) throws IOException {
+        final String version = stamp.version(hash);
+        if (version.equals(versions.put(stamp.identity, version))) {
+            return;
+        }
+        try (Writer out = Files.newBufferedWriter(file, UTF_8, CREATE, WRITE, APPEND)) {
+            out.write(stamp.identity + "\t" + version + getProperty("line.separator"));
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines++;
+                final int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    versions.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        }
+        if (lines >= MIN_LINES_TO_COMPACT && lines > 2 * versions.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the cache file with the last hashed version of every file only.
+     */
+    private void compact() throws IOException {
+        final Path temporary = file.resolveSibling(CACHE_FILE_NAME + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary, UTF_8)) {
+            for (Map.Entry<String, String> entry : versions.entrySet()) {
+                out.write(entry.getKey() + "\t" + entry.getValue() + getProperty("line.separator"));
+            }
+        }
+        Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static String readAttribute(final Path path) {
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(path,
+                UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return null;
+        }
+        try {
+            final ByteBuffer value = ByteBuffer.allocate(view.size(ATTRIBUTE_NAME));
+            view.read(ATTRIBUTE_NAME, value);
+            value.flip();
+            return UTF_8.decode(value).toString();
+        } catch (IOException | UnsupportedOperationException e) {
+            // no attribute, or the file system does not support them
+            return null;
+        }
+    }
+
+    private static void writeAttribute(final Path path, final String value) {
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(path,
+                UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return;
+        }
+        try {
+            view.write(ATTRIBUTE_NAME, UTF_8.encode(value));
+        } catch (IOException | UnsupportedOperationException e) {
+            // read-only file, or the file system does not support attributes; the cache file still has the hash
+        }
+    }
+
+    /**
+     * Identity and version of a file: device and inode, or path if the file system has no inodes, size and
+     * modification time.
+     */
+    private static final class Stamp {
+        private final String identity;
+        private final long size;
+        private final long modifiedNanos;
+
+        private Stamp(final String identity, final long size, final long modifiedNanos) {
+            this.identity = identity;
+            this.size = size;
+            this.modifiedNanos = modifiedNanos;
+        }
+
+        private static Stamp of(final Path path) throws IOException {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            final Object fileKey = attributes.fileKey();
+            final String identity = fileKey == null ? "path=" + path.toAbsolutePath() : fileKey.toString();
+            return new Stamp(identity, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        }
+
+        private long modifiedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(modifiedNanos);
+        }
+
+        /**
+         * @return size, modification time and hash of this version; identity is not part of it, so the attribute
+         * stays valid when the file moves
+         */
+        private String version(final String hash) {
+            return size + " " + modifiedNanos + " " + hash;
+        }
+
+        /**
+         * @return hash of this version, null if the stored version is another one
+         */
+        private String hashOf(final String version) {
+            final String prefix = size + " " + modifiedNanos + " ";
+            if (version == null || !version.startsWith(prefix)) {
+                return null;
+            }
+            final String hash = version.substring(prefix.length());
+            return hash.matches("[0-9a-f]{64}") ? hash : null;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Stamp)) {
+                return false;
+            }
+            final Stamp stamp = (Stamp) other;
+            return identity.equals(stamp.identity) && size == stamp.size && modifiedNanos == stamp.modifiedNanos;
+        }
+
+        @Override
+        public int hashCode() {
+            return identity.hashCode();
+        }
+    }
+}
@@ -10,7 +10,9 @@ package com.brianmcmichael.sagu;
 
 import java.io.*;
 import static java.lang.System.getProperty;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
 
 /**
  * Handles writing logs to files
@@ -82,6 +84,26 @@ public class LogWriter {
     public void logUploadedFile(final String vaultName, final String region, final String filePath,
                                 final String fileLength, final String treeHash,
                                 final String archiveId) throws IOException {
+        logUploadedFile(vaultName, region, filePath, fileLength, treeHash, archiveId,
+                Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Writes information about uploaded file to logs, with details about the archive content such as its compression.
+     * Details follow the hash in all logs, in CSV as extra "name=value" columns.
+     *
+     * @param vaultName  The name of vault
+     * @param region     Amazon Region
+     * @param filePath   File path
+     * @param fileLength The length of the archive, in bytes
+     * @param treeHash   The hex encoded binary tree hash for the data in the specified file.
+     * @param archiveId  The ID of the uploaded archive
+     * @param details    details about the archive content, by name
+     * @throws IOException If an I/O error occurs
+     */
+    public void logUploadedFile(final String vaultName, final String region, final String filePath,
+                                final String fileLength, final String treeHash, final String archiveId,
+                                final Map<String, String> details) throws IOException {
         final Date currentDate = new Date();
         final String lineSeparator = getProperty("line.separator");
 
@@ -94,6 +116,9 @@ public class LogWriter {
         plainOutputLog.write(" | Location: " + region + " ");
         plainOutputLog.write(" | Date: " + currentDate.toString() + " ");
         plainOutputLog.write(" | Hash: " + treeHash + " ");
+        for (Map.Entry<String, String> detail : details.entrySet()) {
+            plainOutputLog.write(" | " + detail.getKey() + ": " + detail.getValue() + " ");
+        }
         plainOutputLog.write(lineSeparator);
         plainOutputLog.close();
 
@@ -106,6 +131,9 @@ public class LogWriter {
         plainOutputTxt.write(" | Location: " + region + " ");
         plainOutputTxt.write(" | Date: " + currentDate.toString() + " ");
         plainOutputTxt.write(" | Hash: " + treeHash + " ");
+        for (Map.Entry<String, String> detail : details.entrySet()) {
+            plainOutputTxt.write(" | " + detail.getKey() + ": " + detail.getValue() + " ");
+        }
         plainOutputTxt.write(lineSeparator);
         plainOutputTxt.close();
 
@@ -116,6 +144,9 @@ public class LogWriter {
         plainOutputCsv.write("\"" + csvEscaping(region) + "\",");
         plainOutputCsv.write("\"" + csvEscaping(currentDate.toString()) + "\",");
         plainOutputCsv.write("\"" + csvEscaping(treeHash) + "\"");
+        for (Map.Entry<String, String> detail : details.entrySet()) {
+            plainOutputCsv.write(",\"" + csvEscaping(detail.getKey() + "=" + detail.getValue()) + "\"");
+        }
         plainOutputCsv.write(lineSeparator);
         plainOutputCsv.close();
 
@@ -127,6 +158,10 @@ public class LogWriter {
         plainOutputYaml.write("   Location:  \"" + yamlEscaping(region) + "\"" + lineSeparator);
         plainOutputYaml.write("   Date:      \"" + yamlEscaping(currentDate.toString()) + "\"" + lineSeparator);
         plainOutputYaml.write("   Hash:      \"" + yamlEscaping(treeHash) + "\"" + lineSeparator);
+        for (Map.Entry<String, String> detail : details.entrySet()) {
+            plainOutputYaml.write("   " + detail.getKey() + ": \"" + yamlEscaping(detail.getValue()) + "\""
+                    + lineSeparator);
+        }
         plainOutputYaml.close();
     }
 
@@ -0,0 +1,181 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import com.amazonaws.services.glacier.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.glacier.model.ListMultipartUploadsResult;
+import com.amazonaws.services.glacier.model.ListPartsRequest;
+import com.amazonaws.services.glacier.model.ListPartsResult;
+import com.amazonaws.services.glacier.model.PartListElement;
+import com.amazonaws.services.glacier.model.UploadListElement;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.brianmcmichael.sagu.MultipartUploader.isValidPartSize;
+import static com.brianmcmichael.sagu.PartSizePlanner.minimumPartSize;
+
+/**
+ * Finds multipart uploads which Glacier keeps open for the vault.
+ * <p>
+ * An upload which failed or was interrupted stays open on the server with all parts which were already accepted.
+ * The recovery matches a local file to such upload by its archive description, so the uploader can send only the
+ * missing parts. The upload keeps its part size, it only has to be usable for the file. The list of open uploads is
+ * fetched once per vault and each upload is handed out once, so create a new recovery for every batch of files.
+ * <p>
+ * Uploads which are never resumed keep their parts on the server until they are aborted, see {@link #abortStale}.
+ */
+public class MultipartRecovery {
+
+    private static final String PAGE_LIMIT = "1000";
+
+    private final AmazonGlacierClient client;
+    private final Map<String, List<UploadListElement>> openUploads = new HashMap<>();
+
+    public MultipartRecovery(final AmazonGlacierClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Finds open upload of the archive. When there are more of them, the most recent one is returned. The returned
+     * upload is not offered again by this recovery.
+     *
+     * @param vaultName   The name of the vault
+     * @param description The description of the archive
+     * @param fileLength  length of the uploaded file, the part size of the upload has to fit it into the part limit
+     * @return the open upload or null if there is none
+     */
+    public synchronized UploadListElement claim(final String vaultName, final String description,
+                                                final long fileLength) {
+        List<UploadListElement> uploads = openUploads.get(vaultName);
+        if (uploads == null) {
+            uploads = listUploads(vaultName);
+            openUploads.put(vaultName, uploads);
+        }
+        UploadListElement newest = null;
+        for (UploadListElement upload : uploads) {
+            if (description.equals(upload.getArchiveDescription())
+                    && upload.getPartSizeInBytes() != null && isValidPartSize(upload.getPartSizeInBytes())
+                    && upload.getPartSizeInBytes() >= minimumPartSize(fileLength)
+                    && (newest == null || creationTime(upload) > creationTime(newest))) {
+                newest = upload;
+            }
+        }
+        uploads.remove(newest);
+        return newest;
+    }
+
+    /**
+     * Lists parts which Glacier already accepted.
+     *
+     * @param vaultName The name of the vault
+     * @param uploadId  ID of the multipart upload
+     * @return binary tree hashes of the parts by the first byte of the part
+     */
+    public NavigableMap<Long, byte[]> listParts(final String vaultName, final String uploadId) {
+        final NavigableMap<Long, byte[]> parts = new TreeMap<>();
+        String marker = null;
+        do {
+            final ListPartsResult result = client.listParts(new ListPartsRequest()
+                    .withVaultName(vaultName)
+                    .withUploadId(uploadId)
+                    .withLimit(PAGE_LIMIT)
+                    .withMarker(marker));
+            if (result.getParts() != null) {
+                for (PartListElement part : result.getParts()) {
+                    final String range = part.getRangeInBytes();
+                    parts.put(Long.parseLong(range.substring(0, range.indexOf('-'))),
+                            TreeHash.fromHex(part.getSHA256TreeHash()));
+                }
+            }
+            marker = result.getMarker();
+        } while (marker != null);
+        return parts;
+    }
+
+    /**
+     * Lists all multipart uploads open in the vault.
+     *
+     * @param vaultName The name of the vault
+     * @return open uploads
+     */
+    public List<UploadListElement> listUploads(final String vaultName) {
+        final List<UploadListElement> uploads = new ArrayList<>();
+        String marker = null;
+        do {
+            final ListMultipartUploadsResult result = client.listMultipartUploads(new ListMultipartUploadsRequest()
+                    .withVaultName(vaultName)
+                    .withLimit(PAGE_LIMIT)
+                    .withUploadIdMarker(marker));
+            if (result.getUploadsList() != null) {
+                uploads.addAll(result.getUploadsList());
+            }
+            marker = result.getMarker();
+        } while (marker != null);
+        return uploads;
+    }
+
+    /**
+     * Aborts open uploads which were started before the given age, so the vault does not keep their parts forever.
+     * Uploads recorded in a local {@link UploadJournal} are kept, uploading their files again resumes them.
+     *
+     * @param vaultName The name of the vault
+     * @param maxAgeMillis age in milliseconds after which an upload is considered abandoned
+     * @param journalDir directory of upload journals, may be null
+     * @return number of aborted uploads
+     * @throws IOException If an I/O error occurs while reading the journals
+     */
+    public int abortStale(final String vaultName, final long maxAgeMillis, final Path journalDir)
+            throws IOException {
+        return abortStale(vaultName, maxAgeMillis, journalDir, System.currentTimeMillis());
+    }
+
+    int abortStale(final String vaultName, final long maxAgeMillis, final Path journalDir, final long now)
+            throws IOException {
+        final Set<String> journaled = journalDir == null
+                ? Collections.<String>emptySet()
+                : UploadJournal.journaledUploadIds(journalDir, vaultName);
+        int aborted = 0;
+        for (UploadListElement upload : listUploads(vaultName)) {
+            if (creationTime(upload) < now - maxAgeMillis && !journaled.contains(upload.getMultipartUploadId())) {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest()
+                        .withVaultName(vaultName)
+                        .withUploadId(upload.getMultipartUploadId()));
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    /**
+     * @return creation time in milliseconds, or the maximal value if it is unknown so the upload is never aborted
+     */
+    private static long creationTime(final UploadListElement upload) {
+        if (upload.getCreationDate() == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Instant.parse(upload.getCreationDate()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
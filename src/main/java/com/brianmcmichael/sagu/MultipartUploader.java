@@ -0,0 +1,885 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import com.amazonaws.services.glacier.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.glacier.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.UploadArchiveRequest;
+import com.amazonaws.services.glacier.model.UploadArchiveResult;
+import com.amazonaws.services.glacier.model.UploadListElement;
+import com.amazonaws.services.glacier.model.UploadMultipartPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static com.amazonaws.event.ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT;
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.lang.String.format;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Uploads archives to Glacier using multipart upload with several parts of the same archive in flight at once.
+ * <p>
+ * Each part is read from the file once by one of the uploader's worker threads. The tree hash of the part is computed
+ * from the buffer in one pass and the same buffer is sent to Glacier. When all parts are uploaded, the upload is
+ * completed with the tree hash combined from the tree hashes of the parts, so the file is never read again just to
+ * compute its hash. If any part fails, the remaining parts are cancelled and the multipart upload is aborted.
+ * <p>
+ * Parts of a file are read in order by the thread which uploads the file, so the disk sees one sequential reader, and
+ * hashed while earlier parts are being sent. Reading runs ahead of sending by a few parts, as many as the
+ * {@link ReadAhead} gives for the device of the file, so the network never waits for the disk. Parts are read into
+ * direct buffers of a {@link PartBufferPool}, which are sent to Glacier without being copied to the heap and reused
+ * by later parts, so uploading a file allocates almost nothing per part. When the pool is shared, parts of all
+ * uploads together stay within its memory budget and reading waits for parts to be sent once the budget is used up.
+ * <p>
+ * When a journal directory is given, every part accepted by Glacier is recorded in an {@link UploadJournal} and a
+ * failed upload is kept open instead of being aborted. Uploading the same file again resumes the upload. With a
+ * {@link MultipartRecovery}, uploads left open on the server are resumed as well, even without a journal.
+ * <p>
+ * Archives which are produced on the fly, such as containers of packed files or compressed files, are uploaded from
+ * a stream. The stream is read sequentially by the caller and at most one part more than there are parts being sent
+ * is held in memory.
+ * <p>
+ * With a {@link ThrottledGlacierClient}, the number of parts sent at the same time is not fixed by the number of
+ * threads: the uploader has a worker for every connection the client may open and every part waits for a permit of
+ * the client's {@link AdaptiveConcurrency}, whose limit starts at the number of threads and follows how Glacier
+ * answers. Memory of parts waiting for a permit is bounded by the read-ahead and the {@link PartBufferPool}.
+ */
+public class MultipartUploader implements AutoCloseable {
+
+    static final long MB = 1024L * 1024L;
+    /**
+     * Largest supported part size. Glacier allows up to 4 GB but a part is held in one buffer, which cannot hold 2 GB,
+     * so archives are limited to {@link PartSizePlanner#MAX_ARCHIVE_SIZE}.
+     */
+    static final long MAX_PART_SIZE = 1024L * MB;
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    private static final long HEDGE_CHECK_MILLIS = 1000;
+    private static final String RESOURCE_NOT_FOUND = "ResourceNotFoundException";
+
+    private final AmazonGlacierClient client;
+    private final ExecutorService partExecutor;
+    private final PartSizePlanner planner;
+    private final Path journalDir;
+    private final MultipartRecovery recovery;
+    private final ReadAhead readAhead;
+    private final PartBufferPool bufferPool;
+    private final boolean uncachedReads;
+    private final DiskReadLimiter diskReads;
+    private final ExecutorService attemptExecutor;
+    private final PartHedger hedger;
+    private final AdaptiveConcurrency concurrency;
+
+    private MultipartUploader(final Builder builder) {
+        if (builder.threads < 1) {
+            throw new IllegalArgumentException("At least one upload thread is required, was " + builder.threads);
+        }
+        this.client = builder.client;
+        this.planner = builder.planner;
+        this.journalDir = builder.journalDir;
+        this.recovery = builder.recovery;
+        this.readAhead = builder.readAhead;
+        this.bufferPool = builder.bufferPool != null
+                ? builder.bufferPool
+                : new PartBufferPool(PartBufferPool.UNLIMITED, TransferMetrics.getInstance());
+        this.uncachedReads = builder.uncachedReads;
+        this.diskReads = builder.diskReads;
+        this.concurrency = builder.concurrency;
+        // with a limit, workers blocked on a permit cost nothing and the limit decides how many of them send
+        final int workers = concurrency != null
+                ? Math.max(builder.threads, concurrency.getMaxLimit())
+                : builder.threads;
+        this.partExecutor = newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, "sagu-part-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.attemptExecutor = newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "sagu-part-attempt");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hedger = new PartHedger(attemptExecutor, TransferMetrics.getInstance(), builder.hedgeMinStallMillis,
+                builder.hedgeCheckMillis);
+    }
+
+    /**
+     * Uploads file to the vault as one archive.
+     *
+     * @param vaultName        The name of the vault
+     * @param description      The description of the archive
+     * @param file             The file to be uploaded
+     * @param progressListener listener notified about transferred bytes of all parts, may be null
+     * @return the ID and the tree hash of the created archive
+     * @throws IOException If an I/O error occurs while reading the file or writing the journal
+     * @see #upload(String, String, File, ProgressListener, Consumer)
+     */
+    public UploadedArchive upload(final String vaultName, final String description, final File file,
+                               final ProgressListener progressListener) throws IOException {
+        return upload(vaultName, description, file, progressListener, null);
+    }
+
+    /**
+     * Uploads file to the vault as one archive. If the uploader keeps a journal and an interrupted upload of the same
+     * file is found in it, only the parts missing from the journal are uploaded. Otherwise, if the uploader has a
+     * recovery and Glacier keeps an open upload with the same description, parts which Glacier already has are read
+     * and compared with their tree hashes, and only the missing or different parts are uploaded. A resumed upload
+     * keeps its part size, a new upload gets part size from the planner.
+     *
+     * @param vaultName        The name of the vault
+     * @param description      The description of the archive
+     * @param file             The file to be uploaded
+     * @param progressListener listener notified about transferred bytes of all parts, may be null
+     * @param planListener     listener notified about part size of the upload before parts are sent, may be null
+     * @return the ID and the tree hash of the created archive
+     * @throws IOException If an I/O error occurs while reading the file or writing the journal
+     */
+    public UploadedArchive upload(final String vaultName, final String description, final File file,
+                                  final ProgressListener progressListener,
+                                  final Consumer<PartSizePlanner.Plan> planListener) throws IOException {
+        final long fileLength = file.length();
+        if (fileLength == 0) {
+            return uploadEmpty(vaultName, description);
+        }
+
+        try (UploadJournal journal = journalDir == null
+                ? null
+                : UploadJournal.open(journalDir, vaultName, file)) {
+            if (journal != null && journal.getUploadId() != null) {
+                try {
+                    notifyPlan(planListener, fileLength, journal.getPartSize());
+                    return uploadParts(vaultName, description, file, progressListener, journal,
+                            journal.getUploadId(), journal.getPartSize(), journal.getCompletedParts(), false);
+                } catch (AmazonServiceException e) {
+                    // the upload expired or was aborted while SAGU was not running, start it again
+                    requireNotFound(e);
+                    journal.delete();
+                }
+            }
+
+            final UploadListElement openUpload = recovery == null
+                    ? null
+                    : recovery.claim(vaultName, description, fileLength);
+            if (openUpload != null) {
+                final String uploadId = openUpload.getMultipartUploadId();
+                final long partSize = openUpload.getPartSizeInBytes();
+                try {
+                    notifyPlan(planListener, fileLength, partSize);
+                    return uploadParts(vaultName, description, file, progressListener, journal,
+                            uploadId, partSize, recovery.listParts(vaultName, uploadId), true);
+                } catch (AmazonServiceException e) {
+                    requireNotFound(e);
+                    if (journal != null) {
+                        journal.delete();
+                    }
+                }
+            }
+
+            final long partSize = planner.plan(fileLength).getPartSize();
+            notifyPlan(planListener, fileLength, partSize);
+            return uploadParts(vaultName, description, file, progressListener, journal,
+                    null, partSize, new TreeMap<>(), false);
+        }
+    }
+
+    /**
+     * Uploads the stream to the vault as one archive. The stream is neither journaled nor resumed, a failed upload is
+     * aborted. The stream is not closed.
+     *
+     * @param vaultName        The name of the vault
+     * @param description      The description of the archive
+     * @param in               stream of the archive content
+     * @param length           exact length of the stream in bytes
+     * @param progressListener listener notified about transferred bytes of all parts, may be null
+     * @return the ID and the tree hash of the created archive
+     * @throws IOException If an I/O error occurs while reading the stream or its length differs from the given one
+     */
+    public UploadedArchive upload(final String vaultName, final String description, final InputStream in,
+                                  final long length, final ProgressListener progressListener) throws IOException {
+        return uploadStream(vaultName, description, in, length, true, progressListener);
+    }
+
+    /**
+     * Uploads the stream of unknown length to the vault as one archive, e.g. compressed content. Part size is planned
+     * for the largest length the stream may have. Otherwise it behaves like
+     * {@link #upload(String, String, InputStream, long, ProgressListener)}.
+     *
+     * @param vaultName        The name of the vault
+     * @param description      The description of the archive
+     * @param in               stream of the archive content
+     * @param maxLength        largest possible length of the stream in bytes
+     * @param progressListener listener notified about transferred bytes of all parts, may be null
+     * @return the ID and the tree hash of the created archive
+     * @throws IOException If an I/O error occurs while reading the stream or it is longer than the given maximum
+     */
+    public UploadedArchive uploadUpTo(final String vaultName, final String description, final InputStream in,
+                                      final long maxLength, final ProgressListener progressListener)
+            throws IOException {
+        return uploadStream(vaultName, description, in, maxLength, false, progressListener);
+    }
+
+    /**
+     * Stops worker threads. Uploads in progress are interrupted and the threads are given a few seconds to stop.
+     */
+    @Override
+    public void close() {
+        partExecutor.shutdownNow();
+        attemptExecutor.shutdownNow();
+        try {
+            partExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, SECONDS);
+            attemptExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    PartSizePlanner getPlanner() {
+        return planner;
+    }
+
+    /**
+     * Checks whether the size is accepted by Glacier as a part size, i.e. 1 MB multiplied by a power of two.
+     *
+     * @param partSize part size in bytes
+     * @return true if the part size is valid
+     */
+    static boolean isValidPartSize(final long partSize) {
+        return partSize >= MB && partSize <= MAX_PART_SIZE && partSize % MB == 0
+                && Long.bitCount(partSize / MB) == 1;
+    }
+
+    /**
+     * Uploads parts of the file which are not completed yet.
+     *
+     * @param journal         journal of the upload, may be null
+     * @param resumedUploadId ID of the upload to be resumed, null to start a new one
+     * @param partSize        part size of the upload
+     * @param completed       tree hashes of parts which were already uploaded by their first byte
+     * @param verify          true if every completed part has to be checked against the file, false if checking the
+     *                        last part is enough because the parts come from the journal of the same file
+     */
+    private UploadedArchive uploadParts(final String vaultName, final String description, final File file,
+                                        final ProgressListener progressListener, final UploadJournal journal,
+                                        final String resumedUploadId, final long partSize,
+                                        final NavigableMap<Long, byte[]> completed,
+                                        final boolean verify) throws IOException {
+        final long fileLength = file.length();
+        final List<Future<byte[]>> parts = new ArrayList<>();
+        final List<StartGuard> started = new ArrayList<>();
+        String uploadId = resumedUploadId;
+        try (PartReader reader = PartReader.open(file.toPath(), uncachedReads,
+                diskReads.forFile(file.toPath()))) {
+            if (uploadId != null && !verify && !lastPartMatches(reader, fileLength, partSize, completed)) {
+                // the file was changed in place, the uploaded parts are of no use
+                abort(vaultName, uploadId);
+                completed.clear();
+                uploadId = null;
+            }
+            if (uploadId == null) {
+                uploadId = initiate(vaultName, description, partSize);
+            }
+            if (journal != null && !uploadId.equals(journal.getUploadId())) {
+                journal.start(uploadId, partSize);
+            }
+
+            final String partsUploadId = uploadId;
+            // parts are read in order by this thread and sent by the workers, at most the read-ahead depth of them
+            // waits in memory until it is being sent
+            final Semaphore buffers = new Semaphore(readAhead.partsFor(file.toPath()));
+            int checked = 0;
+            for (long start = 0; start < fileLength; start += partSize) {
+                final long partStart = start;
+                final int partLength = partLength(fileLength, start, partSize);
+                final byte[] uploaded = completed.get(partStart);
+                if (uploaded != null && !verify) {
+                    parts.add(CompletableFuture.completedFuture(uploaded));
+                    reportSkipped(progressListener, partLength);
+                    continue;
+                }
+                acquire(buffers);
+                final ByteBuffer buffer = bufferPool.acquire(partLength);
+                boolean sending = false;
+                try {
+                    reader.readFully(buffer, partStart);
+                    buffer.flip();
+                    final byte[] checksum = TreeHash.of(buffer);
+                    if (Arrays.equals(checksum, uploaded)) {
+                        // Glacier already has this part from the resumed upload
+                        if (journal != null) {
+                            journal.partCompleted(partStart, partStart + partLength - 1, checksum);
+                        }
+                        reportSkipped(progressListener, partLength);
+                        parts.add(CompletableFuture.completedFuture(checksum));
+                    } else {
+                        final StartGuard guard = new StartGuard(() -> {
+                            bufferPool.release(buffer);
+                            buffers.release();
+                        });
+                        started.add(guard);
+                        parts.add(partExecutor.submit(guard.wrap(() -> sendPart(vaultName, partsUploadId, partStart,
+                                buffer, checksum, progressListener, journal, buffers::release,
+                                () -> bufferPool.release(buffer)))));
+                        sending = true;
+                    }
+                } finally {
+                    if (!sending) {
+                        bufferPool.release(buffer);
+                        buffers.release();
+                    }
+                }
+                // stop reading the file as soon as a part fails
+                while (checked < parts.size() && parts.get(checked).isDone()) {
+                    waitFor(parts.get(checked++));
+                }
+            }
+
+            final List<byte[]> checksums = new ArrayList<>(parts.size());
+            for (Future<byte[]> part : parts) {
+                checksums.add(waitFor(part));
+            }
+            final String treeHash = toHex(TreeHash.reduce(checksums));
+
+            final String archiveId = complete(vaultName, uploadId, fileLength, treeHash);
+            if (journal != null) {
+                journal.delete();
+            }
+            return new UploadedArchive(archiveId, treeHash, fileLength);
+        } catch (IOException | RuntimeException e) {
+            if (journal == null) {
+                // parts which did not start give their buffers back here, the others once they are interrupted
+                started.forEach(StartGuard::prevent);
+                parts.forEach(part -> part.cancel(true));
+            } else {
+                // parts being sent are let finish, so parts accepted by Glacier are journaled and not sent again
+                started.forEach(StartGuard::stop);
+            }
+            if (journal == null && recovery == null && uploadId != null) {
+                abort(vaultName, uploadId);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Uploads parts read sequentially from the stream. The upload is initiated with the first part, so an empty stream
+     * becomes an empty archive.
+     *
+     * @param limit length of the stream if exact, its largest possible length otherwise
+     * @param exact true if the stream has to end exactly at the limit
+     */
+    private UploadedArchive uploadStream(final String vaultName, final String description, final InputStream in,
+                                         final long limit, final boolean exact,
+                                         final ProgressListener progressListener) throws IOException {
+        final long partSize = planner.plan(limit).getPartSize();
+        final ReadableByteChannel channel = Channels.newChannel(in);
+        // at most one part more than there are parts being sent is held in memory
+        final Semaphore buffers = new Semaphore(1);
+        final List<Future<byte[]>> parts = new ArrayList<>();
+        final List<StartGuard> started = new ArrayList<>();
+        String uploadId = null;
+        try {
+            long length = 0;
+            int checked = 0;
+            while (true) {
+                final int wanted = (int) Math.min(partSize, limit - length);
+                if (wanted == 0) {
+                    requireEnd(in, limit);
+                    break;
+                }
+                acquire(buffers);
+                final ByteBuffer buffer = bufferPool.acquire(wanted);
+                boolean sending = false;
+                final int read;
+                try {
+                    read = readUpTo(channel, buffer);
+                    buffer.flip();
+                    if (read < wanted && exact) {
+                        throw new EOFException("Stream ended at " + (length + read) + " of " + limit + " bytes");
+                    }
+                    if (read > 0) {
+                        if (uploadId == null) {
+                            uploadId = initiate(vaultName, description, partSize);
+                        }
+                        final String partsUploadId = uploadId;
+                        final long partStart = length;
+                        final StartGuard guard = new StartGuard(() -> {
+                            bufferPool.release(buffer);
+                            buffers.release();
+                        });
+                        started.add(guard);
+                        parts.add(partExecutor.submit(guard.wrap(() -> sendPart(vaultName, partsUploadId, partStart,
+                                buffer, TreeHash.of(buffer), progressListener, null, buffers::release,
+                                () -> bufferPool.release(buffer)))));
+                        sending = true;
+                    }
+                } finally {
+                    if (!sending) {
+                        bufferPool.release(buffer);
+                        buffers.release();
+                    }
+                }
+                if (read == 0) {
+                    break;
+                }
+                length += read;
+                // stop reading the stream as soon as a part fails
+                while (checked < parts.size() && parts.get(checked).isDone()) {
+                    waitFor(parts.get(checked++));
+                }
+                if (read < wanted) {
+                    break;
+                }
+            }
+            if (uploadId == null) {
+                return uploadEmpty(vaultName, description);
+            }
+
+            final List<byte[]> checksums = new ArrayList<>(parts.size());
+            for (Future<byte[]> part : parts) {
+                checksums.add(waitFor(part));
+            }
+            final String treeHash = toHex(TreeHash.reduce(checksums));
+            return new UploadedArchive(complete(vaultName, uploadId, length, treeHash), treeHash, length);
+        } catch (IOException | RuntimeException e) {
+            started.forEach(StartGuard::prevent);
+            parts.forEach(part -> part.cancel(true));
+            if (uploadId != null) {
+                abort(vaultName, uploadId);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the last journaled part again and compares it with its journaled tree hash. Parts are journaled only after
+     * Glacier accepted them, so when the last one still matches the file, the file was not changed since.
+     */
+    private boolean lastPartMatches(final PartReader reader, final long fileLength, final long partSize,
+                                    final NavigableMap<Long, byte[]> completed) throws IOException {
+        if (completed.isEmpty()) {
+            return true;
+        }
+        final long start = completed.lastKey();
+        if (start >= fileLength || start % partSize != 0) {
+            return false;
+        }
+        final ByteBuffer buffer = bufferPool.acquire(partLength(fileLength, start, partSize));
+        try {
+            reader.readFully(buffer, start);
+            buffer.flip();
+            return Arrays.equals(TreeHash.of(buffer), completed.get(start));
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static int partLength(final long fileLength, final long start, final long partSize) {
+        return (int) Math.min(partSize, fileLength - start);
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one part, hedged by the {@link PartHedger} if the request stalls.
+     * The buffer is not copied and its position is not changed.
+     * <p>
+     * Cancelling the losing request of a hedged part cannot interrupt a socket write blocked on a stalled connection,
+     * so the request may go on reading the buffer until the socket times out. The buffer is therefore released and
+     * the permit of the part given back only once the loser really ended, as its connection stays busy until then.
+     *
+     * @param sending  called once the part got its slot, or failed to get it
+     * @param released called once no request reads the buffer any more, a losing hedged request may still read it
+     *                 after this method returns
+     */
+    private byte[] sendPart(final String vaultName, final String uploadId, final long start, final ByteBuffer buffer,
+                            final byte[] checksum, final ProgressListener progressListener,
+                            final UploadJournal journal, final Runnable sending, final Runnable released)
+            throws IOException {
+        final int length = buffer.remaining();
+        // the slot is taken before the part is hedged, so waiting for it does not look like a stall
+        final AdaptiveConcurrency.Permit permit;
+        try {
+            permit = concurrency != null ? concurrency.acquire() : null;
+        } catch (RuntimeException e) {
+            released.run();
+            throw e;
+        } finally {
+            sending.run();
+        }
+        // the permit is given back once the outcome is known and all requests of the part ended, whichever is later
+        final AtomicInteger pending = new AtomicInteger(2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Runnable settle = () -> {
+            if (pending.decrementAndGet() == 0 && permit != null) {
+                if (failure.get() == null) {
+                    permit.completed(length);
+                } else {
+                    permit.failed(failure.get());
+                }
+            }
+        };
+        final long started = System.nanoTime();
+        try {
+            hedger.send(length, (hedge, sent) -> {
+                final UploadMultipartPartRequest request = new UploadMultipartPartRequest()
+                        .withVaultName(vaultName)
+                        .withUploadId(uploadId)
+                        .withChecksum(toHex(checksum))
+                        .withRange(format("bytes %d-%d/*", start, start + length - 1))
+                        .withBody(new ByteBufferInputStream(buffer, sent));
+                // progress of a hedged request would count the part twice
+                if (progressListener != null && !hedge) {
+                    request.setGeneralProgressListener(progressListener);
+                }
+                return client.uploadMultipartPart(request);
+            }, () -> {
+                released.run();
+                settle.run();
+            });
+        } catch (IOException | RuntimeException e) {
+            planner.partFailed();
+            failure.set(e);
+            throw e;
+        } catch (Exception e) {
+            planner.partFailed();
+            failure.set(e);
+            throw new AmazonClientException("Part upload failed", e);
+        } finally {
+            settle.run();
+        }
+        planner.partUploaded(length, System.nanoTime() - started);
+        if (journal != null) {
+            journal.partCompleted(start, start + length - 1, checksum);
+        }
+        return checksum;
+    }
+
+    private String initiate(final String vaultName, final String description, final long partSize) {
+        return client.initiateMultipartUpload(new InitiateMultipartUploadRequest()
+                .withVaultName(vaultName)
+                .withArchiveDescription(description)
+                .withPartSize(Long.toString(partSize))).getUploadId();
+    }
+
+    private String complete(final String vaultName, final String uploadId, final long length,
+                            final String treeHash) {
+        final CompleteMultipartUploadResult result = client.completeMultipartUpload(
+                new CompleteMultipartUploadRequest()
+                        .withVaultName(vaultName)
+                        .withUploadId(uploadId)
+                        .withArchiveSize(Long.toString(length))
+                        .withChecksum(treeHash));
+        return result.getArchiveId();
+    }
+
+    private static void reportSkipped(final ProgressListener progressListener, final int length) {
+        if (progressListener != null) {
+            progressListener.progressChanged(new ProgressEvent(REQUEST_BYTE_TRANSFER_EVENT, length));
+        }
+    }
+
+    private static void notifyPlan(final Consumer<PartSizePlanner.Plan> planListener, final long fileLength,
+                                   final long partSize) {
+        if (planListener != null) {
+            planListener.accept(new PartSizePlanner.Plan(fileLength, partSize));
+        }
+    }
+
+    private static void requireNotFound(final AmazonServiceException e) {
+        if (!RESOURCE_NOT_FOUND.equals(e.getErrorCode())) {
+            throw e;
+        }
+    }
+
+    private UploadedArchive uploadEmpty(final String vaultName, final String description) {
+        final String treeHash = toHex(TreeHash.of(ByteBuffer.allocate(0)));
+        final UploadArchiveResult result = client.uploadArchive(new UploadArchiveRequest()
+                .withVaultName(vaultName)
+                .withArchiveDescription(description)
+                .withChecksum(treeHash)
+                .withBody(new ByteArrayInputStream(new byte[0])));
+        return new UploadedArchive(result.getArchiveId(), treeHash, 0);
+    }
+
+    private void abort(final String vaultName, final String uploadId) {
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest()
+                    .withVaultName(vaultName)
+                    .withUploadId(uploadId));
+        } catch (AmazonClientException e) {
+            // the original failure is reported to the caller instead
+        }
+    }
+
+    private static <T> T waitFor(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Upload was interrupted", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new AmazonClientException("Part upload failed", cause);
+            }
+        }
+    }
+
+    private static void acquire(final Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Upload was interrupted", e);
+        }
+    }
+
+    /**
+     * Reads the channel until the buffer is full or the channel ends.
+     *
+     * @return number of bytes read
+     */
+    private static int readUpTo(final ReadableByteChannel channel, final ByteBuffer buffer) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static void requireEnd(final InputStream in, final long limit) throws IOException {
+        if (in.read() >= 0) {
+            throw new IOException("Stream is longer than " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Lets a part either start or be stopped before it starts, so that the caller can wait for parts which already
+     * started.
+     */
+    private static final class StartGuard {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final Runnable skipped;
+
+        /**
+         * @param skipped run instead of the part when it is stopped before it started, e.g. to free its buffer
+         */
+        private StartGuard(final Runnable skipped) {
+            this.skipped = skipped;
+        }
+
+        private <T> Callable<T> wrap(final Callable<T> task) {
+            return () -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    throw new CancellationException("Upload failed before the part started");
+                }
+                try {
+                    return task.call();
+                } finally {
+                    finished.countDown();
+                }
+            };
+        }
+
+        /**
+         * Stops the part if it did not start yet.
+         *
+         * @return false if the part started already
+         */
+        private boolean prevent() {
+            if (claimed.compareAndSet(false, true)) {
+                skipped.run();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Stops the part if it did not start yet, otherwise waits until it ends.
+         */
+        private void stop() {
+            if (!prevent()) {
+                try {
+                    finished.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Settings of a {@link MultipartUploader}. Only the client, the number of threads and the part size are required.
+     * Without other settings, failed uploads are aborted, files are read through the page cache without read-ahead
+     * and without limits, and parts are held in buffers of a pool of their own.
+     */
+    public static class Builder {
+
+        private final AmazonGlacierClient client;
+        private final int threads;
+        private final PartSizePlanner planner;
+        private Path journalDir;
+        private MultipartRecovery recovery;
+        private ReadAhead readAhead = new ReadAhead(0);
+        private PartBufferPool bufferPool;
+        private boolean uncachedReads;
+        private DiskReadLimiter diskReads = DiskReadLimiter.unlimited();
+        private AdaptiveConcurrency concurrency;
+        private long hedgeMinStallMillis = PartHedger.DEFAULT_MIN_STALL_MILLIS;
+        private long hedgeCheckMillis = HEDGE_CHECK_MILLIS;
+
+        /**
+         * @param client   Glacier client used for all requests
+         * @param threads  number of parts uploaded at the same time
+         * @param partSize size of one part in bytes; it has to be a power of two multiple of 1 MB, it is increased
+         *                 for files which would not fit into the part count limit
+         */
+        public Builder(final AmazonGlacierClient client, final int threads, final long partSize) {
+            this(client, threads, new PartSizePlanner(partSize, false));
+        }
+
+        /**
+         * @param client  Glacier client used for all requests
+         * @param threads number of parts uploaded at the same time
+         * @param planner planner of part sizes, it is told about every uploaded part
+         */
+        public Builder(final AmazonGlacierClient client, final int threads, final PartSizePlanner planner) {
+            this.client = client;
+            this.threads = threads;
+            this.planner = planner;
+            this.concurrency = client instanceof ThrottledGlacierClient
+                    ? ((ThrottledGlacierClient) client).getConcurrency()
+                    : null;
+        }
+
+        /**
+         * @param journalDir directory of upload journals where completed parts are recorded so failed uploads can be
+         *                   resumed, null to abort failed uploads instead
+         * @return this builder
+         */
+        public Builder withJournalDir(final Path journalDir) {
+            this.journalDir = journalDir;
+            return this;
+        }
+
+        /**
+         * @param recovery finder of uploads open on the server, which are resumed, may be null
+         * @return this builder
+         */
+        public Builder withRecovery(final MultipartRecovery recovery) {
+            this.recovery = recovery;
+            return this;
+        }
+
+        /**
+         * @param readAhead number of parts of a file read before a worker is free to send them
+         * @return this builder
+         */
+        public Builder withReadAhead(final ReadAhead readAhead) {
+            this.readAhead = readAhead;
+            return this;
+        }
+
+        /**
+         * @param bufferPool pool of part buffers, possibly shared with other uploaders
+         * @return this builder
+         */
+        public Builder withBufferPool(final PartBufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * @param uncachedReads true to read files with direct I/O where possible, see {@link PartReader}
+         * @return this builder
+         */
+        public Builder withUncachedReads(final boolean uncachedReads) {
+            this.uncachedReads = uncachedReads;
+            return this;
+        }
+
+        /**
+         * @param diskReads limits of reads from the mounts files are read from
+         * @return this builder
+         */
+        public Builder withDiskReads(final DiskReadLimiter diskReads) {
+            this.diskReads = diskReads;
+            return this;
+        }
+
+        /**
+         * @param concurrency limit of parts in flight, null to send as many parts as there are threads; by default
+         *                    the limit of a {@link ThrottledGlacierClient}
+         * @return this builder
+         */
+        Builder withConcurrency(final AdaptiveConcurrency concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param minStallMillis time a part request is never hedged within
+         * @param checkMillis    interval of checks for stalled part requests
+         * @return this builder
+         */
+        Builder withHedging(final long minStallMillis, final long checkMillis) {
+            this.hedgeMinStallMillis = minStallMillis;
+            this.hedgeCheckMillis = checkMillis;
+            return this;
+        }
+
+        /**
+         * @return the uploader, it has to be closed
+         */
+        public MultipartUploader build() {
+            return new MultipartUploader(this);
+        }
+    }
+}
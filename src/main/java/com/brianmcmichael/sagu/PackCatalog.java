@@ -0,0 +1,116 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+
+import static java.lang.System.getProperty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local index of files packed into container archives.
+ * <p>
+ * Glacier knows only the containers, so this catalog is the only place which tells where a packed file is. It is
+ * written for every uploaded container, even when logging is switched off. For every member it keeps the ID of the
+ * container archive, the member name and the offset and length of the member content, which is enough to retrieve
+ * just that member with a ranged retrieval job (see {@link #retrievalRange}) and to verify it by its SHA-256.
+ * <p>
+ * Containers of whole directories may be compressed or encrypted, their description ends with {@code .gz} or
+ * {@code .enc} then. Offsets of their members are offsets in the tar before the transformation, so such a container
+ * has to be retrieved whole.
+ */
+public class PackCatalog {
+
+    static final String CATALOG_FILE_NAME = "GlacierCatalog.csv";
+
+    private static final String HEADER =
+            "\"ArchiveID\",\"Container\",\"Member\",\"Offset\",\"Length\",\"SHA-256\",\"Vault\",\"Location\",\"Date\"";
+
+    private final Path file;
+
+    /**
+     * Initializes the catalog.
+     *
+     * @param dir directory of the catalog file
+     */
+    public PackCatalog(final Path dir) {
+        this.file = dir.resolve(CATALOG_FILE_NAME);
+    }
+
+    /**
+     * Appends all members of an uploaded container to the catalog.
+     *
+     * @param vaultName The name of vault
+     * @param region    Amazon Region
+     * @param container description of the container archive
+     * @param archive   the uploaded container
+     * @param members   members of the container, after the container was streamed
+     * @throws IOException If an I/O error occurs
+     */
+    public synchronized void logContainer(final String vaultName, final String region, final String container,
+                                          final UploadedArchive archive, final List<TarStream.Member> members)
+            throws IOException {
+        final boolean newFile = !Files.exists(file);
+        final String lineSeparator = getProperty("line.separator");
+        final String date = new Date().toString();
+        try (Writer out = Files.newBufferedWriter(file, UTF_8, CREATE, WRITE, APPEND)) {
+            if (newFile) {
+                out.write(HEADER);
+                out.write(lineSeparator);
+            }
+            for (TarStream.Member member : members) {
+                out.write(quoted(archive.getArchiveId()) + ",");
+                out.write(quoted(container) + ",");
+                out.write(quoted(member.getName()) + ",");
+                out.write(quoted(Long.toString(member.getDataOffset())) + ",");
+                out.write(quoted(Long.toString(member.getLength())) + ",");
+                out.write(quoted(member.getSha256()) + ",");
+                out.write(quoted(vaultName) + ",");
+                out.write(quoted(region) + ",");
+                out.write(quoted(date));
+                out.write(lineSeparator);
+            }
+        }
+    }
+
+    /**
+     * @return the catalog file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Computes byte range of a retrieval job which contains a member. Glacier accepts only ranges which start and end
+     * on a megabyte boundary, or end with the archive.
+     *
+     * @param offset        offset of the member content in the container
+     * @param length        length of the member content
+     * @param archiveLength length of the whole container
+     * @return range in the "start-end" form of {@code RetrievalByteRange}, both ends inclusive
+     */
+    public static String retrievalRange(final long offset, final long length, final long archiveLength) {
+        final long mb = MultipartUploader.MB;
+        final long start = offset / mb * mb;
+        final long end = Math.min(archiveLength, (offset + Math.max(length, 1) + mb - 1) / mb * mb);
+        return start + "-" + (end - 1);
+    }
+
+    private static String quoted(final String value) {
+        return "\"" + (value == null ? "" : value.replaceAll("\"", "\"\"")) + "\"";
+    }
+}
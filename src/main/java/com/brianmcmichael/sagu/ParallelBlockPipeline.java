@@ -0,0 +1,253 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * Transforms a stream block by block with several blocks transformed at the same time.
+ * <p>
+ * The source is read by the thread which reads this stream, in blocks of fixed size. Every block is handed to the
+ * {@link Stage} in order and then transformed by one of the pipeline's worker threads. Transformed blocks are returned
+ * in the order of the source, between the header and the trailer of the stage.
+ * <p>
+ * All pipelines share one pool of worker threads, one per processor, so several files compressed or encrypted at the
+ * same time do not start threads of their own. Blocks read ahead are limited per pipeline and by a shared limit of
+ * two blocks per worker thread for all pipelines together. A pipeline with no block in progress may always read one
+ * block beyond the shared limit, so a pipeline whose reader waits for another one cannot starve it. Memory use does
+ * not depend on the length of the source, and every pipeline adds at most one block to the shared limit.
+ */
+public class ParallelBlockPipeline extends InputStream {
+
+    /**
+     * Transformation of independent blocks, such as compression or encryption.
+     */
+    public interface Stage {
+        /**
+         * @return bytes which precede the first transformed block
+         */
+        byte[] header();
+
+        /**
+         * Called for every block in order of the source on the reading thread, before the block is transformed.
+         *
+         * @param block  the block; only its first {@code length} bytes are valid
+         * @param length number of bytes in the block
+         */
+        void read(byte[] block, int length);
+
+        /**
+         * Transforms one block. Called on worker threads, several blocks at the same time.
+         *
+         * @param index    index of the block in the source, starting with 0
+         * @param block    the block, it must not be modified
+         * @param length   number of bytes in the block
+         * @param previous the previous block of the source, null for the first block
+         * @return transformed block
+         * @throws Exception if the block cannot be transformed
+         */
+        byte[] transform(long index, byte[] block, int length, byte[] previous) throws Exception;
+
+        /**
+         * Called once after the last block was read.
+         *
+         * @return bytes which follow the last transformed block
+         */
+        byte[] trailer();
+    }
+
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService SHARED_EXECUTOR = newFixedThreadPool(WORKERS, runnable -> {
+        final Thread thread = new Thread(runnable, "sagu-block-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Semaphore SHARED_BLOCKS = new Semaphore(2 * WORKERS);
+
+    private final InputStream source;
+    private final int blockSize;
+    private final Stage stage;
+    private final ExecutorService executor;
+    private final Semaphore blocks;
+    private final int depth;
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * Number of permits of the shared limit held by pending blocks, never more than the pending blocks.
+     */
+    private int held;
+
+    private byte[] current;
+    private int position;
+    private byte[] previous;
+    private long index;
+    private boolean sourceEnded;
+    private boolean finished;
+
+    /**
+     * Initializes the pipeline.
+     *
+     * @param source    stream to be transformed; it is closed with this stream
+     * @param blockSize size of blocks read from the source
+     * @param threads   number of blocks of this stream transformed at the same time, at most two blocks per thread
+     *                  are read ahead
+     * @param stage     transformation of blocks
+     */
+    public ParallelBlockPipeline(final InputStream source, final int blockSize, final int threads,
+                                 final Stage stage) {
+        this(source, blockSize, threads, stage, SHARED_EXECUTOR, SHARED_BLOCKS);
+    }
+
+    ParallelBlockPipeline(final InputStream source, final int blockSize, final int threads, final Stage stage,
+                          final ExecutorService executor, final Semaphore blocks) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required, was " + threads);
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+        this.stage = stage;
+        this.depth = 2 * threads;
+        this.executor = executor;
+        this.blocks = blocks;
+        this.current = stage.header();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position == current.length) {
+            if (!next()) {
+                return -1;
+            }
+        }
+        final int read = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    /**
+     * Cancels blocks in progress, returns their permits of the shared limit and closes the source.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> block : pending) {
+            block.cancel(true);
+        }
+        pending.clear();
+        blocks.release(held);
+        held = 0;
+        source.close();
+    }
+
+    /**
+     * Moves to the next transformed block, or to the trailer.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean next() throws IOException {
+        fill();
+        position = 0;
+        final Future<byte[]> block = pending.poll();
+        if (block != null) {
+            releaseSurplus();
+            current = waitFor(block);
+            return true;
+        }
+        if (!finished) {
+            finished = true;
+            current = stage.trailer();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads blocks from the source and submits them until enough blocks are in progress, or the shared limit is
+     * reached.
+     */
+    private void fill() throws IOException {
+        while (!sourceEnded && pending.size() < depth) {
+            if (blocks.tryAcquire()) {
+                held++;
+            } else if (!pending.isEmpty()) {
+                break;
+            }
+            final byte[] block = new byte[blockSize];
+            final int length = readBlock(block);
+            if (length == 0) {
+                sourceEnded = true;
+                releaseSurplus();
+                break;
+            }
+            if (length < blockSize) {
+                sourceEnded = true;
+            }
+            stage.read(block, length);
+            final long blockIndex = index++;
+            final byte[] blockPrevious = previous;
+            pending.add(executor.submit(() -> stage.transform(blockIndex, block, length, blockPrevious)));
+            previous = block;
+        }
+    }
+
+    /**
+     * Returns a permit of the shared limit held for a block which is no longer pending.
+     */
+    private void releaseSurplus() {
+        if (held > pending.size()) {
+            held--;
+            blocks.release();
+        }
+    }
+
+    private int readBlock(final byte[] block) throws IOException {
+        int length = 0;
+        while (length < block.length) {
+            final int read = source.read(block, length, block.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private static byte[] waitFor(final Future<byte[]> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming a block", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Block transformation failed", cause);
+        }
+    }
+}
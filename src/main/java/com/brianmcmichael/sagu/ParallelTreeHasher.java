@@ -0,0 +1,162 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static com.brianmcmichael.sagu.TreeHash.CHUNK_SIZE;
+import static com.brianmcmichael.sagu.TreeHash.sha256;
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Computes Glacier tree hash of a file using all cores.
+ * <p>
+ * The file is memory mapped window by window. Chunks of a window are hashed by tasks of a fork-join pool and reduced
+ * to the hash of the window's subtree. The tree hash of n chunks is the hash of the subtree of the first m chunks
+ * followed by the subtree of the rest, where m is the largest power of two smaller than n. That is what the level by
+ * level reduction of Glacier gives, so the subtrees can be computed independently. Windows have a power of two
+ * number of chunks, therefore their hashes are reduced exactly like hashes of multipart upload parts.
+ * <p>
+ * Every chunk counts as one read of its length against the {@link DiskReadLimiter} of the file's mount before it is
+ * touched, so hashing a file found in the dedup index does not read the disk faster than the mount allows.
+ */
+public class ParallelTreeHasher {
+
+    static final long DEFAULT_WINDOW_SIZE = 256L * CHUNK_SIZE;
+    private static final int CHUNKS_PER_TASK = 4;
+
+    private final ForkJoinPool pool;
+    private final long windowSize;
+    private final DiskReadLimiter diskReads;
+
+    /**
+     * Initializes the hasher using the common fork-join pool.
+     */
+    public ParallelTreeHasher() {
+        this(DiskReadLimiter.unlimited());
+    }
+
+    /**
+     * Initializes the hasher using the common fork-join pool whose reads are limited per mount.
+     *
+     * @param diskReads limits of reads from the mounts files are read from
+     */
+    public ParallelTreeHasher(final DiskReadLimiter diskReads) {
+        this(ForkJoinPool.commonPool(), DEFAULT_WINDOW_SIZE, diskReads);
+    }
+
+    ParallelTreeHasher(final ForkJoinPool pool, final long windowSize) {
+        this(pool, windowSize, DiskReadLimiter.unlimited());
+    }
+
+    ParallelTreeHasher(final ForkJoinPool pool, final long windowSize, final DiskReadLimiter diskReads) {
+        if (windowSize < CHUNK_SIZE || windowSize % CHUNK_SIZE != 0
+                || Long.bitCount(windowSize / CHUNK_SIZE) != 1) {
+            throw new IllegalArgumentException("Window size has to be a power of two multiple of 1 MB, was "
+                    + windowSize);
+        }
+        this.pool = pool;
+        this.windowSize = windowSize;
+        this.diskReads = diskReads;
+    }
+
+    /**
+     * Computes tree hash of the file.
+     *
+     * @param file the file to be hashed
+     * @return the hex encoded binary tree hash for the data in the specified file
+     * @throws IOException If an I/O error occurs while reading the file
+     */
+    public String calculateTreeHash(final File file) throws IOException {
+        return toHex(treeHash(file.toPath()));
+    }
+
+    byte[] treeHash(final Path path) throws IOException {
+        final DiskReadLimiter.Limit limit = diskReads.forFile(path);
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            final long size = channel.size();
+            if (size == 0) {
+                return TreeHash.of(ByteBuffer.allocate(0));
+            }
+            final List<byte[]> windowHashes = new ArrayList<>();
+            for (long position = 0; position < size; position += windowSize) {
+                final long length = Math.min(windowSize, size - position);
+                final ByteBuffer window = channel.map(READ_ONLY, position, length);
+                final int chunks = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                windowHashes.add(pool.invoke(new SubtreeTask(window, 0, chunks, limit)));
+            }
+            return TreeHash.reduce(windowHashes);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Hash of the subtree over chunks from (inclusive) - to (exclusive) of one window.
+     */
+    private static final class SubtreeTask extends RecursiveTask<byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer window;
+        private final int from;
+        private final int to;
+        private final DiskReadLimiter.Limit limit;
+
+        private SubtreeTask(final ByteBuffer window, final int from, final int to, final DiskReadLimiter.Limit limit) {
+            this.window = window;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+        }
+
+        @Override
+        protected byte[] compute() {
+            if (to - from <= CHUNKS_PER_TASK) {
+                final List<byte[]> hashes = new ArrayList<>(to - from);
+                for (int chunk = from; chunk < to; chunk++) {
+                    final ByteBuffer data = window.duplicate();
+                    data.position(chunk * CHUNK_SIZE);
+                    data.limit(Math.min(data.capacity(), (chunk + 1) * CHUNK_SIZE));
+                    try {
+                        limit.acquire(data.remaining());
+                    } catch (InterruptedIOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    final MessageDigest digest = sha256();
+                    digest.update(data);
+                    hashes.add(digest.digest());
+                }
+                return TreeHash.reduce(hashes);
+            }
+            final int split = from + Integer.highestOneBit(to - from - 1);
+            final SubtreeTask left = new SubtreeTask(window, from, split, limit);
+            left.fork();
+            final byte[] rightHash = new SubtreeTask(window, split, to, limit).compute();
+            final byte[] leftHash = left.join();
+            final MessageDigest digest = sha256();
+            digest.update(leftHash);
+            digest.update(rightHash);
+            return digest.digest();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonClientException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Direct buffers holding parts of all uploads, within one byte budget.
+ * <p>
+ * Threads times part size can be more memory than a small machine has, e.g. 16 threads with 256 MB parts. Parts are
+ * held in direct buffers, which are outside the heap and cost the garbage collector nothing, and all of them together
+ * never take more than the budget: a thread asking for a buffer while the budget is used up waits until another part
+ * is sent, so reading files slows down to the pace of the network. Returned buffers are reused by later parts; when a
+ * part does not fit into any of them and the budget is full, free buffers are dropped to make room.
+ */
+public class PartBufferPool {
+
+    /**
+     * Budget which never makes a thread wait.
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final long budget;
+    private final TransferMetrics metrics;
+    private final List<ByteBuffer> free = new ArrayList<>();
+    private long allocated;
+
+    /**
+     * @param budgetBytes largest number of bytes of all buffers together
+     * @param metrics     metrics the occupancy of the pool is published in
+     */
+    public PartBufferPool(final long budgetBytes, final TransferMetrics metrics) {
+        if (budgetBytes < 1) {
+            throw new IllegalArgumentException("Buffer budget has to be at least one byte, was " + budgetBytes);
+        }
+        this.budget = budgetBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Takes a buffer for a part, waiting until the budget has room for it.
+     *
+     * @param length length of the part in bytes
+     * @return cleared buffer with its limit set to the length, it has to be {@link #release(ByteBuffer) released}
+     * @throws IllegalArgumentException if the part alone is larger than the budget
+     * @throws AmazonClientException    if the thread is interrupted while waiting
+     */
+    public synchronized ByteBuffer acquire(final int length) {
+        if (length > budget) {
+            throw new IllegalArgumentException("Part of " + length + " bytes does not fit into the buffer budget of "
+                    + budget + " bytes");
+        }
+        boolean waited = false;
+        while (true) {
+            final ByteBuffer reused = takeFree(length);
+            if (reused != null) {
+                return lend(reused, length);
+            }
+            while (allocated + length > budget && !free.isEmpty()) {
+                // none of them fits the part, the garbage collector frees their memory
+                final ByteBuffer dropped = free.remove(free.size() - 1);
+                allocated -= dropped.capacity();
+                metrics.bufferAllocated(-dropped.capacity());
+            }
+            if (allocated + length <= budget) {
+                allocated += length;
+                metrics.bufferAllocated(length);
+                return lend(ByteBuffer.allocateDirect(length), length);
+            }
+            if (!waited) {
+                waited = true;
+                metrics.bufferWaited();
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while waiting for a part buffer", e);
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer taken by {@link #acquire(int)}, it must not be used any more.
+     *
+     * @param buffer buffer of a part
+     */
+    public synchronized void release(final ByteBuffer buffer) {
+        free.add(buffer);
+        metrics.bufferInUse(-buffer.capacity());
+        notifyAll();
+    }
+
+    /**
+     * @return number of bytes of all buffers, in use or free
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Takes the smallest free buffer the part fits into.
+     */
+    private ByteBuffer takeFree(final int length) {
+        int best = -1;
+        for (int i = 0; i < free.size(); i++) {
+            final int capacity = free.get(i).capacity();
+            if (capacity >= length && (best < 0 || capacity < free.get(best).capacity())) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : free.remove(best);
+    }
+
+    private ByteBuffer lend(final ByteBuffer buffer, final int length) {
+        metrics.bufferInUse(buffer.capacity());
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonClientException;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a part again on another connection when its request stalls.
+ * <p>
+ * A connection can stall without failing, and with the long socket timeout Glacier uploads need, the part would then
+ * hold up its file for many minutes before the request is retried. While a part is sent, its throughput so far is
+ * compared with the median throughput of recently uploaded parts. When it drops below {@value #STALL_RATIO} of the
+ * median after at least the minimal stall time, a hedged request with the same part is started. The request which
+ * finishes first wins and the other one is cancelled. Every part is hedged at most once.
+ * <p>
+ * Cancelling interrupts the loser's thread, which does not stop a socket write blocked on a stalled connection. The
+ * loser may therefore go on reading the part until the socket times out, and the part is reported finished only once
+ * it really ended.
+ */
+class PartHedger {
+
+    static final long DEFAULT_MIN_STALL_MILLIS = 10000;
+    static final double STALL_RATIO = 0.25;
+    static final int MIN_SAMPLES = 3;
+
+    private static final int WINDOW = 64;
+
+    private final ExecutorService attempts;
+    private final TransferMetrics metrics;
+    private final long minStallMillis;
+    private final long checkMillis;
+    private final double[] window = new double[WINDOW];
+    private int samples;
+
+    /**
+     * A request sending the part.
+     *
+     * @param <T> result of the request
+     */
+    interface Attempt<T> {
+        /**
+         * @param hedge true for the hedged request
+         * @param sent  counter of bytes of the part sent so far, to be updated by the request
+         * @return result of the request
+         * @throws Exception if the request fails
+         */
+        T run(boolean hedge, AtomicLong sent) throws Exception;
+    }
+
+    /**
+     * @param attempts       executor running the requests, it needs two threads for every part sent at once
+     * @param metrics        metrics of hedged parts
+     * @param minStallMillis time a request is never hedged within
+     * @param checkMillis    interval of stall checks
+     */
+    PartHedger(final ExecutorService attempts, final TransferMetrics metrics, final long minStallMillis,
+               final long checkMillis) {
+        this.attempts = attempts;
+        this.metrics = metrics;
+        this.minStallMillis = minStallMillis;
+        this.checkMillis = checkMillis;
+    }
+
+    /**
+     * Sends the part, hedging the request if it stalls.
+     *
+     * @param length   length of the part in bytes
+     * @param attempt  request sending the part, it may run twice at once
+     * @param finished called once no request reads the part any more, which may be after this method returns
+     * @param <T>      result of the request
+     * @return result of the request which finished first
+     * @throws Exception failure of the first request, if all requests fail
+     */
+    <T> T send(final long length, final Attempt<T> attempt, final Runnable finished) throws Exception {
+        final BlockingQueue<Future<T>> done = new LinkedBlockingQueue<>();
+        final AtomicInteger running = new AtomicInteger(1);
+        final AtomicLong sent = new AtomicLong();
+        final long started = System.nanoTime();
+        Future<T> primary = start(() -> attempt.run(false, sent), done, running, finished);
+        Future<T> hedge = null;
+        boolean hedged = false;
+        Exception failure = null;
+        try {
+            while (true) {
+                final Future<T> next = done.poll(checkMillis, TimeUnit.MILLISECONDS);
+                if (next != null) {
+                    try {
+                        final T result = next.get();
+                        if (next == hedge) {
+                            metrics.hedgeWon();
+                        }
+                        record(length, System.nanoTime() - started);
+                        return result;
+                    } catch (ExecutionException e) {
+                        metrics.partFailed();
+                        if (failure == null) {
+                            failure = e.getCause() instanceof Exception
+                                    ? (Exception) e.getCause()
+                                    : new AmazonClientException("Part upload failed", e.getCause());
+                        }
+                        if (next == primary) {
+                            primary = null;
+                        } else {
+                            hedge = null;
+                        }
+                        if (primary == null && hedge == null) {
+                            throw failure;
+                        }
+                    }
+                } else if (!hedged && isStalled(sent.get(), System.nanoTime() - started)) {
+                    hedged = true;
+                    metrics.partHedged();
+                    running.incrementAndGet();
+                    hedge = start(() -> attempt.run(true, new AtomicLong()), done, running, finished);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Upload was interrupted", e);
+        } finally {
+            // the loser, or both requests when this thread was interrupted
+            if (primary != null) {
+                primary.cancel(true);
+            }
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return median throughput of recently uploaded parts in bytes per second, 0 if there are not enough of them
+     */
+    synchronized double median() {
+        if (samples < MIN_SAMPLES) {
+            return 0;
+        }
+        final double[] sorted = Arrays.copyOf(window, Math.min(samples, WINDOW));
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private boolean isStalled(final long sent, final long elapsedNanos) {
+        if (TimeUnit.NANOSECONDS.toMillis(elapsedNanos) < minStallMillis) {
+            return false;
+        }
+        final double median = median();
+        return median > 0 && sent / (elapsedNanos / 1e9) < median * STALL_RATIO;
+    }
+
+    private synchronized void record(final long length, final long elapsedNanos) {
+        window[samples++ % WINDOW] = length / (Math.max(elapsedNanos, 1) / 1e9);
+        metrics.partUploaded(length);
+        metrics.medianPartBytesPerSecond((long) median());
+    }
+
+    private <T> Future<T> start(final Callable<T> request, final BlockingQueue<Future<T>> done,
+                                final AtomicInteger running, final Runnable finished) {
+        // whoever claims the request, the request itself or its cancellation before it started, ends it
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final FutureTask<T> task = new FutureTask<T>(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                throw new CancellationException();
+            }
+            try {
+                return request.call();
+            } finally {
+                end(running, finished);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (!isCancelled()) {
+                    done.add(this);
+                } else if (claimed.compareAndSet(false, true)) {
+                    end(running, finished);
+                }
+            }
+        };
+        try {
+            attempts.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            throw e;
+        }
+        return task;
+    }
+
+    private static void end(final AtomicInteger running, final Runnable finished) {
+        if (running.decrementAndGet() == 0) {
+            finished.run();
+        }
+    }
+}
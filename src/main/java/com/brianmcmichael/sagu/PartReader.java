@@ -0,0 +1,240 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Reads parts of a file being uploaded.
+ * <p>
+ * By default the file is read through the page cache like any other file. A backup of a whole file server reads every
+ * file once, and through the cache it would push the working set of other services on the machine out of memory.
+ * Uncached reads open the file with {@code O_DIRECT}, where the JDK (10 and later) and the file system support it, so
+ * the data goes from the disk straight into a buffer aligned to the block size and is copied into the part from there.
+ * The direct memory of the aligned buffer is kept by the thread after the reader is closed and reused by its next
+ * reader, so a worker uploading many files allocates it once.
+ * Otherwise, also when the first uncached read fails, the file is read sequentially in bounded chunks: pages read once
+ * and in order stay on the kernel's inactive list and are reclaimed before pages other processes use repeatedly.
+ * <p>
+ * Every read from the disk takes its bytes from the {@link DiskReadLimiter.Limit} of the file's mount, a limited file
+ * is read in bounded chunks even through the page cache so the limit sees a steady flow of reads.
+ */
+class PartReader implements Closeable {
+
+    static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final OpenOption DIRECT = directOption();
+    /**
+     * Direct memory of the aligned buffer of the thread's last closed reader, a reader takes it while it is open.
+     */
+    private static final ThreadLocal<ByteBuffer> SPARE_MEMORY = new ThreadLocal<>();
+
+    private final Path file;
+    private final DiskReadLimiter.Limit readLimit;
+    private final int chunkSize;
+    private final int blockSize;
+    private final ByteBuffer memory;
+    private FileChannel channel;
+    private ByteBuffer aligned;
+    private boolean directWorks;
+
+    private PartReader(final Path file, final DiskReadLimiter.Limit limit, final FileChannel channel,
+                       final int chunkSize, final ByteBuffer memory, final ByteBuffer aligned, final int blockSize) {
+        this.file = file;
+        this.readLimit = limit;
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.memory = memory;
+        this.aligned = aligned;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param file     file to be read
+     * @param uncached true to bypass the page cache if possible
+     * @return reader of the file
+     * @throws IOException if the file cannot be opened
+     */
+    static PartReader open(final Path file, final boolean uncached) throws IOException {
+        return open(file, uncached, DiskReadLimiter.Limit.NONE);
+    }
+
+    /**
+     * @param file     file to be read
+     * @param uncached true to bypass the page cache if possible
+     * @param limit    limit of reads from the mount of the file
+     * @return reader of the file
+     * @throws IOException if the file cannot be opened
+     */
+    static PartReader open(final Path file, final boolean uncached, final DiskReadLimiter.Limit limit)
+            throws IOException {
+        if (!uncached) {
+            final int chunkSize = limit.isUnlimited() ? Integer.MAX_VALUE : CHUNK_SIZE;
+            return new PartReader(file, limit, FileChannel.open(file, READ), chunkSize, null, null, 0);
+        }
+        if (DIRECT != null) {
+            ByteBuffer memory = null;
+            try {
+                final int blockSize = blockSize(file);
+                memory = takeMemory(CHUNK_SIZE + blockSize);
+                final ByteBuffer aligned = alignedBuffer(memory, CHUNK_SIZE, blockSize);
+                return new PartReader(file, limit, FileChannel.open(file, READ, DIRECT), CHUNK_SIZE, memory, aligned,
+                        blockSize);
+            } catch (IOException | UnsupportedOperationException | ReflectiveOperationException e) {
+                // e.g. tmpfs or a network file system, they do not support O_DIRECT
+                if (memory != null) {
+                    SPARE_MEMORY.set(memory);
+                }
+            }
+        }
+        return new PartReader(file, limit, FileChannel.open(file, READ), CHUNK_SIZE, null, null, 0);
+    }
+
+    /**
+     * @return true if the file is read past the page cache
+     */
+    boolean isDirect() {
+        return aligned != null;
+    }
+
+    /**
+     * Fills the remaining bytes of the buffer from the file.
+     *
+     * @param buffer   buffer of the part
+     * @param position position of the part in the file
+     * @throws EOFException if the file ends before the buffer is full
+     */
+    void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        if (aligned != null) {
+            final int start = buffer.position();
+            try {
+                readDirect(buffer, position);
+                directWorks = true;
+                return;
+            } catch (EOFException e) {
+                throw e;
+            } catch (IOException e) {
+                if (directWorks) {
+                    throw e;
+                }
+                // the file system took O_DIRECT when the file was opened but does not read with it
+                channel.close();
+                channel = FileChannel.open(file, READ);
+                aligned = null;
+                buffer.position(start);
+            }
+        }
+        final int limit = buffer.limit();
+        long offset = position;
+        try {
+            while (buffer.hasRemaining()) {
+                buffer.limit(buffer.position() + Math.min(buffer.remaining(), chunkSize));
+                readLimit.acquire(buffer.remaining());
+                final int read = channel.read(buffer, offset);
+                if (read < 0) {
+                    throw new EOFException("File ended at " + offset + " while reading part starting at "
+                            + position);
+                }
+                offset += read;
+                buffer.limit(limit);
+            }
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (memory != null) {
+            SPARE_MEMORY.set(memory);
+        }
+        channel.close();
+    }
+
+    /**
+     * Reads whole aligned blocks into the aligned buffer and copies the requested bytes from them. A read which
+     * returns fewer bytes than asked for has reached the end of the file.
+     */
+    private void readDirect(final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final long blockStart = offset - offset % blockSize;
+            final int skip = (int) (offset - blockStart);
+            final long wanted = (long) skip + buffer.remaining();
+            aligned.clear();
+            aligned.limit((int) Math.min(aligned.capacity(), (wanted + blockSize - 1) / blockSize * blockSize));
+            readLimit.acquire(aligned.remaining());
+            final int read = Math.max(0, channel.read(aligned, blockStart));
+            if (read <= skip) {
+                throw new EOFException("File ended at " + (blockStart + read) + " while reading part starting at "
+                        + position);
+            }
+            aligned.flip();
+            aligned.position(skip);
+            aligned.limit(Math.min(read, skip + buffer.remaining()));
+            offset += aligned.remaining();
+            buffer.put(aligned);
+        }
+    }
+
+    private static int blockSize(final Path file) throws IOException, ReflectiveOperationException {
+        final FileStore store = Files.getFileStore(file);
+        try {
+            final long blockSize = (Long) FileStore.class.getMethod("getBlockSize").invoke(store);
+            return (int) Math.max(blockSize, DEFAULT_BLOCK_SIZE);
+        } catch (NoSuchMethodException e) {
+            return DEFAULT_BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * @return the spare direct memory of the thread if it is large enough, otherwise newly allocated memory
+     */
+    private static ByteBuffer takeMemory(final int capacity) {
+        final ByteBuffer spare = SPARE_MEMORY.get();
+        SPARE_MEMORY.remove();
+        return spare != null && spare.capacity() >= capacity ? spare : ByteBuffer.allocateDirect(capacity);
+    }
+
+    private static ByteBuffer alignedBuffer(final ByteBuffer memory, final int capacity, final int alignment)
+            throws ReflectiveOperationException {
+        final Method alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+        final ByteBuffer slice = (ByteBuffer) alignedSlice.invoke(memory.duplicate().clear(), alignment);
+        slice.limit(capacity / alignment * alignment);
+        return slice.slice();
+    }
+
+    /**
+     * @return {@code ExtendedOpenOption.DIRECT} of the JDK, null if it has none
+     */
+    private static OpenOption directOption() {
+        try {
+            for (Object option : Class.forName("com.sun.nio.file.ExtendedOpenOption").getEnumConstants()) {
+                if ("DIRECT".equals(((Enum<?>) option).name())) {
+                    return (OpenOption) option;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // not an OpenJDK
+        }
+        return null;
+    }
+}
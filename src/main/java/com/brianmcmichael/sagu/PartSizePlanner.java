@@ -0,0 +1,193 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MAX_PART_SIZE;
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.MultipartUploader.isValidPartSize;
+
+/**
+ * Chooses part size of multipart uploads.
+ * <p>
+ * Glacier accepts at most {@value #MAX_PARTS} parts per archive, so the part size is never smaller than the smallest
+ * power of two megabytes which fits the file into that limit, and never larger than the file needs. Between these
+ * bounds the planner uses its preferred part size. Parts are at most {@link MultipartUploader#MAX_PART_SIZE}, so a
+ * file or stream of more than {@link #MAX_ARCHIVE_SIZE} bytes, about 9.8 TB, cannot be uploaded, although Glacier
+ * itself takes parts of up to 4 GB. When the planner is adaptive, it measures every uploaded part and moves the
+ * preferred size for the following uploads, at most by the factor of two at a time:
+ * <ul>
+ * <li>towards the size which takes about {@value #TARGET_PART_SECONDS} seconds to upload at the measured throughput
+ * of one part, so fast links do not waste round trips on small parts,</li>
+ * <li>down when more than {@value #HIGH_ERROR_RATE} of part uploads fail, so flaky links do not retry large
+ * parts.</li>
+ * </ul>
+ * Throughput and error rate are exponentially weighted moving averages. The planner is shared by all uploads and is
+ * thread safe.
+ */
+public class PartSizePlanner {
+
+    static final int MAX_PARTS = 10000;
+    /**
+     * Largest archive which fits into the part count limit.
+     */
+    static final long MAX_ARCHIVE_SIZE = MAX_PARTS * MAX_PART_SIZE;
+    static final long TARGET_PART_SECONDS = 10;
+    static final double HIGH_ERROR_RATE = 0.05;
+    /**
+     * Largest part size the planner grows to by itself. Every part being uploaded is held in memory.
+     */
+    static final long MAX_ADAPTIVE_PART_SIZE = 64 * MB;
+
+    private static final double SMOOTHING = 0.2;
+    private static final int ADAPT_INTERVAL = 8;
+
+    private final boolean adaptive;
+    private long preferredPartSize;
+    private double throughput;
+    private double errorRate;
+    private int samples;
+
+    /**
+     * Initializes the planner.
+     *
+     * @param initialPartSize preferred part size in bytes before anything is measured; it has to be a power of two
+     *                        multiple of 1 MB
+     * @param adaptive        true to adjust the preferred part size from measured uploads
+     */
+    public PartSizePlanner(final long initialPartSize, final boolean adaptive) {
+        if (!isValidPartSize(initialPartSize)) {
+            throw new IllegalArgumentException("Part size has to be a power of two multiple of 1 MB up to "
+                    + MAX_PART_SIZE + " bytes, was " + initialPartSize);
+        }
+        this.preferredPartSize = initialPartSize;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Plans upload of a file.
+     *
+     * @param fileLength length of the file in bytes
+     * @return the plan
+     * @throws IllegalArgumentException if the file cannot be uploaded within the part count limit
+     */
+    public synchronized Plan plan(final long fileLength) {
+        final long minimum = minimumPartSize(fileLength);
+        if (minimum > MAX_PART_SIZE) {
+            throw new IllegalArgumentException("File of " + fileLength + " bytes does not fit into " + MAX_PARTS
+                    + " parts of " + MAX_PART_SIZE + " bytes");
+        }
+        final long partSize = Math.max(minimum, Math.min(preferredPartSize, powerOfTwoCeiling(fileLength)));
+        return new Plan(fileLength, partSize);
+    }
+
+    /**
+     * Records successfully uploaded part.
+     *
+     * @param bytes       length of the part
+     * @param elapsedNanos time the upload of the part took
+     */
+    public synchronized void partUploaded(final long bytes, final long elapsedNanos) {
+        final double bytesPerSecond = bytes / (Math.max(elapsedNanos, 1) / 1e9);
+        throughput = samples == 0 ? bytesPerSecond : average(throughput, bytesPerSecond);
+        errorRate = average(errorRate, 0);
+        sampled();
+    }
+
+    /**
+     * Records failed upload of a part.
+     */
+    public synchronized void partFailed() {
+        errorRate = average(errorRate, 1);
+        sampled();
+    }
+
+    synchronized long getPreferredPartSize() {
+        return preferredPartSize;
+    }
+
+    /**
+     * Returns the smallest valid part size which splits the file into at most {@value #MAX_PARTS} parts.
+     *
+     * @param fileLength length of the file in bytes
+     * @return part size in bytes, it may be larger than the largest supported part size
+     */
+    static long minimumPartSize(final long fileLength) {
+        long partSize = MB;
+        while ((fileLength + partSize - 1) / partSize > MAX_PARTS) {
+            partSize <<= 1;
+        }
+        return partSize;
+    }
+
+    private void sampled() {
+        samples++;
+        if (adaptive && samples % ADAPT_INTERVAL == 0) {
+            long target = throughput > 0
+                    ? powerOfTwoFloor((long) (throughput * TARGET_PART_SECONDS))
+                    : preferredPartSize;
+            if (errorRate > HIGH_ERROR_RATE) {
+                target = Math.min(target, preferredPartSize / 2);
+            }
+            target = Math.max(target, preferredPartSize / 2);
+            target = Math.min(target, preferredPartSize * 2);
+            preferredPartSize = Math.max(MB, Math.min(target, Math.max(MAX_ADAPTIVE_PART_SIZE, preferredPartSize)));
+        }
+    }
+
+    private static double average(final double average, final double sample) {
+        return average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * @return the largest power of two megabytes not larger than the size, at least 1 MB
+     */
+    private static long powerOfTwoFloor(final long size) {
+        return Math.max(MB, Long.highestOneBit(size / MB) * MB);
+    }
+
+    /**
+     * @return the smallest power of two megabytes not smaller than the size, at least 1 MB
+     */
+    private static long powerOfTwoCeiling(final long size) {
+        final long floor = powerOfTwoFloor(size);
+        return floor < size ? floor * 2 : floor;
+    }
+
+    /**
+     * Part size chosen for one file.
+     */
+    public static final class Plan {
+        private final long fileLength;
+        private final long partSize;
+
+        Plan(final long fileLength, final long partSize) {
+            this.fileLength = fileLength;
+            this.partSize = partSize;
+        }
+
+        /**
+         * @return part size in bytes
+         */
+        public long getPartSize() {
+            return partSize;
+        }
+
+        /**
+         * @return number of parts of the file
+         */
+        public long getPartCount() {
+            return (fileLength + partSize - 1) / partSize;
+        }
+
+        @Override
+        public String toString() {
+            return getPartCount() + " parts of " + partSize / MB + " MB";
+        }
+    }
+}
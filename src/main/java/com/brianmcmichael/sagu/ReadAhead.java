@@ -0,0 +1,110 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Number of parts of a file read ahead of the parts being sent, per source device.
+ * <p>
+ * While all upload threads are sending, the next parts of the file are read and hashed already, so the network does
+ * not wait for the disk and the disk does not wait for the network. Every part read ahead costs one part size of
+ * memory. Devices with slow or irregular reads get more parts: network file systems, whose reads take a round trip,
+ * most, spinning disks, whose throughput drops whenever they seek, fewer and SSDs one, since they read a part faster
+ * than it is sent. Unless a fixed number of parts is configured, the device is recognized by its file system type
+ * and, on Linux, by the {@code rotational} flag of its block device.
+ */
+public class ReadAhead {
+
+    static final int NETWORK_PARTS = 4;
+    static final int ROTATIONAL_PARTS = 2;
+    static final int SOLID_STATE_PARTS = 1;
+
+    private static final List<String> NETWORK_FILE_SYSTEMS = Arrays.asList("nfs", "nfs4", "cifs", "smb", "smb2",
+            "smb3", "smbfs", "afpfs", "webdav", "davfs", "fuse.sshfs", "9p", "ceph", "glusterfs", "lustre");
+
+    private final int parts;
+    private final Map<FileStore, Integer> byStore = new ConcurrentHashMap<>();
+
+    /**
+     * @param parts number of parts read ahead for every file, 0 to choose it by the device of the file
+     */
+    public ReadAhead(final int parts) {
+        if (parts < 0) {
+            throw new IllegalArgumentException("Read-ahead cannot be negative, was " + parts);
+        }
+        this.parts = parts;
+    }
+
+    /**
+     * @param file file to be read
+     * @return number of parts of the file to read ahead, at least 1
+     */
+    public int partsFor(final Path file) {
+        if (parts > 0) {
+            return parts;
+        }
+        final FileStore store;
+        try {
+            store = Files.getFileStore(file);
+        } catch (IOException e) {
+            return ROTATIONAL_PARTS;
+        }
+        return byStore.computeIfAbsent(store, s -> partsFor(s.type(), isRotational(s.name())));
+    }
+
+    /**
+     * @param fileSystemType type of the file system, e.g. ext4 or nfs4
+     * @param rotational     whether the block device is a spinning disk, null if not known
+     * @return number of parts to read ahead
+     */
+    static int partsFor(final String fileSystemType, final Boolean rotational) {
+        if (fileSystemType != null && NETWORK_FILE_SYSTEMS.contains(fileSystemType.toLowerCase())) {
+            return NETWORK_PARTS;
+        }
+        if (rotational == null || rotational) {
+            return ROTATIONAL_PARTS;
+        }
+        return SOLID_STATE_PARTS;
+    }
+
+    /**
+     * Reads the rotational flag of a Linux block device from sysfs; a partition has it in its parent disk.
+     *
+     * @param device device of the file store, e.g. /dev/sda1
+     * @return whether the device is a spinning disk, null if not known
+     */
+    private static Boolean isRotational(final String device) {
+        if (device == null || !device.startsWith("/dev/")) {
+            return null;
+        }
+        try {
+            final Path block = Paths.get("/sys/class/block", device.substring("/dev/".length())).toRealPath();
+            for (Path dir = block; dir != null && dir.startsWith("/sys"); dir = dir.getParent()) {
+                final Path flag = dir.resolve("queue").resolve("rotational");
+                if (Files.exists(flag)) {
+                    return new String(Files.readAllBytes(flag), US_ASCII).trim().equals("1");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, or a device without a block device entry
+        }
+        return null;
+    }
+}
@@ -9,15 +9,11 @@
 package com.brianmcmichael.sagu;
 
 import com.amazonaws.AmazonClientException;
-import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.glacier.AmazonGlacierClient;
-import static com.amazonaws.services.glacier.TreeHashGenerator.calculateTreeHash;
 import com.amazonaws.services.glacier.model.DescribeVaultOutput;
 import com.amazonaws.services.glacier.model.ListVaultsRequest;
 import com.amazonaws.services.glacier.model.ListVaultsResult;
-import com.amazonaws.services.glacier.transfer.ArchiveTransferManager;
-import com.amazonaws.services.glacier.transfer.UploadResult;
 import static com.brianmcmichael.sagu.Endpoint.getByIndex;
 import static com.brianmcmichael.sagu.Endpoint.populateComboBox;
 import com.brianmcmichael.sagu.ui.*;
@@ -28,12 +24,16 @@ import java.awt.event.*;
 import java.io.*;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import static com.brianmcmichael.sagu.LogWriter.getLogFile;
 import static com.brianmcmichael.sagu.SAGUUtils.concatFileArrays;
 import static com.brianmcmichael.sagu.SAGUUtils.loadVersionNumber;
-import static com.brianmcmichael.sagu.SAGUUtils.removeNullFiles;
 import static com.brianmcmichael.sagu.SAGUUtils.pathToDescription;
 import static com.brianmcmichael.sagu.ui.JHyperlinkLabel.OpenURI;
 import static java.awt.BorderLayout.CENTER;
@@ -47,12 +47,16 @@ import static java.lang.String.format;
 import static java.lang.String.valueOf;
 import static java.lang.System.exit;
 import static java.lang.System.getProperty;
-import static java.lang.Thread.sleep;
 import static java.nio.file.Paths.get;
+import static java.util.concurrent.TimeUnit.DAYS;
 import static javax.swing.BorderFactory.createTitledBorder;
 import static javax.swing.JFileChooser.APPROVE_OPTION;
+import static javax.swing.JFileChooser.FILES_AND_DIRECTORIES;
 import static javax.swing.JOptionPane.ERROR_MESSAGE;
 import static javax.swing.JOptionPane.INFORMATION_MESSAGE;
+import static javax.swing.JOptionPane.YES_NO_OPTION;
+import static javax.swing.JOptionPane.YES_OPTION;
+import static javax.swing.JOptionPane.showConfirmDialog;
 import static javax.swing.JOptionPane.showMessageDialog;
 
 public class SAGU extends JFrame implements ActionListener {
@@ -60,7 +64,6 @@ public class SAGU extends JFrame implements ActionListener {
 	private static final long serialVersionUID = 1L;
 
     // Error messages
-    private static final String NO_DIRECTORIES_ERROR = "Directories, folders, and packages are not supported. \nPlease compress this into a single archive (such as a .zip) and try uploading again.";
     private static final String LOG_CREATION_ERROR = "There was an error creating the log.";
     private static final String LOG_WRITE_ERROR = "There was an error writing to the log.";
 
@@ -84,18 +87,21 @@ public class SAGU extends JFrame implements ActionListener {
     public static final String ACCESS_LABEL = "Access Key: ";
 
     // Config override
-    private static final int SOCKET_TIMEOUT = 1000000;
-    private static final int MAX_RETRIES = 6;
 
 
     private String versionNumber;
 
     private final AppProperties appProperties;
+    private final GlacierClientRegistry clientRegistry;
+    private PartSizePlanner partSizePlanner;
+    private EncryptionKey encryptionKey;
+    private HashCache hashCache;
+    private PartBufferPool bufferPool;
+    private DiskReadLimiter diskReadLimiter;
 
     private int width = 200;
     private int height = 170;
 
-    private AmazonGlacierClient client;
 
     // Right mouse click context listener
     final ContextMenuMouseListener rmb = new ContextMenuMouseListener();
@@ -147,6 +153,7 @@ public class SAGU extends JFrame implements ActionListener {
     final JCheckBoxMenuItem logCheckMenuItem = new JCheckBoxMenuItem("Logging On/Off", logIcon);
     final JMenu deleteMenu = new JMenu("Delete");
     final JMenuItem deleteArchiveMnu = new JMenuItem("Delete Archive", xIcon);
+    final JMenuItem abortStaleUploadsMnu = new JMenuItem("Abort Stale Uploads", xIcon);
     final JMenu helpMenu = new JMenu("Help");
     final JMenuItem updateMnu = new JMenuItem(UPDATE_STRING, updateIcon);
     final JMenuItem aboutMnu = new JMenuItem("About", toolsIcon);
@@ -197,23 +204,13 @@ public class SAGU extends JFrame implements ActionListener {
                 ddText.setEditable(false);
                 {
                     for (int i = 0; i < files.length; i++) {
-                        if (files[i].isDirectory()) {
-                            try {
-                                ddText.append("Unable to upload: " + files[i].getCanonicalPath() + "\n");
-                            } catch (IOException e) {
-                            }
-                            showMessageDialog(null,
-                                    NO_DIRECTORIES_ERROR, "Error", ERROR_MESSAGE);
-                            files[i] = null;
-                        } else {
-                            try {
-                                ddText.append(files[i].getCanonicalPath() + "\n");
-                            } catch (IOException e) {
-                            }
+                        try {
+                            ddText.append(files[i].getCanonicalPath()
+                                    + (files[i].isDirectory() ? File.separator : "") + "\n");
+                        } catch (IOException e) {
                         }
                     } // end for: through each dropped file
                 }
-                files = removeNullFiles(files);
                 if (multiFiles != null) {
                     multiFiles = concatFileArrays(multiFiles, files);
                 } else {
@@ -232,11 +229,13 @@ public class SAGU extends JFrame implements ActionListener {
 
     private SAGU() {
         appProperties = new AppProperties();
+        clientRegistry = new GlacierClientRegistry(appProperties);
         initializeUI();
     }
 
     private SAGU(final String propertiesDir) {
         appProperties = new AppProperties(get(propertiesDir));
+        clientRegistry = new GlacierClientRegistry(appProperties);
         initializeUI();
     }
 
@@ -406,6 +405,9 @@ public class SAGU extends JFrame implements ActionListener {
         deleteMenu.add(deleteArchiveMnu);
         deleteArchiveMnu.setBackground(WHITE);
         deleteArchiveMnu.addActionListener(this);
+        deleteMenu.add(abortStaleUploadsMnu);
+        abortStaleUploadsMnu.setBackground(WHITE);
+        abortStaleUploadsMnu.addActionListener(this);
         menuBar.add(helpMenu);
         helpMenu.setBackground(WHITE);
         helpMenu.add(updateMnu);
@@ -547,7 +549,7 @@ public class SAGU extends JFrame implements ActionListener {
         int newLoc = getServerRegion();
 
         if (!(getAccessKey().equals("") || getSecretKey().equals(""))) {
-            AmazonGlacierClient newVaultCheckClient = makeClient(accessString, secretString, newLoc);
+            AmazonGlacierClient newVaultCheckClient = getClient(accessString, secretString, newLoc);
 
             String marker = null;
             vaultSelector.removeAllItems();
@@ -584,11 +586,86 @@ public class SAGU extends JFrame implements ActionListener {
         this.setBounds(left, top, width, height);
     }
 
-    private AmazonGlacierClient makeClient(String accessorString, String secretiveString, int regionIndex) {
-        BasicAWSCredentials credentials = new BasicAWSCredentials(accessorString, secretiveString);
-        client = new AmazonGlacierClient(credentials);
-        client.setEndpoint(getByIndex(regionIndex).getGlacierEndpoint());
-        return client;
+    private AmazonGlacierClient getClient(String accessorString, String secretiveString, int regionIndex) {
+        return clientRegistry.getClient(accessorString, secretiveString, getByIndex(regionIndex));
+    }
+
+    /**
+     * Returns master key of client-side encryption, it is generated on first use.
+     */
+    private synchronized EncryptionKey getEncryptionKey() throws IOException {
+        if (encryptionKey == null) {
+            encryptionKey = EncryptionKey.loadOrGenerate(appProperties.getEncryptionKeyFile());
+        }
+        return encryptionKey;
+    }
+
+    /**
+     * Returns cache of tree hashes shared by all uploads, it is loaded on first use.
+     */
+    private synchronized HashCache getHashCache() throws IOException {
+        if (hashCache == null) {
+            hashCache = new HashCache(appProperties.getDir(), getDiskReadLimiter());
+        }
+        return hashCache;
+    }
+
+    /**
+     * Returns planner shared by all uploads, so part sizes of later uploads are based on all previous ones.
+     */
+    private synchronized PartSizePlanner getPartSizePlanner() {
+        if (partSizePlanner == null) {
+            partSizePlanner = new PartSizePlanner(appProperties.getPartSizeMB() * MultipartUploader.MB,
+                    appProperties.isAdaptivePartSize());
+        }
+        return partSizePlanner;
+    }
+
+    /**
+     * Returns pool of part buffers shared by all uploads, so together they stay within the configured memory budget.
+     */
+    private synchronized PartBufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = new PartBufferPool(appProperties.getBufferBudgetBytes(), TransferMetrics.getInstance());
+        }
+        return bufferPool;
+    }
+
+    /**
+     * Returns limits of disk reads shared by all uploads and hashing, so together they keep to the limits of a mount.
+     */
+    private synchronized DiskReadLimiter getDiskReadLimiter() {
+        if (diskReadLimiter == null) {
+            diskReadLimiter = appProperties.getDiskReadLimiter();
+        }
+        return diskReadLimiter;
+    }
+
+    private void abortStaleUploads(final AmazonGlacierClient staleClient, final String vaultName) {
+        final int days = appProperties.getStaleUploadDays();
+        final int answer = showConfirmDialog(null,
+                "Abort all uploads to vault " + vaultName + " which were started more than " + days
+                        + " days ago and never completed?", "Abort Stale Uploads", YES_NO_OPTION);
+        if (answer != YES_OPTION) {
+            return;
+        }
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws IOException {
+                return new MultipartRecovery(staleClient).abortStale(vaultName, DAYS.toMillis(days),
+                        appProperties.getDir().resolve(UploadJournal.JOURNAL_DIR));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    showMessageDialog(null, "Aborted " + get() + " stale uploads in vault " + vaultName + ".",
+                            "Abort Stale Uploads", INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    showMessageDialog(null, "" + e.getCause(), "Error", ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
     @Override
@@ -600,7 +677,7 @@ public class SAGU extends JFrame implements ActionListener {
         int regionInt = getServerRegion();
 
         if (e.getSource() == newVaultButton && checkAWSFields()) {
-            AmazonGlacierClient newVaultClient = makeClient(accessString, secretString, regionInt);
+            AmazonGlacierClient newVaultClient = getClient(accessString, secretString, regionInt);
             AddVaultFrame avf = new AddVaultFrame(newVaultClient, regionInt);
             avf.setVisible(true);
         }
@@ -702,14 +779,19 @@ public class SAGU extends JFrame implements ActionListener {
         }
         if (e.getSource() == deleteArchiveMnu) {
             if (checkAllFields()) {
-                AmazonGlacierClient newDeleteClient = makeClient(accessString, secretString, regionInt);
+                AmazonGlacierClient newDeleteClient = getClient(accessString, secretString, regionInt);
                 DeleteArchiveFrame daf = new DeleteArchiveFrame(newDeleteClient, vaultString, regionInt);
                 daf.setVisible(true);
             }
         }
+        if (e.getSource() == abortStaleUploadsMnu) {
+            if (checkAllFields()) {
+                abortStaleUploads(getClient(accessString, secretString, regionInt), vaultString);
+            }
+        }
         if (e.getSource() == inventoryRequestButton) {
             if (checkAllFields()) {
-                AmazonGlacierClient newInventoryClient = makeClient(accessString, secretString, regionInt);
+                AmazonGlacierClient newInventoryClient = getClient(accessString, secretString, regionInt);
                 InventoryRequest ir = new InventoryRequest(newInventoryClient, vaultString, regionInt);
                 ir.setVisible(true);
             }
@@ -717,7 +799,7 @@ public class SAGU extends JFrame implements ActionListener {
         if (e.getSource() == downloadRequestButton
                 || e.getSource() == downloadFileMnu) {
             if (checkAllFields()) {
-                AmazonGlacierClient newDownloadClient = makeClient(accessString, secretString, regionInt);
+                AmazonGlacierClient newDownloadClient = getClient(accessString, secretString, regionInt);
                 BasicAWSCredentials credentials = new BasicAWSCredentials(accessString, secretString);
                 AmazonDownloadRequest adr = new AmazonDownloadRequest(newDownloadClient, vaultString, regionInt, credentials);
                 adr.setVisible(true);
@@ -739,10 +821,11 @@ public class SAGU extends JFrame implements ActionListener {
         }
 
         if (e.getSource() == selectFileButton) {
+            fc.setFileSelectionMode(FILES_AND_DIRECTORIES);
             int returnVal = fc.showOpenDialog(SAGU.this);
 
             if (returnVal == APPROVE_OPTION) {
-                if (fc.getSelectedFile().isFile()) {
+                if (fc.getSelectedFile().exists()) {
                     File[] thisFile = new File[1];
                     thisFile[0] = fc.getSelectedFile();
                     try {
@@ -754,8 +837,6 @@ public class SAGU extends JFrame implements ActionListener {
                     } else {
                         multiFiles = thisFile;
                     }
-                } else {
-                    showMessageDialog(null, NO_DIRECTORIES_ERROR, "Error", ERROR_MESSAGE);
                 }
             }
 
@@ -766,6 +847,13 @@ public class SAGU extends JFrame implements ActionListener {
 
                 SwingWorker<Object, Void> uploadWorker = new SwingWorker<Object, Void>() {
 
+                    private final ArrayList<String> uploadList = new ArrayList<>();
+                    private UploadWindow uw;
+                    private long totalSize;
+                    private long uploadedSize;
+                    private int finishedFiles;
+                    private int batchLength;
+
                     @Override
                     protected Object doInBackground() throws Exception {
                         String accessString = getAccessKey();
@@ -773,124 +861,89 @@ public class SAGU extends JFrame implements ActionListener {
                         String vaultName = getVaultName();
                         File[] uploadFileBatch = multiFiles;
 
-                        // work out exactly how much we are going to upload
-                        // so we can support a second total upload progress bar
-                        long totalSize = 0;
-                        long uploadedSize = 0;
+                        // directories are scanned while files upload, so the total for the second
+                        // progress bar grows as files are found
+                        final ArrayList<File> batch = new ArrayList<>();
+                        final ArrayList<File> tarred = new ArrayList<>();
                         for (File f : uploadFileBatch) {
-                            totalSize += f.length();
+                            if (f.isDirectory() && appProperties.isTarDirectories()) {
+                                tarred.add(f.getCanonicalFile());
+                            } else {
+                                batch.add(f.getCanonicalFile());
+                            }
                         }
 
                         int locInt = getServerRegion();
                         multiFiles = null;
                         clearFile();
-                        UploadWindow uw = new UploadWindow();
+                        uw = new UploadWindow();
 
                         if (uploadFileBatch.length > 0) {
 
-                            ArrayList<String> uploadList = new ArrayList<>();
-
-                            for (int i = 0; i < uploadFileBatch.length; i++) {
-
-                                try {
-                                    sleep(100L); // why?
-                                } catch (InterruptedException e1) {
-                                    e1.printStackTrace();
+                            final AmazonGlacierClient client = getClient(accessString, secretString, locInt);
+                            final String locationUpped = getByIndex(locInt).name();
+
+                            uw.setTitle("Uploading");
+
+                            try (MultipartUploader uploader = new MultipartUploader.Builder(client,
+                                    appProperties.getUploadThreads(), getPartSizePlanner())
+                                    .withJournalDir(appProperties.getDir().resolve(UploadJournal.JOURNAL_DIR))
+                                    .withRecovery(appProperties.isServerResume() ? new MultipartRecovery(client) : null)
+                                    .withReadAhead(new ReadAhead(appProperties.getReadAheadParts()))
+                                    .withBufferPool(getBufferPool())
+                                    .withUncachedReads(appProperties.isUncachedReads())
+                                    .withDiskReads(getDiskReadLimiter())
+                                    .build();
+                                 UploadScheduler scheduler = new UploadScheduler(appProperties.getConcurrentFiles());
+                                 DedupIndex dedupIndex = openDedupIndex();
+                                 FileTreeWalker.Walk walk = new FileTreeWalker(appProperties.getWalkInclude(),
+                                         appProperties.getWalkExclude(), appProperties.getWalkSymlinks()).walk(batch)) {
+
+                                final UploadScheduler.FileUpload<UploadedArchive> upload =
+                                        file -> uploadFile(uploader, dedupIndex, vaultName, locationUpped, file);
+                                final UploadScheduler.CompletionHandler<UploadedArchive> finished =
+                                        (file, result, error) -> uploadFinished(vaultName, locationUpped, file,
+                                                result, error);
+
+                                final List<File> small = new ArrayList<>();
+                                final long maxPacked = appProperties.isPackSmallFiles()
+                                        ? appProperties.getPackMaxFileKB() * 1024L : 0;
+                                final DiskLayoutOrder layout = appProperties.isDiskLayoutOrder()
+                                        ? new DiskLayoutOrder() : null;
+                                final Iterator<File> found = discovered(walk, small, maxPacked);
+                                scheduler.uploadAll(layout == null ? found : layout.order(found), upload, finished);
+                                for (File directory : tarred) {
+                                    uploadDirectory(uploader, vaultName, locationUpped, directory);
+                                }
+                                for (String walkError : walk.getErrors()) {
+                                    uploadList.add("Skipped: " + walkError + "\n");
                                 }
 
-                                ClientConfiguration config = new ClientConfiguration();
-                                config.setSocketTimeout(SOCKET_TIMEOUT);
-                                config.setMaxErrorRetry(MAX_RETRIES);
-
-                                BasicAWSCredentials credentials = new BasicAWSCredentials(accessString, secretString);
-                                client = new AmazonGlacierClient(credentials, config);
-                                final Endpoint endpoint = getByIndex(locInt);
-                                client.setEndpoint(endpoint.getGlacierEndpoint());
-                                String locationUpped = endpoint.name();
-                                String thisFile = uploadFileBatch[i].getCanonicalPath();
-                                final String description = pathToDescription(thisFile);
-
-                                try {
-
-                                    ArchiveTransferManager atm = new ArchiveTransferManager(client, credentials);
-
-                                    String fileLength = Long.toString(uploadFileBatch[i].length());
-
-                                    uw.setTitle("(" + (i + 1) + "/"
-                                            + uploadFileBatch.length + ")"
-                                            + " Uploading: " + thisFile);
-
-                                    UploadResult result = atm.upload(null, vaultName, description, uploadFileBatch[i],
-                                            new OneFileProgressListener(uw, uploadFileBatch[i].length()));
-
-                                    uw.addToFinishedFiles(thisFile + "\n");
-
-                                    uploadedSize += uploadFileBatch[i].length();
-
-                                    int percentage = (int) (((double) uploadedSize / totalSize) * 100);
-
-                                    uw.updateAllFilesProgress(percentage);
-
-                                    final LogWriter logWriter;
-
-                                    // write to file
-                                    if (logCheckMenuItem.isSelected()) {
-                                        String treeHash = calculateTreeHash(uploadFileBatch[i]);
-
-                                        try {
-                                            logWriter = new LogWriter(appProperties);
-
-                                            try {
-                                                String thisResult = result.getArchiveId();
-
-                                                logWriter.logUploadedFile(vaultName, locationUpped, thisFile,
-                                                        fileLength, treeHash, thisResult);
-
-                                                uploadList.add("Successfully uploaded " + thisFile
-                                                        + " to vault " + vaultName
-                                                        + " at " + locationUpped
-                                                        + ". Bytes: " + fileLength
-                                                        + ". ArchiveID Logged.\n");
-                                            } catch (IOException c) {
-                                                showMessageDialog(null,
-                                                        LOG_WRITE_ERROR,
-                                                        "IO Error", ERROR_MESSAGE);
-                                                uw.dispose();
-                                                exit(1);
-                                            }
-
-                                        } catch (IOException ex) {
-                                            showMessageDialog(null,
-                                                    LOG_CREATION_ERROR,
-                                                    "IO Error", ERROR_MESSAGE);
-                                            uw.dispose();
-                                            exit(1);
-                                        }
+                                final List<File> singles = new ArrayList<>();
+                                final List<List<File>> containers = new ArrayList<>();
+                                final ContainerPacker packer = new ContainerPacker(maxPacked,
+                                        appProperties.getPackTargetMB() * MultipartUploader.MB);
+                                for (List<File> group : packer.pack(layout == null ? small : layout.order(small))) {
+                                    if (group.size() == 1) {
+                                        singles.addAll(group);
                                     } else {
-                                        showMessageDialog(null,
-                                                "Upload Complete!\nArchive ID: "
-                                                        + result.getArchiveId()
-                                                        + "\nIt may take some time for Amazon to update the inventory.",
-                                                "Uploaded", INFORMATION_MESSAGE);
-                                        multiFiles = null;
-                                        uw.dispose();
+                                        containers.add(group);
                                     }
-
-                                    clearFile();
-
-                                } catch (AmazonClientException | HeadlessException h) {
-                                    if (logCheckMenuItem.isSelected()) {
-                                        writeToErrorLog(h, thisFile);
-                                    }
-                                    showMessageDialog(null, "" + h, "Error", ERROR_MESSAGE);
-                                    uw.dispose();
-
                                 }
+                                scheduler.uploadAll(singles, upload, finished);
 
+                                final long packId = System.currentTimeMillis();
+                                for (int i = 0; i < containers.size(); i++) {
+                                    uploadContainer(uploader, vaultName, locationUpped,
+                                            "SAGU-pack-" + packId + "-" + (i + 1) + ".tar", containers.get(i));
+                                }
+                            } catch (IllegalArgumentException h) {
+                                showMessageDialog(null, "" + h, "Error", ERROR_MESSAGE);
                             }
+
                             StringBuilder sb = new StringBuilder();
-                            for (int j = 0; j < uploadFileBatch.length; j++) {
-                                sb.append(uploadList.get(j));
+                            for (String uploaded : uploadList) {
+                                sb.append(uploaded);
                             }
                             uw.dispose();
 
@@ -918,6 +971,353 @@ public class SAGU extends JFrame implements ActionListener {
                         return null;
                     }
 
+                    /**
+                     * Returns files found by the walk which are uploaded on their own and adds them to the batch
+                     * total as they are found. Files smaller than maxPacked are put aside to be packed into
+                     * containers once the walk ends.
+                     */
+                    private Iterator<File> discovered(Iterator<File> walk, List<File> small, long maxPacked) {
+                        return new Iterator<File>() {
+                            private File next;
+
+                            @Override
+                            public boolean hasNext() {
+                                while (next == null && walk.hasNext()) {
+                                    File file = walk.next();
+                                    totalSize += file.length();
+                                    batchLength++;
+                                    if (file.length() < maxPacked) {
+                                        small.add(file);
+                                    } else {
+                                        next = file;
+                                    }
+                                }
+                                return next != null;
+                            }
+
+                            @Override
+                            public File next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                File file = next;
+                                next = null;
+                                return file;
+                            }
+                        };
+                    }
+
+                    /**
+                     * Logs one finished upload. Called by the scheduler in completion order, one file at a time.
+                     */
+                    private void uploadFinished(String vaultName, String locationUpped, File file,
+                                                UploadedArchive result, Exception error) {
+                        String thisFile = file.getPath();
+
+                        finishedFiles++;
+                        uploadedSize += file.length();
+                        int percentage = totalSize == 0 ? 100 : (int) (((double) uploadedSize / totalSize) * 100);
+                        uw.updateAllFilesProgress(percentage);
+                        uw.setTitle("(" + finishedFiles + "/" + batchLength + ")" + " Uploaded: " + thisFile);
+
+                        if (error != null) {
+                            uploadFailed(thisFile, error);
+                            return;
+                        }
+
+                        final LogWriter logWriter;
+                        final String archiveLength = Long.toString(result.getLength());
+
+                        // write to file
+                        uw.addToFinishedFiles(thisFile + "\n");
+
+                        final String deduplicated = result.getDetails().get(DedupIndex.DEDUPLICATED);
+                        if (DedupIndex.Mode.SKIP.name().equals(deduplicated)) {
+                            uploadList.add("Skipped " + thisFile
+                                    + ", its content is in vault " + vaultName
+                                    + " at " + locationUpped
+                                    + " already. ArchiveID: " + result.getArchiveId() + "\n");
+                            return;
+                        }
+                        final String done = deduplicated == null ? "Successfully uploaded " + thisFile + " to"
+                                : "Found content of " + thisFile + " in";
+
+                        if (logCheckMenuItem.isSelected()) {
+                            try {
+                                logWriter = new LogWriter(appProperties);
+
+                                try {
+                                    String thisResult = result.getArchiveId();
+
+                                    logWriter.logUploadedFile(vaultName, locationUpped, thisFile,
+                                            archiveLength, result.getTreeHash(), thisResult, result.getDetails());
+
+                                    uploadList.add(done
+                                            + " vault " + vaultName
+                                            + " at " + locationUpped
+                                            + ". Bytes: " + archiveLength
+                                            + ". ArchiveID Logged.\n");
+                                } catch (IOException c) {
+                                    showMessageDialog(null,
+                                            LOG_WRITE_ERROR,
+                                            "IO Error", ERROR_MESSAGE);
+                                    uw.dispose();
+                                    exit(1);
+                                }
+
+                            } catch (IOException ex) {
+                                showMessageDialog(null,
+                                        LOG_CREATION_ERROR,
+                                        "IO Error", ERROR_MESSAGE);
+                                uw.dispose();
+                                exit(1);
+                            }
+                        } else {
+                            uploadList.add(done
+                                    + " vault " + vaultName
+                                    + " at " + locationUpped
+                                    + ". Bytes: " + archiveLength
+                                    + ". ArchiveID: " + result.getArchiveId() + "\n");
+                        }
+                    }
+
+                    /**
+                     * Opens the deduplication index unless deduplication is off. The index is built from the log,
+                     * so with logging off uploaded files would never be found by later batches; deduplication is
+                     * then switched off for the batch and the upload list says so. An index which cannot be read
+                     * is reported and files are uploaded without looking them up.
+                     */
+                    private DedupIndex openDedupIndex() {
+                        if (appProperties.getDeduplication() == DedupIndex.Mode.OFF) {
+                            return null;
+                        }
+                        if (!logCheckMenuItem.isSelected()) {
+                            uploadList.add("Deduplication is off while logging is off, the index is built from the"
+                                    + " log.\n");
+                            return null;
+                        }
+                        try {
+                            return new DedupIndex(appProperties);
+                        } catch (IOException e) {
+                            showMessageDialog(null, "Cannot read deduplication index, files are uploaded without "
+                                    + "deduplication: " + e, "IO Error", ERROR_MESSAGE);
+                            return null;
+                        }
+                    }
+
+                    /**
+                     * Uploads one file. A file whose content is in the vault already is not uploaded when
+                     * deduplication is on. Otherwise it is gzip compressed if compression is on and the file looks
+                     * compressible, then encrypted if encryption is on.
+                     */
+                    private UploadedArchive uploadFile(MultipartUploader uploader, DedupIndex dedupIndex,
+                                                       String vaultName, String locationUpped, File file)
+                            throws IOException {
+                        String contentHash = null;
+                        if (dedupIndex != null) {
+                            contentHash = getHashCache().treeHash(file);
+                            // the existing archive may be compressed or encrypted, its details are logged with
+                            // the alias, so the file is restored from it the same way
+                            UploadedArchive existing = dedupIndex.lookup(vaultName, locationUpped, contentHash,
+                                    file.length());
+                            if (existing != null) {
+                                return existing.withDetail(DedupIndex.DEDUPLICATED,
+                                        appProperties.getDeduplication().name());
+                            }
+                        }
+                        String description = pathToDescription(file.getPath());
+                        boolean compress = appProperties.isCompressUploads() && file.length() > 0
+                                && GzipStage.isCompressible(file);
+                        boolean encrypt = appProperties.isEncryptUploads();
+                        if (!compress && !encrypt) {
+                            UploadedArchive result = uploader.upload(vaultName, description, file,
+                                    new OneFileProgressListener(uw, file.length()),
+                                    plan -> uw.updatePartPlan(file.getName() + ": " + plan));
+                            if (dedupIndex != null) {
+                                dedupIndex.add(vaultName, locationUpped, contentHash, file.length(), result);
+                            }
+                            return result;
+                        }
+
+                        UploadedArchive result = uploadTransformed(uploader, vaultName, description, file.getName(),
+                                getDiskReadLimiter().forFile(file.toPath()).wrap(new FileInputStream(file)),
+                                file.length(), compress, encrypt);
+                        result = result.withDetail(DedupIndex.ORIGINAL_BYTES, Long.toString(file.length()));
+                        if (dedupIndex != null) {
+                            result = result.withDetail(DedupIndex.CONTENT_HASH, contentHash);
+                            dedupIndex.add(vaultName, locationUpped, contentHash, file.length(), result);
+                        }
+                        return result;
+                    }
+
+                    /**
+                     * Uploads the stream gzip compressed and/or encrypted, with the suffixes of the applied
+                     * transformations added to the description and their details to the result. The stream is
+                     * closed.
+                     */
+                    private UploadedArchive uploadTransformed(MultipartUploader uploader, String vaultName,
+                                                              String description, String label, InputStream in,
+                                                              long length, boolean compress, boolean encrypt)
+                            throws IOException {
+                        int threads = Runtime.getRuntime().availableProcessors();
+                        EncryptionKey key = encrypt ? getEncryptionKey() : null;
+                        long maxLength = length;
+                        try {
+                            if (compress) {
+                                in = new ParallelBlockPipeline(in, GzipStage.BLOCK_SIZE, threads,
+                                        new GzipStage(appProperties.getCompressionLevel()));
+                                maxLength = GzipStage.maxCompressedLength(maxLength);
+                                description += ".gz";
+                            }
+                            if (encrypt) {
+                                in = new ParallelBlockPipeline(in, AesGcmStage.CHUNK_SIZE, threads,
+                                        new AesGcmStage(key));
+                                maxLength = AesGcmStage.encryptedLength(maxLength);
+                                description += ".enc";
+                            }
+                            uw.updatePartPlan(label + ": " + (compress ? "gzip " : "")
+                                    + (encrypt ? "AES-GCM" : ""));
+                            UploadedArchive result = uploader.uploadUpTo(vaultName, description, in, maxLength,
+                                    new OneFileProgressListener(uw, maxLength));
+                            if (compress) {
+                                result = result.withDetail("Compression", "gzip");
+                            }
+                            if (encrypt) {
+                                result = result.withDetail("Encryption", "AES-256-GCM")
+                                        .withDetail("EncryptionFormat", Integer.toString(AesGcmStage.FORMAT_VERSION))
+                                        .withDetail("KeyId", key.getId());
+                            }
+                            return result;
+                        } finally {
+                            in.close();
+                        }
+                    }
+
+                    /**
+                     * Uploads files packed into one tar container and records its members in the pack catalog.
+                     */
+                    private void uploadContainer(MultipartUploader uploader, String vaultName,
+                                                 String locationUpped, String description, List<File> files) {
+                        final List<String> names = new ArrayList<>();
+                        for (File file : files) {
+                            names.add(ContainerPacker.memberName(file));
+                        }
+                        UploadedArchive result = null;
+                        Exception error = null;
+                        final TarStream tar = new TarStream(files, names, getDiskReadLimiter());
+                        try (TarStream stream = tar) {
+                            uw.updatePartPlan(description + ": " + files.size() + " files");
+                            result = uploader.upload(vaultName, description, stream, stream.getLength(),
+                                    new OneFileProgressListener(uw, stream.getLength()));
+                        } catch (IOException | RuntimeException ex) {
+                            error = ex;
+                        }
+                        containerFinished(vaultName, locationUpped, description, tar, result, error);
+                    }
+
+                    /**
+                     * Uploads all files found in the directory as one tar archive, compressed and encrypted as
+                     * configured, and records its members in the pack catalog. Parts are uploaded while later
+                     * files are still being read.
+                     */
+                    private void uploadDirectory(MultipartUploader uploader, String vaultName, String locationUpped,
+                                                 File directory) {
+                        final List<File> files = new ArrayList<>();
+                        try (FileTreeWalker.Walk walk = new FileTreeWalker(appProperties.getWalkInclude(),
+                                appProperties.getWalkExclude(), appProperties.getWalkSymlinks())
+                                .walk(Collections.singletonList(directory))) {
+                            while (walk.hasNext()) {
+                                File file = walk.next();
+                                files.add(file);
+                                totalSize += file.length();
+                                batchLength++;
+                            }
+                            for (String walkError : walk.getErrors()) {
+                                uploadList.add("Skipped: " + walkError + "\n");
+                            }
+                        }
+                        // same order in every run, so archives of an unchanged directory are identical
+                        Collections.sort(files);
+                        final List<String> names = new ArrayList<>();
+                        for (File file : files) {
+                            names.add(ContainerPacker.memberName(directory, file));
+                        }
+
+                        String description = pathToDescription(directory.getPath()) + ".tar";
+                        boolean compress = appProperties.isCompressUploads();
+                        boolean encrypt = appProperties.isEncryptUploads();
+                        UploadedArchive result = null;
+                        Exception error = null;
+                        final TarStream tar = new TarStream(files, names, getDiskReadLimiter());
+                        try {
+                            if (!compress && !encrypt) {
+                                try (TarStream stream = tar) {
+                                    uw.updatePartPlan(description + ": " + files.size() + " files");
+                                    result = uploader.upload(vaultName, description, stream, stream.getLength(),
+                                            new OneFileProgressListener(uw, stream.getLength()));
+                                }
+                            } else {
+                                result = uploadTransformed(uploader, vaultName, description,
+                                        description + ": " + files.size() + " files", tar, tar.getLength(),
+                                        compress, encrypt);
+                                description += (compress ? ".gz" : "") + (encrypt ? ".enc" : "");
+                                result = result.withDetail(DedupIndex.ORIGINAL_BYTES,
+                                        Long.toString(tar.getLength()));
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            error = ex;
+                        }
+                        containerFinished(vaultName, locationUpped, description, tar, result, error);
+                    }
+
+                    private void containerFinished(String vaultName, String locationUpped, String description,
+                                                   TarStream tar, UploadedArchive result, Exception error) {
+                        final List<TarStream.Member> members = tar.getMembers();
+                        finishedFiles += members.size();
+                        for (TarStream.Member member : members) {
+                            uploadedSize += member.getLength();
+                        }
+                        int percentage = totalSize == 0 ? 100 : (int) (((double) uploadedSize / totalSize) * 100);
+                        uw.updateAllFilesProgress(percentage);
+                        uw.setTitle("(" + finishedFiles + "/" + batchLength + ")" + " Uploaded: " + description);
+
+                        if (error != null) {
+                            uploadFailed(description + " (" + members.size() + " packed files)", error);
+                            return;
+                        }
+
+                        for (TarStream.Member member : members) {
+                            uw.addToFinishedFiles(member.getFile().getPath() + "\n");
+                        }
+                        try {
+                            new PackCatalog(appProperties.getDir()).logContainer(vaultName, locationUpped,
+                                    description, result, members);
+                            if (logCheckMenuItem.isSelected()) {
+                                new LogWriter(appProperties).logUploadedFile(vaultName, locationUpped, description,
+                                        Long.toString(result.getLength()), result.getTreeHash(),
+                                        result.getArchiveId(), result.withDetail("Members",
+                                                Integer.toString(members.size())).getDetails());
+                            }
+                        } catch (IOException c) {
+                            showMessageDialog(null, LOG_WRITE_ERROR, "IO Error", ERROR_MESSAGE);
+                        }
+                        uploadList.add("Successfully uploaded " + members.size() + " files packed in "
+                                + description
+                                + " to vault " + vaultName
+                                + " at " + locationUpped
+                                + ". Bytes: " + result.getLength()
+                                + ". ArchiveID: " + result.getArchiveId()
+                                + ". Members listed in " + PackCatalog.CATALOG_FILE_NAME + ".\n");
+                    }
+
+                    private void uploadFailed(String thisFile, Exception h) {
+                        if (logCheckMenuItem.isSelected()) {
+                            writeToErrorLog(h, thisFile);
+                        }
+                        uploadList.add("Failed to upload " + thisFile + ": " + h + "\n");
+                        showMessageDialog(null, "" + h, "Error", ERROR_MESSAGE);
+                    }
+
                     private void writeToErrorLog(Exception h, String thisFile) {
                         String thisError = h.toString();
 
@@ -955,6 +1355,14 @@ public class SAGU extends JFrame implements ActionListener {
     static SAGU sagu;
 
     public static void main(String[] args) throws Exception {
+        if (args != null && args.length > 0 && "--decrypt".equals(args[0])) {
+            StreamDecrypt.main(args);
+            return;
+        }
+        if (args != null && Arrays.asList(args).contains("--vault")) {
+            StreamUpload.main(args);
+            return;
+        }
         if (args != null && args.length == 2 && "--properties-dir".equals(args[0])) {
             sagu = new SAGU(args[1]);
         } else {
@@ -0,0 +1,100 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decrypts standard input encrypted by {@link AesGcmStage} to standard output, so a downloaded {@code .enc} archive
+ * can be restored without writing code, e.g.
+ * {@code java -jar sagu.jar --decrypt < photo.jpg.gz.enc | gunzip > photo.jpg}.
+ * <p>
+ * The key is the encryption key file of the application properties unless another file is given; the log names the
+ * key of every archive by its {@code KeyId}. Archives with {@code Compression=gzip} come out gzip compressed. Chunks
+ * are written as soon as they are verified, so a damaged archive fails with the output written up to the damage.
+ */
+public class StreamDecrypt {
+
+    private static final String USAGE = "Usage: --decrypt [--key FILE] [--properties-dir DIR] < archive.enc > archive";
+
+    private StreamDecrypt() {
+    }
+
+    /**
+     * Decrypts standard input to standard output.
+     *
+     * @param args command line options, the first one is {@code --decrypt}
+     */
+    public static void main(final String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * @return exit code, 0 on success, 1 if decryption failed and 2 if the arguments are not valid
+     */
+    static int run(final String[] args, final InputStream in, final OutputStream out, final PrintStream err) {
+        final Path keyFile;
+        try {
+            final Map<String, String> options = parseOptions(args);
+            keyFile = options.containsKey("--key")
+                    ? Paths.get(options.get("--key"))
+                    : (options.containsKey("--properties-dir")
+                    ? new AppProperties(Paths.get(options.get("--properties-dir")))
+                    : new AppProperties()).getEncryptionKeyFile();
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        if (!Files.exists(keyFile)) {
+            // a new key would never decrypt anything, so none is generated here
+            err.println("Decryption failed: no encryption key file " + keyFile);
+            return 1;
+        }
+        try {
+            final EncryptionKey key = EncryptionKey.load(keyFile);
+            final OutputStream buffered = new BufferedOutputStream(out);
+            AesGcmStage.decrypt(new BufferedInputStream(in), buffered, key);
+            buffered.flush();
+            err.println("Decrypted with key " + key.getId());
+            return 0;
+        } catch (IOException e) {
+            err.println("Decryption failed: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    static Map<String, String> parseOptions(final String[] args) {
+        if (args.length == 0 || !args[0].equals("--decrypt")) {
+            throw new IllegalArgumentException("First option has to be --decrypt");
+        }
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i += 2) {
+            final String name = args[i];
+            if (!name.equals("--key") && !name.equals("--properties-dir")) {
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + name);
+            }
+            options.put(name, args[i + 1]);
+        }
+        return options;
+    }
+}
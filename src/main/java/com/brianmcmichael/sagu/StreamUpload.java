@@ -0,0 +1,209 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+
+/**
+ * Uploads standard input to a vault as one archive, so output of another program can be archived without a staging
+ * file, e.g. {@code pg_dump db | java -jar sagu.jar --vault backups --description db.sql}.
+ * <p>
+ * The length of the stream is not known in advance. Parts are read from the stream and hashed as they arrive and the
+ * upload is completed at the end of the stream. The part size is chosen so that the largest expected stream fits
+ * into the part count limit of Glacier; the stream fails if it turns out to be longer. No stream longer than
+ * {@link PartSizePlanner#MAX_ARCHIVE_SIZE} bytes, 10000 parts of 1 GB, can be uploaded. Credentials, the default
+ * region and the number of upload threads are taken from the application properties and the archive is logged like
+ * the archives uploaded from the window.
+ */
+public class StreamUpload {
+
+    static final String DEFAULT_DESCRIPTION = "stdin";
+    /**
+     * Largest expected stream unless given, it is uploaded in parts of 128 MB.
+     */
+    static final long DEFAULT_MAX_SIZE = 1024L * 1024L * MB;
+
+    private static final String USAGE = "Usage: --vault NAME [--description TEXT] [--region ID] [--max-size SIZE]"
+            + " [--properties-dir DIR] < archive"
+            + System.getProperty("line.separator")
+            + "SIZE is in bytes or with K, M, G or T suffix, default is 1T, at most 10000G.";
+
+    private final AppProperties appProperties;
+    private final AmazonGlacierClient client;
+    private final Endpoint endpoint;
+
+    /**
+     * @param appProperties properties with upload settings and the directory of logs
+     * @param client        Glacier client for the region
+     * @param endpoint      region of the vault
+     */
+    public StreamUpload(final AppProperties appProperties, final AmazonGlacierClient client,
+                        final Endpoint endpoint) {
+        this.appProperties = appProperties;
+        this.client = client;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Uploads the stream to the end and logs the archive.
+     *
+     * @param vaultName   The name of the vault
+     * @param description The description of the archive
+     * @param in          stream of the archive content
+     * @param maxSize     largest expected length of the stream in bytes
+     * @return the created archive
+     * @throws IOException If an I/O error occurs while reading the stream or writing the logs, or the stream is longer
+     *                     than the given maximum
+     */
+    public UploadedArchive upload(final String vaultName, final String description, final InputStream in,
+                                  final long maxSize) throws IOException {
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, appProperties.getUploadThreads(),
+                appProperties.getPartSizeMB() * MB)
+                .withBufferPool(new PartBufferPool(appProperties.getBufferBudgetBytes(), TransferMetrics.getInstance()))
+                .build()) {
+            result = uploader.uploadUpTo(vaultName, description, in, maxSize, null);
+        }
+        new LogWriter(appProperties).logUploadedFile(vaultName, endpoint.name(), description,
+                Long.toString(result.getLength()), result.getTreeHash(), result.getArchiveId(),
+                result.getDetails());
+        return result;
+    }
+
+    /**
+     * Uploads standard input and prints ID of the archive.
+     *
+     * @param args command line options, {@code --vault} is required
+     */
+    public static void main(final String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * @return exit code, 0 on success, 1 if the upload failed and 2 if the arguments are not valid
+     */
+    static int run(final String[] args, final InputStream in, final PrintStream out, final PrintStream err) {
+        final Map<String, String> options;
+        final Endpoint endpoint;
+        final long maxSize;
+        final AppProperties appProperties;
+        try {
+            options = parseOptions(args);
+            appProperties = options.containsKey("--properties-dir")
+                    ? new AppProperties(Paths.get(options.get("--properties-dir")))
+                    : new AppProperties();
+            endpoint = options.containsKey("--region")
+                    ? parseEndpoint(options.get("--region"))
+                    : Endpoint.getByIndex(appProperties.getLocationIndex());
+            maxSize = options.containsKey("--max-size") ? parseSize(options.get("--max-size")) : DEFAULT_MAX_SIZE;
+            if (maxSize > PartSizePlanner.MAX_ARCHIVE_SIZE) {
+                throw new IllegalArgumentException("Streams longer than " + PartSizePlanner.MAX_ARCHIVE_SIZE
+                        + " bytes do not fit into " + PartSizePlanner.MAX_PARTS + " parts");
+            }
+            if (!options.containsKey("--vault")) {
+                throw new IllegalArgumentException("Vault is required");
+            }
+            if (appProperties.getAccessKey() == null || appProperties.getSecretKey() == null) {
+                throw new IllegalArgumentException("No AWS credentials in " + appProperties.getDir()
+                        + ", save them in the application window first");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        final AmazonGlacierClient client = new GlacierClientRegistry(appProperties)
+                .getClient(appProperties.getAccessKey().trim(), appProperties.getSecretKey().trim(), endpoint);
+        final String description = options.containsKey("--description")
+                ? options.get("--description")
+                : DEFAULT_DESCRIPTION;
+        try {
+            final UploadedArchive result = new StreamUpload(appProperties, client, endpoint)
+                    .upload(options.get("--vault"), description, in, maxSize);
+            out.println(result.getArchiveId());
+            err.println("Uploaded " + result.getLength() + " bytes to vault " + options.get("--vault") + " at "
+                    + endpoint.name() + ". Hash: " + result.getTreeHash());
+            return 0;
+        } catch (IOException | AmazonClientException | IllegalArgumentException e) {
+            err.println("Upload failed: " + e.getMessage());
+            return 1;
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    static Map<String, String> parseOptions(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            final String name = args[i];
+            if (!name.equals("--vault") && !name.equals("--description") && !name.equals("--region")
+                    && !name.equals("--max-size") && !name.equals("--properties-dir")) {
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + name);
+            }
+            options.put(name, args[i + 1]);
+        }
+        return options;
+    }
+
+    static Endpoint parseEndpoint(final String id) {
+        for (Endpoint endpoint : Endpoint.values()) {
+            if (endpoint.getId().equals(id)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("Unknown region " + id);
+    }
+
+    /**
+     * Parses size like {@code 1048576}, {@code 500G} or {@code 2T}. Suffixes are binary multiples.
+     */
+    static long parseSize(final String size) {
+        final String trimmed = size.trim().toUpperCase();
+        final int shift;
+        switch (trimmed.isEmpty() ? ' ' : trimmed.charAt(trimmed.length() - 1)) {
+            case 'K':
+                shift = 10;
+                break;
+            case 'M':
+                shift = 20;
+                break;
+            case 'G':
+                shift = 30;
+                break;
+            case 'T':
+                shift = 40;
+                break;
+            default:
+                shift = 0;
+        }
+        try {
+            final long value = Long.parseLong(shift == 0 ? trimmed : trimmed.substring(0, trimmed.length() - 1));
+            if (value <= 0 || value > Long.MAX_VALUE >> shift) {
+                throw new IllegalArgumentException("Size out of range: " + size);
+            }
+            return value << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+    }
+}
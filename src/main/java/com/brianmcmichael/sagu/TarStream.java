@@ -0,0 +1,354 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.enumeration;
+
+/**
+ * Streams files as a POSIX tar (ustar) archive without writing the archive anywhere.
+ * <p>
+ * Member names which do not fit into the ustar header or are not ASCII, and members larger than 8 GB, get a pax
+ * extended header, so any tar implementation restores them. The length of the whole archive and the offset of every
+ * member are known before the first byte is read, the SHA-256 of every member is computed as its content passes
+ * through the stream. Files are opened one at a time when the stream reaches them. A file which gets shorter than
+ * announced fails the stream, a file which grows is cut at its announced length.
+ */
+public class TarStream extends InputStream {
+
+    static final int BLOCK_SIZE = 512;
+    /**
+     * Two zero blocks which end the archive.
+     */
+    static final int END_LENGTH = 2 * BLOCK_SIZE;
+
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+
+    private final List<Member> members;
+    private final long length;
+    private final InputStream content;
+
+    /**
+     * Prepares the archive of the files.
+     *
+     * @param files files to be archived, in archive order
+     * @param names names of the members, one for every file
+     */
+    public TarStream(final List<File> files, final List<String> names) {
+        this(files, names, DiskReadLimiter.unlimited());
+    }
+
+    /**
+     * Prepares the archive of the files whose reads are limited per mount.
+     *
+     * @param files     files to be archived, in archive order
+     * @param names     names of the members, one for every file
+     * @param diskReads limits of reads from the mounts the files are read from
+     */
+    public TarStream(final List<File> files, final List<String> names, final DiskReadLimiter diskReads) {
+        if (files.size() != names.size()) {
+            throw new IllegalArgumentException("Every file needs a member name");
+        }
+        final List<Member> prepared = new ArrayList<>(files.size());
+        final List<InputStream> parts = new ArrayList<>(files.size() * 3 + 1);
+        long offset = 0;
+        for (int i = 0; i < files.size(); i++) {
+            final File file = files.get(i);
+            final byte[] header = header(names.get(i), file.length(), file.lastModified());
+            final Member member = new Member(file, names.get(i), offset, offset + header.length, file.length());
+            prepared.add(member);
+            parts.add(new ByteArrayInputStream(header));
+            parts.add(new MemberContent(member, diskReads));
+            parts.add(new ByteArrayInputStream(new byte[padding(member.length)]));
+            offset = member.dataOffset + member.length + padding(member.length);
+        }
+        parts.add(new ByteArrayInputStream(new byte[END_LENGTH]));
+        members = Collections.unmodifiableList(prepared);
+        length = offset + END_LENGTH;
+        content = new SequenceInputStream(enumeration(parts));
+    }
+
+    /**
+     * @return length of the whole archive in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return members of the archive; their hashes are known once the stream passed their content
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return content.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        return content.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        content.close();
+    }
+
+    /**
+     * Member of the archive.
+     */
+    public static final class Member {
+        private final File file;
+        private final String name;
+        private final long headerOffset;
+        private final long dataOffset;
+        private final long length;
+        private volatile String sha256;
+
+        private Member(final File file, final String name, final long headerOffset, final long dataOffset,
+                       final long length) {
+            this.file = file;
+            this.name = name;
+            this.headerOffset = headerOffset;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return offset of the first header block of the member in the archive
+         */
+        public long getHeaderOffset() {
+            return headerOffset;
+        }
+
+        /**
+         * @return offset of the member content in the archive
+         */
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return hex encoded SHA-256 of the member content, null until the content was streamed
+         */
+        public String getSha256() {
+            return sha256;
+        }
+    }
+
+    /**
+     * Computes how many bytes a member takes in the archive, including its headers and padding.
+     *
+     * @param name   name of the member
+     * @param length length of the member content
+     * @return length of the member in the archive in bytes
+     */
+    static long memberLength(final String name, final long length) {
+        return header(name, length, 0).length + length + padding(length);
+    }
+
+    private static int padding(final long length) {
+        return (int) ((BLOCK_SIZE - length % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    private static byte[] header(final String name, final long size, final long lastModified) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final String[] split = splitName(name);
+        final StringBuilder pax = new StringBuilder();
+        if (split == null) {
+            pax.append(paxRecord("path", name));
+        }
+        if (size > MAX_USTAR_SIZE) {
+            pax.append(paxRecord("size", Long.toString(size)));
+        }
+        if (pax.length() > 0) {
+            final byte[] records = pax.toString().getBytes(UTF_8);
+            final String paxName = "PaxHeaders/" + asciiName(name);
+            writeBlock(out, ustarBlock(paxName.substring(0, Math.min(paxName.length(), NAME_LENGTH)), "",
+                    records.length, lastModified, 'x'));
+            out.write(records, 0, records.length);
+            out.write(new byte[padding(records.length)], 0, padding(records.length));
+        }
+        final String[] ustarName = split == null ? new String[]{"", asciiName(name)} : split;
+        final String shortName = ustarName[1].substring(0, Math.min(ustarName[1].length(), NAME_LENGTH));
+        writeBlock(out, ustarBlock(shortName, ustarName[0], Math.min(size, MAX_USTAR_SIZE), lastModified, '0'));
+        return out.toByteArray();
+    }
+
+    /**
+     * @return prefix and name fields, or null if the name does not fit into them
+     */
+    private static String[] splitName(final String name) {
+        if (!name.equals(asciiName(name))) {
+            return null;
+        }
+        if (name.length() <= NAME_LENGTH) {
+            return new String[]{"", name};
+        }
+        for (int slash = name.indexOf('/'); slash >= 0; slash = name.indexOf('/', slash + 1)) {
+            if (slash <= PREFIX_LENGTH && name.length() - slash - 1 <= NAME_LENGTH) {
+                return new String[]{name.substring(0, slash), name.substring(slash + 1)};
+            }
+        }
+        return null;
+    }
+
+    private static String asciiName(final String name) {
+        return name.replaceAll("[^\\x20-\\x7e]", "_");
+    }
+
+    /**
+     * Builds pax record "length key=value\n" where the length counts the whole record including its own digits.
+     */
+    private static String paxRecord(final String key, final String value) {
+        final int base = (" " + key + "=" + value + "\n").getBytes(UTF_8).length;
+        int length = base + Integer.toString(base).length();
+        if (Integer.toString(length).length() != Integer.toString(base).length()) {
+            length = base + Integer.toString(length).length();
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static byte[] ustarBlock(final String name, final String prefix, final long size,
+                                     final long lastModified, final char type) {
+        final byte[] block = new byte[BLOCK_SIZE];
+        put(block, 0, NAME_LENGTH, name);
+        put(block, 100, 8, "0000644");
+        put(block, 108, 8, "0000000");
+        put(block, 116, 8, "0000000");
+        put(block, 124, 12, octal(size, 11));
+        put(block, 136, 12, octal(Math.max(0, lastModified / 1000), 11));
+        put(block, 148, 8, "        ");
+        block[156] = (byte) type;
+        put(block, 257, 6, "ustar");
+        put(block, 263, 2, "00");
+        put(block, 345, PREFIX_LENGTH, prefix);
+        int checksum = 0;
+        for (byte b : block) {
+            checksum += b & 0xff;
+        }
+        put(block, 148, 7, octal(checksum, 6));
+        block[154] = 0;
+        block[155] = ' ';
+        return block;
+    }
+
+    private static String octal(final long value, final int digits) {
+        final String octal = Long.toOctalString(value);
+        final StringBuilder padded = new StringBuilder();
+        for (int i = octal.length(); i < digits; i++) {
+            padded.append('0');
+        }
+        return padded.append(octal).toString();
+    }
+
+    private static void put(final byte[] block, final int offset, final int length, final String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        System.arraycopy(bytes, 0, block, offset, Math.min(bytes.length, length));
+    }
+
+    private static void writeBlock(final ByteArrayOutputStream out, final byte[] block) {
+        out.write(block, 0, block.length);
+    }
+
+    /**
+     * Content of one member, the file is opened on the first read.
+     */
+    private static final class MemberContent extends InputStream {
+        private final Member member;
+        private final DiskReadLimiter diskReads;
+        private final MessageDigest digest = newSha256();
+        private InputStream in;
+        private long remaining;
+
+        private MemberContent(final Member member, final DiskReadLimiter diskReads) {
+            this.member = member;
+            this.diskReads = diskReads;
+            this.remaining = member.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining == 0) {
+                finish();
+                return -1;
+            }
+            if (in == null) {
+                in = diskReads.forFile(member.file.toPath()).wrap(new FileInputStream(member.file));
+            }
+            final int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new IOException("File " + member.file + " got shorter while it was being archived");
+            }
+            digest.update(b, off, read);
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+
+        private void finish() throws IOException {
+            if (member.sha256 == null) {
+                member.sha256 = toHex(digest.digest());
+            }
+            close();
+        }
+
+        private static MessageDigest newSha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import com.amazonaws.services.glacier.model.DeleteArchiveRequest;
+import com.amazonaws.services.glacier.model.GetJobOutputRequest;
+import com.amazonaws.services.glacier.model.GetJobOutputResult;
+import com.amazonaws.services.glacier.model.UploadArchiveRequest;
+import com.amazonaws.services.glacier.model.UploadArchiveResult;
+import com.amazonaws.services.glacier.model.UploadMultipartPartRequest;
+import com.amazonaws.services.glacier.model.UploadMultipartPartResult;
+
+/**
+ * Glacier client whose transfers share one {@link BandwidthLimiter}.
+ * <p>
+ * Bodies of uploaded archives and parts are throttled while the SDK sends them, but not while it hashes them to sign
+ * the request. Bodies of job outputs (downloaded archives and inventories, also those fetched by
+ * {@code ArchiveTransferManager}) are throttled while the caller reads them. Other requests are small and pass
+ * unthrottled.
+ * <p>
+ * Archive uploads and deletes wait for a slot of the {@link AdaptiveConcurrency} of the account. Parts take their
+ * slot in {@link MultipartUploader} before they are sent, so a part waiting for a slot is not taken for a stalled one.
+ * Waiting for a slot may take as long as a part upload, so these calls must not be made on the event dispatch thread.
+ */
+class ThrottledGlacierClient extends AmazonGlacierClient {
+
+    private final BandwidthLimiter limiter;
+    private final AdaptiveConcurrency concurrency;
+
+    ThrottledGlacierClient(final AWSCredentials credentials, final ClientConfiguration configuration,
+                           final BandwidthLimiter limiter, final AdaptiveConcurrency concurrency) {
+        super(credentials, configuration);
+        this.limiter = limiter;
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public UploadMultipartPartResult uploadMultipartPart(final UploadMultipartPartRequest request) {
+        request.setBody(ThrottledInputStream.requestBody(request.getBody(), limiter));
+        return super.uploadMultipartPart(request);
+    }
+
+    @Override
+    public UploadArchiveResult uploadArchive(final UploadArchiveRequest request) {
+        request.setBody(ThrottledInputStream.requestBody(request.getBody(), limiter));
+        final AdaptiveConcurrency.Permit permit = concurrency.acquire();
+        try {
+            final UploadArchiveResult result = super.uploadArchive(request);
+            // only empty archives are uploaded in one request, see MultipartUploader
+            permit.completed(0);
+            return result;
+        } catch (RuntimeException e) {
+            permit.failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteArchive(final DeleteArchiveRequest request) {
+        final AdaptiveConcurrency.Permit permit = concurrency.acquire();
+        try {
+            super.deleteArchive(request);
+            permit.completed(0);
+        } catch (RuntimeException e) {
+            permit.failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public GetJobOutputResult getJobOutput(final GetJobOutputRequest request) {
+        final GetJobOutputResult result = super.getJobOutput(request);
+        result.setBody(new ThrottledInputStream(result.getBody(), limiter));
+        return result;
+    }
+
+    AdaptiveConcurrency getConcurrency() {
+        return concurrency;
+    }
+}
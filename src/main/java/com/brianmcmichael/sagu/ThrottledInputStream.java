@@ -0,0 +1,89 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream which takes tokens of a {@link BandwidthLimiter} for every byte read. Mark and reset are passed to the
+ * wrapped stream, so the SDK can still retry a request with this stream as its body; the retried bytes are limited
+ * again, as they are sent again.
+ * <p>
+ * The SDK reads the body of a request twice in every attempt: the signer hashes it and resets the stream, then it is
+ * sent, and before a retry the stream is reset again. A {@link #requestBody(InputStream, BandwidthLimiter) request
+ * body} therefore alternates between passes which are hashed and passes which are sent at every reset, and only the
+ * sent passes take tokens. Otherwise every byte would be charged twice and hashing would wait for the network.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    /**
+     * Largest read let through at once, so the limiter sees a smooth flow of small chunks.
+     */
+    static final int MAX_CHUNK = 64 * 1024;
+
+    private final BandwidthLimiter limiter;
+    private final boolean requestBody;
+    private boolean signing;
+
+    /**
+     * @param in      stream read once, e.g. a downloaded body
+     * @param limiter limiter every byte read is charged to
+     */
+    ThrottledInputStream(final InputStream in, final BandwidthLimiter limiter) {
+        this(in, limiter, false);
+    }
+
+    private ThrottledInputStream(final InputStream in, final BandwidthLimiter limiter, final boolean requestBody) {
+        super(in);
+        this.limiter = limiter;
+        this.requestBody = requestBody;
+        this.signing = requestBody;
+    }
+
+    /**
+     * @param body    body of a request to be signed and sent by the SDK
+     * @param limiter limiter the sent bytes are charged to
+     * @return stream which charges only the passes the SDK sends
+     */
+    static ThrottledInputStream requestBody(final InputStream body, final BandwidthLimiter limiter) {
+        return new ThrottledInputStream(body, limiter, true);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int read = super.read();
+        if (read >= 0 && !signing) {
+            limiter.acquire(1);
+        }
+        return read;
+    }
+
+    /**
+     * Reads at most {@link #MAX_CHUNK} bytes and charges the bytes actually read, so a short read near the end of the
+     * stream or of a socket buffer takes no tokens for bytes it did not return.
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int read = super.read(b, off, Math.min(len, MAX_CHUNK));
+        if (read > 0 && !signing) {
+            limiter.acquire(read);
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        super.reset();
+        if (requestBody) {
+            signing = !signing;
+        }
+    }
+}
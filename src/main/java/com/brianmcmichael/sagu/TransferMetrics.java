@@ -0,0 +1,171 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of all transfers of the application. The instance returned by {@link #getInstance()} is registered in the
+ * platform MBean server as {@value #OBJECT_NAME}, so it can be watched with JConsole or any other JMX client while
+ * uploads run.
+ */
+public class TransferMetrics implements TransferMetricsMBean {
+
+    static final String OBJECT_NAME = "com.brianmcmichael.sagu:type=TransferMetrics";
+
+    private static TransferMetrics instance;
+
+    private final AtomicLong partsUploaded = new AtomicLong();
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    private final AtomicLong partFailures = new AtomicLong();
+    private final AtomicLong hedgedParts = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong medianPartBytesPerSecond = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private final AtomicLong concurrencyIncreases = new AtomicLong();
+    private final AtomicLong concurrencyDecreases = new AtomicLong();
+    private final AtomicLong concurrencyLimit = new AtomicLong();
+    private final AtomicLong bufferBytesInUse = new AtomicLong();
+    private final AtomicLong bufferBytesAllocated = new AtomicLong();
+    private final AtomicLong bufferWaits = new AtomicLong();
+
+    /**
+     * @return metrics shared by all uploads, registered over JMX on first use
+     */
+    public static synchronized TransferMetrics getInstance() {
+        if (instance == null) {
+            instance = new TransferMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+            } catch (JMException | RuntimeException e) {
+                System.err.println("Transfer metrics are not available over JMX: " + e);
+            }
+        }
+        return instance;
+    }
+
+    void partUploaded(final long bytes) {
+        partsUploaded.incrementAndGet();
+        bytesUploaded.addAndGet(bytes);
+    }
+
+    void partFailed() {
+        partFailures.incrementAndGet();
+    }
+
+    void partHedged() {
+        hedgedParts.incrementAndGet();
+    }
+
+    void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    void medianPartBytesPerSecond(final long bytesPerSecond) {
+        medianPartBytesPerSecond.set(bytesPerSecond);
+    }
+
+    void requestThrottled() {
+        throttledRequests.incrementAndGet();
+    }
+
+    void concurrencyIncreased(final int limit) {
+        concurrencyIncreases.incrementAndGet();
+        concurrencyLimit.set(limit);
+    }
+
+    void concurrencyDecreased(final int limit) {
+        concurrencyDecreases.incrementAndGet();
+        concurrencyLimit.set(limit);
+    }
+
+    void concurrencyLimit(final int limit) {
+        concurrencyLimit.set(limit);
+    }
+
+    void bufferInUse(final long deltaBytes) {
+        bufferBytesInUse.addAndGet(deltaBytes);
+    }
+
+    void bufferAllocated(final long deltaBytes) {
+        bufferBytesAllocated.addAndGet(deltaBytes);
+    }
+
+    void bufferWaited() {
+        bufferWaits.incrementAndGet();
+    }
+
+    @Override
+    public long getPartsUploaded() {
+        return partsUploaded.get();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    @Override
+    public long getPartFailures() {
+        return partFailures.get();
+    }
+
+    @Override
+    public long getHedgedParts() {
+        return hedgedParts.get();
+    }
+
+    @Override
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    @Override
+    public long getMedianPartBytesPerSecond() {
+        return medianPartBytesPerSecond.get();
+    }
+
+    @Override
+    public long getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    @Override
+    public long getConcurrencyIncreases() {
+        return concurrencyIncreases.get();
+    }
+
+    @Override
+    public long getConcurrencyDecreases() {
+        return concurrencyDecreases.get();
+    }
+
+    @Override
+    public long getConcurrencyLimit() {
+        return concurrencyLimit.get();
+    }
+
+    @Override
+    public long getBufferBytesInUse() {
+        return bufferBytesInUse.get();
+    }
+
+    @Override
+    public long getBufferBytesAllocated() {
+        return bufferBytesAllocated.get();
+    }
+
+    @Override
+    public long getBufferWaits() {
+        return bufferWaits.get();
+    }
+}
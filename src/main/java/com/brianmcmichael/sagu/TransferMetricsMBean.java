@@ -0,0 +1,80 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+/**
+ * Counters of transfers exported over JMX, see {@link TransferMetrics}.
+ */
+public interface TransferMetricsMBean {
+
+    /**
+     * @return number of parts accepted by Glacier
+     */
+    long getPartsUploaded();
+
+    /**
+     * @return bytes of parts accepted by Glacier, without duplicates sent by hedged requests
+     */
+    long getBytesUploaded();
+
+    /**
+     * @return number of part requests which failed, including hedged requests
+     */
+    long getPartFailures();
+
+    /**
+     * @return number of parts which stalled and were sent again on another connection
+     */
+    long getHedgedParts();
+
+    /**
+     * @return number of hedged parts whose second request finished first
+     */
+    long getHedgesWon();
+
+    /**
+     * @return median throughput of recently uploaded parts in bytes per second, 0 if not known yet
+     */
+    long getMedianPartBytesPerSecond();
+
+    /**
+     * @return number of request attempts Glacier throttled or timed out, including those retried by the SDK
+     */
+    long getThrottledRequests();
+
+    /**
+     * @return number of times the adaptive limit of requests in flight grew
+     */
+    long getConcurrencyIncreases();
+
+    /**
+     * @return number of times the adaptive limit of requests in flight was cut after throttling
+     */
+    long getConcurrencyDecreases();
+
+    /**
+     * @return limit of requests in flight which changed last, there is one limit per account and region
+     */
+    long getConcurrencyLimit();
+
+    /**
+     * @return bytes of part buffers holding parts being read, hashed or sent
+     */
+    long getBufferBytesInUse();
+
+    /**
+     * @return bytes of all part buffers, in use or free for later parts
+     */
+    long getBufferBytesAllocated();
+
+    /**
+     * @return number of times a part had to wait for room in the buffer budget
+     */
+    long getBufferWaits();
+}
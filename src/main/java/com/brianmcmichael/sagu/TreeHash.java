@@ -0,0 +1,138 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Glacier tree hash helpers.
+ * <p>
+ * The tree hash is computed from SHA-256 hashes of 1 MB chunks of the data. Neighbouring hashes are concatenated and
+ * hashed again, level by level, until only one hash is left. A hash without a neighbour moves up to the next level
+ * unchanged.
+ */
+final class TreeHash {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    // digests are reused by the thread which created them, creating one per chunk would be wasteful
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(TreeHash::newSha256);
+
+    private TreeHash() {
+    }
+
+    /**
+     * Computes the tree hash of the remaining bytes of the buffer in one pass over the data.
+     * The position of the buffer is not changed.
+     *
+     * @param data data to be hashed
+     * @return binary tree hash
+     */
+    static byte[] of(final ByteBuffer data) {
+        return reduce(chunkHashes(data));
+    }
+
+    /**
+     * Computes SHA-256 hashes of 1 MB chunks of the remaining bytes of the buffer.
+     * The position of the buffer is not changed.
+     *
+     * @param data data to be hashed
+     * @return hashes of the chunks; one hash of empty input for an empty buffer
+     */
+    static List<byte[]> chunkHashes(final ByteBuffer data) {
+        final MessageDigest digest = sha256();
+        final ByteBuffer chunk = data.duplicate();
+        final List<byte[]> hashes = new ArrayList<>(chunk.remaining() / CHUNK_SIZE + 1);
+        do {
+            final ByteBuffer slice = chunk.duplicate();
+            slice.limit(slice.position() + Math.min(CHUNK_SIZE, slice.remaining()));
+            digest.update(slice);
+            hashes.add(digest.digest());
+            chunk.position(slice.limit());
+        } while (chunk.hasRemaining());
+        return hashes;
+    }
+
+    /**
+     * Reduces hashes of consecutive chunks to one tree hash. Hashes of consecutive parts can be reduced the same way
+     * if every part except the last one has size of 1 MB multiplied by a power of two.
+     *
+     * @param hashes binary hashes in order of the data
+     * @return binary tree hash
+     */
+    static byte[] reduce(final List<byte[]> hashes) {
+        if (hashes.isEmpty()) {
+            throw new IllegalArgumentException("At least one hash is required");
+        }
+        final MessageDigest digest = sha256();
+        List<byte[]> level = hashes;
+        while (level.size() > 1) {
+            final List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 < level.size()) {
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    parents.add(digest.digest());
+                } else {
+                    parents.add(level.get(i));
+                }
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    /**
+     * @param hash binary hash
+     * @return lower case hex representation as used by Glacier
+     */
+    static String toHex(final byte[] hash) {
+        final StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @param hex hex representation of a hash as used by Glacier
+     * @return binary hash
+     */
+    static byte[] fromHex(final String hex) {
+        final byte[] hash = new byte[hex.length() / 2];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns SHA-256 digest of the current thread. Its state is reset, but it must not be shared with other threads
+     * or kept for later.
+     *
+     * @return SHA-256 digest
+     */
+    static MessageDigest sha256() {
+        final MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return digest;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
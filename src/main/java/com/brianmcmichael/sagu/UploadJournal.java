@@ -0,0 +1,240 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.brianmcmichael.sagu.TreeHash.fromHex;
+import static com.brianmcmichael.sagu.TreeHash.sha256;
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.readAllLines;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local journal of one multipart upload, kept so the upload can be resumed after a crash.
+ * <p>
+ * The journal is an append-only text file. The header identifies the upload and its part size, the vault and the file
+ * (path, size and modification time) and every completed part is appended as one line with its byte range and tree
+ * hash. Every write is forced to the disk before the part is considered done. A line cut by a crash is ignored when
+ * the journal is read, the part is simply uploaded again.
+ */
+class UploadJournal implements AutoCloseable {
+
+    static final String JOURNAL_DIR = "journal";
+
+    private static final String UPLOAD_ID = "uploadId=";
+    private static final String VAULT = "vault=";
+    private static final String FILE = "file=";
+    private static final String SIZE = "size=";
+    private static final String MODIFIED = "modified=";
+    private static final String PART_SIZE = "partSize=";
+    private static final String PART = "part=";
+
+    private final Path journalFile;
+    private final String vaultName;
+    private final File file;
+    private long partSize;
+    private final NavigableMap<Long, byte[]> completedParts = new TreeMap<>();
+    private String uploadId;
+    private FileChannel channel;
+
+    private UploadJournal(final Path journalFile, final String vaultName, final File file) {
+        this.journalFile = journalFile;
+        this.vaultName = vaultName;
+        this.file = file;
+    }
+
+    /**
+     * Opens journal of the file upload. If the journal exists but the file has changed since, it is discarded.
+     *
+     * @param dir       directory with journals
+     * @param vaultName the name of the vault
+     * @param file      the uploaded file
+     * @return the journal, with upload ID, part size and completed parts if the upload can be resumed
+     * @throws IOException If an I/O error occurs
+     */
+    static UploadJournal open(final Path dir, final String vaultName, final File file) throws IOException {
+        createDirectories(dir);
+        final UploadJournal journal = new UploadJournal(dir.resolve(journalName(vaultName, file)), vaultName, file);
+        if (exists(journal.journalFile) && !journal.load()) {
+            journal.delete();
+        }
+        return journal;
+    }
+
+    /**
+     * Finds uploads recorded in journals, which may still be resumed.
+     *
+     * @param dir       directory with journals
+     * @param vaultName the name of the vault
+     * @return IDs of uploads to the vault which have a journal, empty if the directory does not exist
+     * @throws IOException If an I/O error occurs
+     */
+    static Set<String> journaledUploadIds(final Path dir, final String vaultName) throws IOException {
+        final Set<String> uploadIds = new HashSet<>();
+        if (!exists(dir)) {
+            return uploadIds;
+        }
+        try (DirectoryStream<Path> journals = newDirectoryStream(dir, "*.journal")) {
+            for (Path journal : journals) {
+                String uploadId = null;
+                String vault = null;
+                for (String line : readAllLines(journal, UTF_8)) {
+                    if (line.startsWith(UPLOAD_ID)) {
+                        uploadId = line.substring(UPLOAD_ID.length());
+                    } else if (line.startsWith(VAULT)) {
+                        vault = line.substring(VAULT.length());
+                    }
+                }
+                if (uploadId != null && vaultName.equals(vault)) {
+                    uploadIds.add(uploadId);
+                }
+            }
+        }
+        return uploadIds;
+    }
+
+    /**
+     * @return ID of the upload to be resumed or null if the upload has not started yet
+     */
+    String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * @return part size of the upload to be resumed
+     */
+    long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @return tree hashes of completed parts by start of the part
+     */
+    synchronized NavigableMap<Long, byte[]> getCompletedParts() {
+        return new TreeMap<>(completedParts);
+    }
+
+    /**
+     * Records start of a new upload.
+     *
+     * @param newUploadId ID of the multipart upload
+     * @param newPartSize part size of the upload
+     * @throws IOException If an I/O error occurs
+     */
+    synchronized void start(final String newUploadId, final long newPartSize) throws IOException {
+        delete();
+        uploadId = newUploadId;
+        partSize = newPartSize;
+        append(UPLOAD_ID + newUploadId + "\n"
+                + VAULT + vaultName + "\n"
+                + FILE + file.getPath() + "\n"
+                + SIZE + file.length() + "\n"
+                + MODIFIED + file.lastModified() + "\n"
+                + PART_SIZE + partSize + "\n");
+    }
+
+    /**
+     * Records completed part.
+     *
+     * @param start    first byte of the part
+     * @param end      last byte of the part
+     * @param treeHash binary tree hash of the part
+     * @throws IOException If an I/O error occurs
+     */
+    synchronized void partCompleted(final long start, final long end, final byte[] treeHash) throws IOException {
+        completedParts.put(start, treeHash);
+        append(PART + start + " " + end + " " + toHex(treeHash) + "\n");
+    }
+
+    /**
+     * Removes the journal, e.g. when the upload has been completed.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    synchronized void delete() throws IOException {
+        close();
+        deleteIfExists(journalFile);
+        uploadId = null;
+        completedParts.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    Path getJournalFile() {
+        return journalFile;
+    }
+
+    private boolean load() throws IOException {
+        final List<String> lines = readAllLines(journalFile, UTF_8);
+        final Map<String, String> header = new TreeMap<>();
+        for (String line : lines) {
+            if (line.startsWith(PART)) {
+                final String[] part = line.substring(PART.length()).split(" ");
+                if (part.length == 3 && part[2].length() == 64) {
+                    completedParts.put(Long.parseLong(part[0]), fromHex(part[2]));
+                }
+            } else if (line.indexOf('=') > 0) {
+                header.put(line.substring(0, line.indexOf('=') + 1), line.substring(line.indexOf('=') + 1));
+            }
+        }
+        uploadId = header.get(UPLOAD_ID);
+        try {
+            partSize = Long.parseLong(header.get(PART_SIZE));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return uploadId != null
+                && MultipartUploader.isValidPartSize(partSize)
+                && vaultName.equals(header.get(VAULT))
+                && file.getPath().equals(header.get(FILE))
+                && Long.toString(file.length()).equals(header.get(SIZE))
+                && Long.toString(file.lastModified()).equals(header.get(MODIFIED));
+    }
+
+    private void append(final String text) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(journalFile, CREATE, WRITE, APPEND);
+        }
+        final ByteBuffer buffer = UTF_8.encode(text);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private static String journalName(final String vaultName, final File file) {
+        final byte[] key = sha256().digest((vaultName + "\n" + file.getPath()).getBytes(UTF_8));
+        return toHex(key).substring(0, 32) + ".journal";
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * Uploads a batch of files with several files in progress at the same time.
+ * <p>
+ * Files are uploaded by a bounded pool of worker threads. Results are handed over to the {@link CompletionHandler}
+ * one by one on the thread which called {@link #uploadAll}, in the order in which the uploads finished, so the
+ * handler can write logs and update progress without any further synchronization.
+ */
+public class UploadScheduler implements AutoCloseable {
+
+    /**
+     * Upload of one file.
+     *
+     * @param <T> type of the upload result
+     */
+    public interface FileUpload<T> {
+        T upload(File file) throws Exception;
+    }
+
+    /**
+     * Receiver of finished uploads.
+     *
+     * @param <T> type of the upload result
+     */
+    public interface CompletionHandler<T> {
+        /**
+         * Called once for every file of the batch.
+         *
+         * @param file   the uploaded file
+         * @param result result of the upload, null if it failed
+         * @param error  the failure, null if the upload succeeded
+         */
+        void completed(File file, T result, Exception error);
+    }
+
+    private final ExecutorService fileExecutor;
+
+    /**
+     * Initializes the scheduler.
+     *
+     * @param concurrency maximal number of files being uploaded at the same time
+     */
+    public UploadScheduler(final int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one file has to be uploaded at a time, was " + concurrency);
+        }
+        fileExecutor = newFixedThreadPool(concurrency, runnable -> {
+            final Thread thread = new Thread(runnable, "sagu-file-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Uploads all files and waits until every upload finishes.
+     *
+     * @param files   files to be uploaded
+     * @param upload  upload of one file
+     * @param handler receiver of results, called in completion order on the current thread
+     * @param <T>     type of the upload result
+     * @throws InterruptedException if the current thread is interrupted while waiting for uploads
+     */
+    public <T> void uploadAll(final List<File> files, final FileUpload<T> upload,
+                              final CompletionHandler<T> handler) throws InterruptedException {
+        uploadAll(files.iterator(), upload, handler);
+    }
+
+    /**
+     * Uploads files as the iterator returns them and waits until every upload finishes. The iterator may block until
+     * the next file is known, e.g. while a directory is being scanned; files returned so far are uploaded meanwhile.
+     * Results of finished uploads are handed over whenever the iterator returns a file, and after it ends.
+     *
+     * @param files   files to be uploaded
+     * @param upload  upload of one file
+     * @param handler receiver of results, called in completion order on the current thread
+     * @param <T>     type of the upload result
+     * @throws InterruptedException if the current thread is interrupted while waiting for uploads
+     */
+    public <T> void uploadAll(final Iterator<File> files, final FileUpload<T> upload,
+                              final CompletionHandler<T> handler) throws InterruptedException {
+        final CompletionService<Outcome<T>> completionService = new ExecutorCompletionService<>(fileExecutor);
+        int pending = 0;
+        while (files.hasNext()) {
+            final File file = files.next();
+            completionService.submit(() -> {
+                try {
+                    return new Outcome<>(file, upload.upload(file), null);
+                } catch (Exception e) {
+                    return new Outcome<>(file, null, e);
+                }
+            });
+            pending++;
+            Future<Outcome<T>> finished;
+            while ((finished = completionService.poll()) != null) {
+                complete(finished, handler);
+                pending--;
+            }
+        }
+        for (; pending > 0; pending--) {
+            complete(completionService.take(), handler);
+        }
+    }
+
+    private static <T> void complete(final Future<Outcome<T>> finished, final CompletionHandler<T> handler)
+            throws InterruptedException {
+        final Outcome<T> outcome;
+        try {
+            outcome = finished.get();
+        } catch (ExecutionException e) {
+            // every failure of FileUpload is already wrapped in Outcome, this is an Error
+            throw new IllegalStateException(e.getCause());
+        }
+        handler.completed(outcome.file, outcome.result, outcome.error);
+    }
+
+    /**
+     * Stops worker threads. Uploads in progress are interrupted.
+     */
+    @Override
+    public void close() {
+        fileExecutor.shutdownNow();
+    }
+
+    private static final class Outcome<T> {
+        private final File file;
+        private final T result;
+        private final Exception error;
+
+        private Outcome(final File file, final T result, final Exception error) {
+            this.file = file;
+            this.result = result;
+            this.error = error;
+        }
+    }
+}
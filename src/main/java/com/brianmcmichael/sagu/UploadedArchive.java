@@ -0,0 +1,77 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of an archive upload.
+ */
+public class UploadedArchive {
+
+    private final String archiveId;
+    private final String treeHash;
+    private final long length;
+    private final Map<String, String> details;
+
+    public UploadedArchive(final String archiveId, final String treeHash, final long length) {
+        this(archiveId, treeHash, length, Collections.<String, String>emptyMap());
+    }
+
+    private UploadedArchive(final String archiveId, final String treeHash, final long length,
+                            final Map<String, String> details) {
+        this.archiveId = archiveId;
+        this.treeHash = treeHash;
+        this.length = length;
+        this.details = details;
+    }
+
+    /**
+     * Returns copy of this result with one more detail about the archive content.
+     *
+     * @param name  name of the detail
+     * @param value value of the detail
+     * @return the copy
+     */
+    public UploadedArchive withDetail(final String name, final String value) {
+        final Map<String, String> copy = new LinkedHashMap<>(details);
+        copy.put(name, value);
+        return new UploadedArchive(archiveId, treeHash, length, Collections.unmodifiableMap(copy));
+    }
+
+    /**
+     * @return the ID of the created archive
+     */
+    public String getArchiveId() {
+        return archiveId;
+    }
+
+    /**
+     * @return the hex encoded tree hash of the archive, computed while uploading
+     */
+    public String getTreeHash() {
+        return treeHash;
+    }
+
+    /**
+     * @return the size of the archive in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return details about the archive content which are logged with it, such as its compression, in insertion order
+     */
+    public Map<String, String> getDetails() {
+        return details;
+    }
+}
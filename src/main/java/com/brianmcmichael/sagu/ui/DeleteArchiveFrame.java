@@ -25,6 +25,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.util.concurrent.ExecutionException;
 import static java.lang.System.out;
 import static javax.swing.JOptionPane.ERROR_MESSAGE;
 import static javax.swing.JOptionPane.INFORMATION_MESSAGE;
@@ -154,32 +155,42 @@ public final class DeleteArchiveFrame extends JFrame implements ActionListener,
                 showMessageDialog(null, "Enter the Archive ID of the file to be deleted.", "Error", ERROR_MESSAGE);
             } else {
 
-                try {
-                    String archiveId = jtfDeleteField.getText().trim();
-
-                    //Banish the extra chars printed in early logs.
-                    String sendThis = archiveId.replaceAll("[^\\p{Print}]", "");
-
-                    String vaultName = deleteVault;
-
-                    // Delete the archive.
-                    deleteClient.deleteArchive(new DeleteArchiveRequest()
-                            .withVaultName(vaultName)
-                            .withArchiveId(sendThis));
-
-                    showMessageDialog(null, "Deleted archive successfully.", "Success", INFORMATION_MESSAGE);
-
-                } catch (AmazonServiceException k) {
-                    showMessageDialog(null, "The server returned an error. Wait 24 hours after submitting an archive to attempt a delete. Also check that correct location of archive has been set on the previous page.", "Error", ERROR_MESSAGE);
-                    out.println("" + k);
-                } catch (AmazonClientException i) {
-                    showMessageDialog(null, "Client Error. Check that all fields are correct. Archive not deleted.", "Error", ERROR_MESSAGE);
-                } catch (HeadlessException j) {
-                    showMessageDialog(null, "Archive not deleted. Unspecified Error.", "Error", ERROR_MESSAGE);
-                }
-
-                jtfDeleteField.setText("");
-                jtfDeleteField.requestFocus();
+                String archiveId = jtfDeleteField.getText().trim();
+
+                //Banish the extra chars printed in early logs.
+                final String sendThis = archiveId.replaceAll("[^\\p{Print}]", "");
+
+                final String vaultName = deleteVault;
+
+                // The delete waits for a free request slot of the account, which may take until a running upload
+                // sends a part, so it must not block the window.
+                jbtDelete.setEnabled(false);
+                new SwingWorker<Void, Void>() {
+
+                    @Override
+                    protected Void doInBackground() {
+                        // Delete the archive.
+                        deleteClient.deleteArchive(new DeleteArchiveRequest()
+                                .withVaultName(vaultName)
+                                .withArchiveId(sendThis));
+                        return null;
+                    }
+
+                    @Override
+                    protected void done() {
+                        try {
+                            get();
+                            showMessageDialog(null, "Deleted archive successfully.", "Success", INFORMATION_MESSAGE);
+                        } catch (ExecutionException x) {
+                            showDeleteError(x.getCause());
+                        } catch (InterruptedException x) {
+                            Thread.currentThread().interrupt();
+                        }
+                        jbtDelete.setEnabled(true);
+                        jtfDeleteField.setText("");
+                        jtfDeleteField.requestFocus();
+                    }
+                }.execute();
             }
 
         } else if (e.getSource() == jbtBack) {
@@ -191,4 +202,15 @@ public final class DeleteArchiveFrame extends JFrame implements ActionListener,
 
     }
 
+    private static void showDeleteError(final Throwable cause) {
+        if (cause instanceof AmazonServiceException) {
+            showMessageDialog(null, "The server returned an error. Wait 24 hours after submitting an archive to attempt a delete. Also check that correct location of archive has been set on the previous page.", "Error", ERROR_MESSAGE);
+            out.println("" + cause);
+        } else if (cause instanceof AmazonClientException) {
+            showMessageDialog(null, "Client Error. Check that all fields are correct. Archive not deleted.", "Error", ERROR_MESSAGE);
+        } else {
+            showMessageDialog(null, "Archive not deleted. Unspecified Error.", "Error", ERROR_MESSAGE);
+        }
+    }
+
 }
\ No newline at end of file
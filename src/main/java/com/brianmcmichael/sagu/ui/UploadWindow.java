@@ -24,6 +24,7 @@ public class UploadWindow extends JFrame {
     private final JTextArea finishedFilesArea = new JTextArea();
     private final JProgressBar allFilesProgressBar = new JProgressBar(0, 100);
     private final JProgressBar oneFileProgressBar = new JProgressBar(0, 100);
+    private final JLabel partPlanLabel = new JLabel();
 
     /**
      * Initializes and displays the Upload Window.
@@ -65,6 +66,15 @@ public class UploadWindow extends JFrame {
         invokeLater(() -> oneFileProgressBar.setValue(percentage));
     }
 
+    /**
+     * Shows how the last started file is split into parts.
+     *
+     * @param plan description of the part plan to be displayed
+     */
+    public void updatePartPlan(final String plan) {
+        invokeLater(() -> partPlanLabel.setText(plan));
+    }
+
     private void initUI() {
         setTitle("Uploading");
         setLayout(new GridBagLayout());
@@ -97,13 +107,24 @@ public class UploadWindow extends JFrame {
         constraints.weightx = 1;
         constraints.gridx = 0;
         constraints.gridy = 2;
+        final JLabel partPlanTitleLabel = new JLabel();
+        partPlanTitleLabel.setText("Parts:");
+        add(partPlanTitleLabel, constraints);
+
+        constraints.weightx = 10;
+        constraints.gridx = 1;
+        add(partPlanLabel, constraints);
+
+        constraints.weightx = 1;
+        constraints.gridx = 0;
+        constraints.gridy = 3;
         constraints.gridwidth = 2;
         constraints.insets = new Insets(0, 0, 0, 0);
         final JSeparator separator = new JSeparator();
         add(separator, constraints);
 
         constraints.insets = new Insets(5, 5, 0, 5);
-        constraints.gridy = 3;
+        constraints.gridy = 4;
         final JLabel finishedFilesLabel = new JLabel();
         finishedFilesLabel.setText("Finished files:");
         add(finishedFilesLabel, constraints);
@@ -113,7 +134,7 @@ public class UploadWindow extends JFrame {
         constraints.weighty = 1;
         constraints.fill = BOTH;
         constraints.gridx = 0;
-        constraints.gridy = 4;
+        constraints.gridy = 5;
         constraints.gridwidth = 2;
         add(new JScrollPane(finishedFilesArea), constraints);
 
@@ -0,0 +1,156 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonServiceException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdaptiveConcurrencyTest {
+
+    private AtomicLong now;
+    private TransferMetrics metrics;
+
+    @BeforeMethod
+    public void setUp() {
+        now = new AtomicLong();
+        metrics = new TransferMetrics();
+    }
+
+    @Test
+    public void limitShouldGrowByAboutOnePerLimitOfHealthyRequests() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 10, metrics, now::get);
+
+        send(concurrency, 3, 100, MB);
+
+        assertThat(concurrency.getLimit(), is(3));
+        assertThat(metrics.getConcurrencyIncreases(), is(1L));
+        assertThat(metrics.getConcurrencyLimit(), is(3L));
+    }
+
+    @Test
+    public void limitShouldNotGrowOverMax() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 3, metrics, now::get);
+
+        send(concurrency, 50, 100, MB);
+
+        assertThat(concurrency.getLimit(), is(3));
+    }
+
+    @Test
+    public void limitShouldNotGrowWhileLatencyPerMegabyteIsHigh() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 10, metrics, now::get);
+        send(concurrency, 1, 100, MB);
+
+        send(concurrency, 10, 1000, 2 * MB);
+
+        assertThat(concurrency.getLimit(), is(2));
+    }
+
+    @Test
+    public void throttlingShouldHalveLimitOncePerLatency() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(16, 16, metrics, now::get);
+        send(concurrency, 20, 100, MB);
+
+        concurrency.throttled();
+        concurrency.throttled();
+        assertThat(concurrency.getLimit(), is(8));
+
+        now.addAndGet(SECONDS.toNanos(1));
+        final AdaptiveConcurrency.Permit permit = concurrency.acquire();
+        final AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("ThrottlingException");
+        permit.failed(throttled);
+        assertThat(concurrency.getLimit(), is(4));
+        assertThat(metrics.getConcurrencyDecreases(), is(2L));
+        assertThat(metrics.getThrottledRequests(), is(3L));
+    }
+
+    @Test
+    public void limitShouldNotDropBelowOne() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(1, 4, metrics, now::get);
+
+        concurrency.throttled();
+
+        assertThat(concurrency.getLimit(), is(1));
+        assertThat(metrics.getConcurrencyDecreases(), is(0L));
+    }
+
+    @Test
+    public void otherFailuresShouldKeepLimit() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(4, 8, metrics, now::get);
+
+        final AmazonServiceException notFound = new AmazonServiceException("Not found");
+        notFound.setErrorCode("ResourceNotFoundException");
+        notFound.setStatusCode(404);
+
+        concurrency.acquire().failed(notFound);
+
+        assertThat(concurrency.getLimit(), is(4));
+        assertThat(metrics.getThrottledRequests(), is(0L));
+    }
+
+    @Test(timeOut = 5000)
+    public void acquireShouldWaitForFreeSlot() throws Exception {
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(1, 1, metrics, now::get);
+        final AdaptiveConcurrency.Permit first = concurrency.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread second = new Thread(() -> {
+            concurrency.acquire().completed(0);
+            acquired.countDown();
+        });
+        second.start();
+
+        assertThat(acquired.await(100, MILLISECONDS), is(false));
+        first.completed(0);
+        assertThat(acquired.await(1, SECONDS), is(true));
+    }
+
+    @Test
+    public void isThrottlingShouldRecognizeThrottlingAndTimeouts() throws Exception {
+        final AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("ThrottlingException");
+        final AmazonServiceException timeout = new AmazonServiceException("Timeout");
+        timeout.setErrorCode("RequestTimeoutException");
+        final AmazonServiceException tooMany = new AmazonServiceException("Too many");
+        tooMany.setStatusCode(429);
+        final AmazonServiceException invalid = new AmazonServiceException("Invalid");
+        invalid.setErrorCode("InvalidParameterValueException");
+        invalid.setStatusCode(400);
+
+        assertThat(AdaptiveConcurrency.isThrottling(throttled), is(true));
+        assertThat(AdaptiveConcurrency.isThrottling(timeout), is(true));
+        assertThat(AdaptiveConcurrency.isThrottling(tooMany), is(true));
+        assertThat(AdaptiveConcurrency.isThrottling(invalid), is(false));
+        assertThat(AdaptiveConcurrency.isThrottling(new IllegalStateException()), is(false));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void constructorShouldRejectMaxBelowInitial() throws Exception {
+        new AdaptiveConcurrency(4, 2, metrics, now::get);
+    }
+
+    private void send(final AdaptiveConcurrency concurrency, final int requests, final long nanos,
+                      final long bytes) {
+        for (int i = 0; i < requests; i++) {
+            final AdaptiveConcurrency.Permit permit = concurrency.acquire();
+            now.addAndGet(nanos);
+            permit.completed(bytes);
+        }
+    }
+}
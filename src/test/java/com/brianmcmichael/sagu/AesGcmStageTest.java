@@ -0,0 +1,110 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static com.brianmcmichael.sagu.AesGcmStage.CHUNK_SIZE;
+import static com.brianmcmichael.sagu.AesGcmStage.TAG_LENGTH;
+import static com.brianmcmichael.sagu.GzipStageTest.readAll;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static java.nio.file.Files.createTempDirectory;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AesGcmStageTest {
+
+    private final EncryptionKey key = testKey(1);
+
+    @Test
+    public void encryptedArchiveShouldDecryptToOriginalContent() throws Exception {
+        for (int length : new int[]{0, 1, CHUNK_SIZE - TAG_LENGTH, CHUNK_SIZE - 8, CHUNK_SIZE - 1, CHUNK_SIZE,
+                2 * CHUNK_SIZE - 3, 2 * CHUNK_SIZE + 5}) {
+            final byte[] content = randomContent(length);
+
+            final byte[] encrypted = encrypt(content);
+
+            assertThat((long) encrypted.length, is(AesGcmStage.encryptedLength(length)));
+            assertThat(decrypt(encrypted, key), is(content));
+        }
+    }
+
+    @Test
+    public void sameContentShouldEncryptDifferentlyEveryTime() throws Exception {
+        final byte[] content = randomContent(1000);
+
+        assertThat(encrypt(content), is(not(encrypt(content))));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void modifiedChunkShouldFailDecryption() throws Exception {
+        final byte[] encrypted = encrypt(randomContent(2 * CHUNK_SIZE));
+        encrypted[AesGcmStage.HEADER_LENGTH + CHUNK_SIZE + 100] ^= 1;
+
+        decrypt(encrypted, key);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void truncatedArchiveShouldFailDecryption() throws Exception {
+        final byte[] encrypted = encrypt(randomContent(2 * CHUNK_SIZE));
+
+        decrypt(Arrays.copyOf(encrypted, AesGcmStage.HEADER_LENGTH + CHUNK_SIZE + TAG_LENGTH), key);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void otherKeyShouldFailDecryption() throws Exception {
+        final byte[] encrypted = encrypt(randomContent(100));
+
+        decrypt(encrypted, testKey(2));
+    }
+
+    @Test
+    public void keyShouldBeGeneratedOnceAndLoadedAgain() throws Exception {
+        final Path file = createTempDirectory("sagu-key-").resolve("SAGU.key");
+
+        final EncryptionKey generated = EncryptionKey.loadOrGenerate(file);
+        final EncryptionKey loaded = EncryptionKey.loadOrGenerate(file);
+
+        assertThat(loaded.getId(), is(generated.getId()));
+        assertThat(loaded.getEncoded(), is(generated.getEncoded()));
+        assertThat(generated.getId().length(), is(16));
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file)), is("rw-------"));
+        }
+    }
+
+    private static EncryptionKey testKey(final int seed) {
+        final byte[] bytes = new byte[EncryptionKey.KEY_LENGTH];
+        Arrays.fill(bytes, (byte) seed);
+        return new EncryptionKey(bytes);
+    }
+
+    private byte[] encrypt(final byte[] content) throws IOException {
+        try (InputStream in = new ParallelBlockPipeline(new ByteArrayInputStream(content), CHUNK_SIZE, 3,
+                new AesGcmStage(key))) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] decrypt(final byte[] encrypted, final EncryptionKey key) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AesGcmStage.decrypt(new ByteArrayInputStream(encrypted), out, key);
+        return out.toByteArray();
+    }
+}
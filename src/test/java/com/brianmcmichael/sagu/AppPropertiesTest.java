@@ -19,6 +19,7 @@ import static java.nio.file.Files.createTempDirectory;
 import static java.nio.file.Files.write;
 import java.nio.file.Path;
 import static java.nio.file.Paths.get;
+import java.time.LocalTime;
 import java.util.Properties;
 
 import static java.util.Collections.singleton;
@@ -82,6 +83,32 @@ public class AppPropertiesTest {
         assertThat(emptyProperties.getVaultKey(), is(nullValue()));
         assertThat(emptyProperties.getSecretKey(), is(nullValue()));
         assertThat(emptyProperties.getAccessKey(), is(nullValue()));
+        assertThat(emptyProperties.getPartSizeMB(), is(16));
+        assertThat(emptyProperties.getUploadThreads(), is(4));
+        assertThat(emptyProperties.getConcurrentFiles(), is(3));
+        assertThat(emptyProperties.getReadAheadParts(), is(0));
+        assertThat(emptyProperties.getBufferBudgetBytes(), is(Runtime.getRuntime().maxMemory() / 2));
+        assertThat(emptyProperties.isUncachedReads(), is(false));
+        assertThat(emptyProperties.isDiskLayoutOrder(), is(false));
+        assertThat(emptyProperties.getDiskReadLimiter().forFile(tempDir).isUnlimited(), is(true));
+        assertThat(emptyProperties.isServerResume(), is(true));
+        assertThat(emptyProperties.getStaleUploadDays(), is(7));
+        assertThat(emptyProperties.getMaxConnections(), is(50));
+        assertThat(emptyProperties.isTcpKeepAlive(), is(true));
+        assertThat(emptyProperties.isPackSmallFiles(), is(false));
+        assertThat(emptyProperties.isTarDirectories(), is(false));
+        assertThat(emptyProperties.getPackMaxFileKB(), is(1024));
+        assertThat(emptyProperties.getPackTargetMB(), is(256));
+        assertThat(emptyProperties.isCompressUploads(), is(false));
+        assertThat(emptyProperties.getCompressionLevel(), is(6));
+        assertThat(emptyProperties.isEncryptUploads(), is(false));
+        assertThat(emptyProperties.getEncryptionKeyFile(), is(tempDir.resolve("SAGU.key")));
+        assertThat(emptyProperties.getBandwidthSchedule().rateAt(LocalTime.NOON), is(BandwidthSchedule.UNLIMITED));
+        assertThat(emptyProperties.getBandwidthBurstKB(), is(1024));
+        assertThat(emptyProperties.getDeduplication(), is(DedupIndex.Mode.OFF));
+        assertThat(emptyProperties.getWalkInclude(), is(""));
+        assertThat(emptyProperties.getWalkExclude(), is(""));
+        assertThat(emptyProperties.getWalkSymlinks(), is(FileTreeWalker.SymlinkPolicy.SKIP));
     }
 
     @Test
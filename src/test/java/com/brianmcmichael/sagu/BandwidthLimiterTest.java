@@ -0,0 +1,112 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BandwidthLimiterTest {
+
+    private ServerSocket server;
+    private Thread serverThread;
+
+    /**
+     * Starts a local stand-in for the transfer endpoint which streams zeros to its client until it disconnects.
+     */
+    @BeforeMethod
+    public void startServer() throws Exception {
+        server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        serverThread = new Thread(() -> {
+            try (Socket socket = server.accept(); OutputStream out = socket.getOutputStream()) {
+                final byte[] buffer = new byte[64 * 1024];
+                while (true) {
+                    out.write(buffer);
+                }
+            } catch (IOException e) {
+                // the client closed the connection
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @AfterMethod
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void transferShouldKeepToScheduledRate() throws Exception {
+        final BandwidthLimiter limiter = new BandwidthLimiter(BandwidthSchedule.parse("2MB", null), 64 * 1024);
+
+        final long millis = download(limiter, MB + 64 * 1024);
+
+        // one burst is free, the rest takes half a second at 2 MB/s
+        assertThat(millis >= 450, is(true));
+        assertThat(millis < 3000, is(true));
+    }
+
+    @Test
+    public void unlimitedTransferShouldNotWait() throws Exception {
+        final BandwidthLimiter limiter = new BandwidthLimiter(BandwidthSchedule.unlimited(), 1024);
+
+        assertThat(download(limiter, 16 * MB) < 2000, is(true));
+    }
+
+    @Test
+    public void acquireShouldFollowTimeOfDayWindows() throws Exception {
+        final AtomicLong nanos = new AtomicLong();
+        final LocalTime[] now = {LocalTime.of(12, 0)};
+        final BandwidthLimiter limiter = new BandwidthLimiter(
+                BandwidthSchedule.parse("1KB", "22:00-06:00=unlimited"), 1024, nanos::get, () -> now[0]);
+
+        assertThat(limiter.getRate(), is(1024L));
+        limiter.acquire(1024);
+        now[0] = LocalTime.of(23, 0);
+        // the bucket is empty, but the night window does not limit
+        limiter.acquire(10 * MB);
+        assertThat(limiter.getRate(), is(BandwidthSchedule.UNLIMITED));
+        now[0] = LocalTime.of(7, 0);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        // a second of daytime refills the bucket
+        limiter.acquire(1);
+    }
+
+    private long download(final BandwidthLimiter limiter, final long bytes) throws IOException {
+        final long started = System.nanoTime();
+        try (Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+             InputStream in = new ThrottledInputStream(socket.getInputStream(), limiter)) {
+            final byte[] buffer = new byte[256 * 1024];
+            long remaining = bytes;
+            while (remaining > 0) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+                remaining -= read;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+}
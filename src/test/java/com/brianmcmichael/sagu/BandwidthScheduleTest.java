@@ -0,0 +1,54 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.time.LocalTime;
+
+import static com.brianmcmichael.sagu.BandwidthSchedule.UNLIMITED;
+import static com.brianmcmichael.sagu.BandwidthSchedule.parseRate;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BandwidthScheduleTest {
+
+    @Test
+    public void parseRateShouldUnderstandBitAndByteUnits() throws Exception {
+        assertThat(parseRate("unlimited"), is(UNLIMITED));
+        assertThat(parseRate(""), is(UNLIMITED));
+        assertThat(parseRate("50Mbit"), is(6250000L));
+        assertThat(parseRate("800 kbit"), is(100000L));
+        assertThat(parseRate("2MB"), is(2097152L));
+        assertThat(parseRate("1.5KB"), is(1536L));
+        assertThat(parseRate("1000"), is(1000L));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void parseRateShouldRejectUnknownUnit() throws Exception {
+        parseRate("5 parsecs");
+    }
+
+    @Test
+    public void rateAtShouldUseWindowsAndDefault() throws Exception {
+        final BandwidthSchedule schedule = BandwidthSchedule.parse("50Mbit",
+                "22:00-06:00=unlimited, 12:00-13:00=1MB");
+
+        assertThat(schedule.rateAt(LocalTime.of(23, 30)), is(UNLIMITED));
+        assertThat(schedule.rateAt(LocalTime.of(5, 59)), is(UNLIMITED));
+        assertThat(schedule.rateAt(LocalTime.of(6, 0)), is(6250000L));
+        assertThat(schedule.rateAt(LocalTime.of(12, 30)), is(1048576L));
+        assertThat(schedule.rateAt(LocalTime.of(13, 0)), is(6250000L));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void parseShouldRejectInvalidWindow() throws Exception {
+        BandwidthSchedule.parse("unlimited", "22-06=1MB");
+    }
+}
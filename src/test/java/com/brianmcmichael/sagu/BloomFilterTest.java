@@ -0,0 +1,51 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BloomFilterTest {
+
+    @Test
+    public void filterShouldContainAddedKeysAndRarelyOthers() throws Exception {
+        final BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(hash(i), i);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain(hash(i), i), is(true));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain(hash(i), i)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives < 200, is(true));
+    }
+
+    @Test
+    public void lengthShouldBePartOfTheKey() throws Exception {
+        final BloomFilter filter = new BloomFilter(1, 0.001);
+        filter.add(hash(1), 100);
+
+        assertThat(filter.mightContain(hash(1), 100), is(true));
+        assertThat(filter.mightContain(hash(1), 101), is(false));
+    }
+
+    private static byte[] hash(final int seed) {
+        return TreeHash.sha256().digest(ByteBuffer.allocate(4).putInt(seed).array());
+    }
+}
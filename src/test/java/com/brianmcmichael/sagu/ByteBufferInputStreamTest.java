@@ -0,0 +1,72 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ByteBufferInputStreamTest {
+
+    @Test
+    public void shouldReadRemainingBytesOfDirectBufferWithoutMovingIt() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        for (int i = 0; i < 10; i++) {
+            buffer.put((byte) (200 + i));
+        }
+        buffer.position(2).limit(8);
+
+        final InputStream in = new ByteBufferInputStream(buffer);
+        final byte[] read = new byte[10];
+
+        assertThat(in.available(), is(6));
+        assertThat(in.read(), is(202));
+        assertThat(in.read(read, 0, 10), is(5));
+        assertThat(read[4], is((byte) 207));
+        assertThat(in.read(read, 0, 10), is(-1));
+        assertThat(in.read(), is(-1));
+        assertThat(buffer.position(), is(2));
+    }
+
+    @Test
+    public void resetShouldRewindToMark() throws Exception {
+        final InputStream in = new ByteBufferInputStream(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+
+        in.mark(0);
+        assertThat(in.skip(3), is(3L));
+        in.reset();
+        assertThat(in.read(), is(1));
+        in.mark(0);
+        assertThat(in.read(new byte[4], 0, 4), is(3));
+        in.reset();
+
+        assertThat(in.markSupported(), is(true));
+        assertThat(in.read(), is(2));
+    }
+
+    @Test
+    public void shouldPublishPositionToCounter() throws Exception {
+        final AtomicLong position = new AtomicLong();
+        final InputStream in = new ByteBufferInputStream(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}), position);
+
+        in.read();
+        in.mark(0);
+        in.read(new byte[2], 0, 2);
+        assertThat(position.get(), is(3L));
+        in.reset();
+        assertThat(position.get(), is(1L));
+        in.skip(10);
+        assertThat(position.get(), is(5L));
+    }
+}
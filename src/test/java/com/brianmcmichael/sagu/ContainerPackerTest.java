@@ -0,0 +1,59 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static java.nio.file.Files.createTempDirectory;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ContainerPackerTest {
+
+    @Test
+    public void packShouldGroupSmallFilesUpToTargetSize() throws Exception {
+        final File small1 = tempFile(new byte[1000]);
+        final File large = tempFile(new byte[5000]);
+        final File small2 = tempFile(new byte[1000]);
+        final File small3 = tempFile(new byte[1000]);
+        final long memberLength = TarStream.memberLength(ContainerPacker.memberName(small1), 1000);
+        final ContainerPacker packer = new ContainerPacker(4096, 2 * memberLength + TarStream.END_LENGTH);
+
+        final List<List<File>> groups = packer.pack(asList(small1, large, small2, small3));
+
+        assertThat(groups.size(), is(3));
+        assertThat(groups.get(0), is(asList(large)));
+        assertThat(groups.get(1), is(asList(small1, small2)));
+        assertThat(groups.get(2), is(asList(small3)));
+    }
+
+    @Test
+    public void memberNameShouldBeRelativeWithForwardSlashes() throws Exception {
+        final File file = tempFile(new byte[1]);
+
+        final String name = ContainerPacker.memberName(file);
+
+        assertThat(name.startsWith("/"), is(false));
+        assertThat(name.contains("\\"), is(false));
+        assertThat(name.endsWith(file.getName()), is(true));
+    }
+
+    @Test
+    public void memberNameInDirectoryShouldStartWithDirectoryName() throws Exception {
+        final File directory = createTempDirectory("sagu").resolve("photos").toFile();
+        final File file = new File(new File(directory, "2015"), "a.jpg");
+
+        assertThat(ContainerPacker.memberName(directory, file), is("photos/2015/a.jpg"));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.nio.file.Files.createTempDirectory;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DedupIndexTest {
+
+    private AppProperties properties;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        properties = new AppProperties(createTempDirectory("sagu-dedup-"));
+    }
+
+    @Test
+    public void lookupShouldFindLoggedArchiveInSameVault() throws Exception {
+        log("archive-1", hash(1), 100, Collections.<String, String>emptyMap());
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 100)), is("archive-1"));
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1).toUpperCase(), 100)), is("archive-1"));
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 101)), is(nullValue()));
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(2), 100)), is(nullValue()));
+            assertThat(idOf(index.lookup("other", "US_EAST_1", hash(1), 100)), is(nullValue()));
+            assertThat(idOf(index.lookup("vault", "EU_WEST_1", hash(1), 100)), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void transformedArchivesShouldBeIndexedByTheirContent() throws Exception {
+        final Map<String, String> unknown = new LinkedHashMap<>();
+        unknown.put("Compression", "gzip");
+        unknown.put(DedupIndex.ORIGINAL_BYTES, "500");
+        log("archive-1", hash(1), 200, unknown);
+        final Map<String, String> known = new LinkedHashMap<>(unknown);
+        known.put(DedupIndex.CONTENT_HASH, hash(3));
+        log("archive-2", hash(2), 200, known);
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 200)), is(nullValue()));
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(2), 200)), is(nullValue()));
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(3), 500)), is("archive-2"));
+        }
+    }
+
+    @Test
+    public void aliasShouldBeFoundWithTransformationsOfItsArchive() throws Exception {
+        final Map<String, String> details = new LinkedHashMap<>();
+        details.put("Compression", "gzip");
+        details.put("Encryption", "AES-256-GCM");
+        details.put("KeyId", "key-1");
+        details.put(DedupIndex.ORIGINAL_BYTES, "500");
+        details.put(DedupIndex.CONTENT_HASH, hash(3));
+        log("archive-1", hash(1), 200, details);
+        final Map<String, String> alias = new LinkedHashMap<>(details);
+        alias.put(DedupIndex.DEDUPLICATED, "ALIAS");
+        log("archive-1", hash(1), 200, alias);
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            final UploadedArchive found = index.lookup("vault", "US_EAST_1", hash(3), 500);
+            assertThat(found.getArchiveId(), is("archive-1"));
+            assertThat(found.getTreeHash(), is(hash(1)));
+            assertThat(found.getLength(), is(200L));
+            assertThat(found.getDetails(), is(details));
+        }
+    }
+
+    @Test
+    public void reopenedIndexShouldMergeNewLogLines() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            log("archive-" + i, hash(i), i, Collections.<String, String>emptyMap());
+        }
+        new DedupIndex(properties).close();
+        final Path indexFile = properties.getDir().resolve(DedupIndex.INDEX_FILE_NAME);
+        final long firstSize = Files.size(indexFile);
+        for (int i = 200; i < 400; i++) {
+            log("archive-" + i, hash(i), i, Collections.<String, String>emptyMap());
+        }
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            for (int i = 0; i < 400; i++) {
+                assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(i), i)), is("archive-" + i));
+            }
+        }
+        assertThat(Files.size(indexFile), is(2 * firstSize - 24));
+    }
+
+    @Test
+    public void savedBloomFilterShouldBeLoadedWhenNothingWasLogged() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            log("archive-" + i, hash(i), i, Collections.<String, String>emptyMap());
+        }
+        new DedupIndex(properties).close();
+        final Path bloomFile = properties.getDir().resolve(DedupIndex.BLOOM_FILE_NAME);
+        final byte[] saved = Files.readAllBytes(bloomFile);
+        Files.setLastModifiedTime(bloomFile, FileTime.fromMillis(0));
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            for (int i = 0; i < 200; i++) {
+                assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(i), i)), is("archive-" + i));
+            }
+        }
+        assertThat(Files.getLastModifiedTime(bloomFile).toMillis(), is(0L));
+        assertThat(Files.readAllBytes(bloomFile), is(saved));
+    }
+
+    @Test
+    public void missingOrStaleBloomFilterShouldBeRebuilt() throws Exception {
+        log("archive-1", hash(1), 100, Collections.<String, String>emptyMap());
+        new DedupIndex(properties).close();
+        final Path bloomFile = properties.getDir().resolve(DedupIndex.BLOOM_FILE_NAME);
+        final byte[] stale = Files.readAllBytes(bloomFile);
+        Files.delete(bloomFile);
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 100)), is("archive-1"));
+        }
+        assertThat(Files.exists(bloomFile), is(true));
+
+        // a filter of one record taken for an index of two would miss the second one
+        log("archive-2", hash(2), 100, Collections.<String, String>emptyMap());
+        new DedupIndex(properties).close();
+        Files.write(bloomFile, stale);
+        try (DedupIndex index = new DedupIndex(properties)) {
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(2), 100)), is("archive-2"));
+        }
+    }
+
+    @Test
+    public void replacedLogShouldRebuildIndex() throws Exception {
+        log("archive-1", hash(1), 100, Collections.<String, String>emptyMap());
+        log("archive-2", hash(2), 100, Collections.<String, String>emptyMap());
+        new DedupIndex(properties).close();
+        Files.delete(LogWriter.getLogFile(2, properties).toPath());
+        log("archive-3", hash(3), 100, Collections.<String, String>emptyMap());
+
+        try (DedupIndex index = new DedupIndex(properties)) {
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 100)), is(nullValue()));
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(3), 100)), is("archive-3"));
+        }
+    }
+
+    @Test
+    public void addedContentShouldBeFoundInSameRun() throws Exception {
+        try (DedupIndex index = new DedupIndex(properties)) {
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 100)), is(nullValue()));
+
+            index.add("vault", "US_EAST_1", hash(1), 100, new UploadedArchive("archive-1", hash(1), 100));
+
+            assertThat(idOf(index.lookup("vault", "US_EAST_1", hash(1), 100)), is("archive-1"));
+            assertThat(idOf(index.lookup("other", "US_EAST_1", hash(1), 100)), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void parseCsvLineShouldUnquoteCells() throws Exception {
+        assertThat(DedupIndex.parseCsvLine("\"a\",\"b \"\"c\"\", d\",\"\"\r"), is(asList("a", "b \"c\", d", "")));
+    }
+
+    private void log(final String archiveId, final String treeHash, final long length,
+                     final Map<String, String> details) throws Exception {
+        new LogWriter(properties).logUploadedFile("vault", "US_EAST_1", "/data/" + archiveId, Long.toString(length),
+                treeHash, archiveId, details);
+    }
+
+    private static String idOf(final UploadedArchive archive) {
+        return archive == null ? null : archive.getArchiveId();
+    }
+
+    private static String hash(final int seed) {
+        return toHex(TreeHash.sha256().digest(Integer.toString(seed).getBytes()));
+    }
+}
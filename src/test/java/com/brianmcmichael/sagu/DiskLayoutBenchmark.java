@@ -0,0 +1,123 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+
+/**
+ * Measures how fast many small files are read in the order they are listed in their directory and in the order of
+ * {@link DiskLayoutOrder}. Files are written one after another, so the file system lays them out in writing order,
+ * while the directory lists them by the hash of their names. The page cache is dropped before every read, which
+ * needs root on Linux; without it the files are cached already and the numbers show nothing. The gain shows on a
+ * spinning disk; an SSD, or a loop device backed by one, reads both orders equally fast. It is not run as a test:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * sudo java -cp target/classes:target/test-classes:$(cat cp.txt) com.brianmcmichael.sagu.DiskLayoutBenchmark \
+ *     [FILES] [KB] [DIR]
+ * </pre>
+ */
+public class DiskLayoutBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final Path DROP_CACHES = Paths.get("/proc/sys/vm/drop_caches");
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int fileKB = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        final Path parent = args.length > 2 ? Paths.get(args[2]) : null;
+        final Path dir = parent == null ? Files.createTempDirectory("sagu-benchmark")
+                : Files.createTempDirectory(parent, "sagu-benchmark");
+        final List<File> listed = new ArrayList<>();
+        try {
+            writeFiles(dir, count, fileKB * 1024);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    listed.add(entry.toFile());
+                }
+            }
+            if (!dropCaches()) {
+                System.out.println("Page cache cannot be dropped, run as root for meaningful numbers");
+            }
+            for (int round = 1; round <= ROUNDS; round++) {
+                measure("directory order, round " + round, listed);
+                final long started = System.nanoTime();
+                final List<File> ordered = new DiskLayoutOrder().order(listed);
+                final long orderMillis = (System.nanoTime() - started) / 1000000;
+                measure("disk layout order, round " + round + " (sorted in " + orderMillis + " ms)", ordered);
+            }
+        } finally {
+            for (File file : listed) {
+                Files.deleteIfExists(file.toPath());
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void measure(final String name, final List<File> files) throws IOException, InterruptedException {
+        dropCaches();
+        final byte[] buffer = new byte[64 * 1024];
+        long bytes = 0;
+        final long started = System.nanoTime();
+        for (File file : files) {
+            try (InputStream in = new FileInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    bytes += read;
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - started;
+        System.out.printf("%-52s %8.1f MB/s %8.0f files/s%n", name, bytes / (elapsed / 1e9) / MB,
+                files.size() / (elapsed / 1e9));
+    }
+
+    /**
+     * Writes the files in the order of random names, so the directory does not list them in writing order.
+     */
+    private static void writeFiles(final Path dir, final int count, final int length) throws IOException {
+        final Random random = new Random(1);
+        final byte[] content = new byte[length];
+        final List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(Long.toHexString(random.nextLong()) + ".bin");
+        }
+        names.sort(Comparator.naturalOrder());
+        for (String name : names) {
+            random.nextBytes(content);
+            try (RandomAccessFile out = new RandomAccessFile(dir.resolve(name).toFile(), "rw")) {
+                out.write(content);
+                out.getFD().sync();
+            }
+        }
+    }
+
+    private static boolean dropCaches() throws IOException, InterruptedException {
+        if (!Files.isWritable(DROP_CACHES)) {
+            return false;
+        }
+        new ProcessBuilder("sync").inheritIO().start().waitFor();
+        Files.write(DROP_CACHES, "1".getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.createTempFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DiskLayoutOrderTest {
+
+    @Test
+    public void orderShouldSortWindowsByFirstBlock() throws Exception {
+        final List<File> files = tempFiles(5);
+        final Map<Path, Long> blocks = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            blocks.put(files.get(i).toPath(), 100L - i);
+        }
+        final DiskLayoutOrder order = new DiskLayoutOrder(paths -> blocks, 2);
+
+        assertThat(order.order(files), is(Arrays.asList(files.get(1), files.get(0), files.get(3), files.get(2),
+                files.get(4))));
+    }
+
+    @Test
+    public void orderShouldFallBackToInodes() throws Exception {
+        final List<File> files = tempFiles(8);
+        Collections.reverse(files);
+        final DiskLayoutOrder order = new DiskLayoutOrder(paths -> Collections.<Path, Long>emptyMap(), 100);
+
+        final List<File> ordered = order.order(files);
+
+        final List<Long> inodes = new ArrayList<>();
+        for (File file : ordered) {
+            inodes.add((Long) Files.getAttribute(file.toPath(), "unix:ino"));
+        }
+        final List<Long> sorted = new ArrayList<>(inodes);
+        Collections.sort(sorted);
+        assertThat(inodes, is(sorted));
+    }
+
+    @Test
+    public void orderShouldKeepFilesWithoutLocationInPlace() throws Exception {
+        final List<File> files = Arrays.asList(new File("/does/not/exist/b"), new File("/does/not/exist/a"),
+                new File("/does/not/exist/c"));
+        final DiskLayoutOrder order = new DiskLayoutOrder(paths -> Collections.<Path, Long>emptyMap(), 100);
+
+        assertThat(order.order(files), is(files));
+    }
+
+    @Test
+    public void orderShouldReturnEveryFileOnce() throws Exception {
+        final List<File> files = tempFiles(20);
+
+        final List<File> ordered = new DiskLayoutOrder().order(files);
+
+        assertThat(ordered.size(), is(files.size()));
+        assertThat(new HashSet<>(ordered), is(new HashSet<>(files)));
+    }
+
+    @Test
+    public void parseShouldReadFirstExtentOfEveryReportedFile() throws Exception {
+        final List<Path> files = Arrays.asList(Paths.get("/data/a is b"), Paths.get("/data/gone"),
+                Paths.get("/data/empty"), Paths.get("/data/c"));
+        final String output = "Filesystem type is: ef53\n"
+                + "File size of /data/a is b is 300000 (74 blocks of 4096 bytes)\n"
+                + " ext:     logical_offset:        physical_offset: length:   expected: flags:\n"
+                + "   0:        0..      31:    1213056..   1213087:     32:            \n"
+                + "   1:       32..      73:    1300000..   1300041:     42:    1213088: last,eof\n"
+                + "/data/a is b: 2 extents found\n"
+                + "filefrag: /data/gone: No such file or directory\n"
+                + "File size of /data/empty is 0 (0 blocks of 4096 bytes)\n"
+                + "/data/empty: 0 extents found\n"
+                + "File size of /data/c is 10 (1 block of 4096 bytes)\n"
+                + " ext:     logical_offset:        physical_offset: length:   expected: flags:\n"
+                + "   0:        0..       0:      34816..     34816:      1:             last,eof\n"
+                + "/data/c: 1 extent found\n";
+        final Map<Path, Long> blocks = new HashMap<>();
+
+        DiskLayoutOrder.Filefrag.parse(new BufferedReader(new StringReader(output)), files, blocks);
+
+        final Map<Path, Long> expected = new HashMap<>();
+        expected.put(files.get(0), 1213056L);
+        expected.put(files.get(3), 34816L);
+        assertThat(blocks, is(expected));
+    }
+
+    private static List<File> tempFiles(final int count) throws Exception {
+        final Path dir = createTempDirectory("sagu-test-");
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final Path file = createTempFile(dir, "sagu-test-", ".bin");
+            Files.write(file, new byte[4096 * (i + 1)]);
+            files.add(file.toFile());
+        }
+        return files;
+    }
+}
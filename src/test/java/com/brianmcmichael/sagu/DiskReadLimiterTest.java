@@ -0,0 +1,102 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.write;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DiskReadLimiterTest {
+
+    @Test
+    public void parseShouldRejectInvalidLimits() throws Exception {
+        for (String limits : new String[]{"/data", "=10MB", "/data=10 parsecs", "/data=10MB/many", "/data=10MB/0"}) {
+            try {
+                DiskReadLimiter.parse(limits);
+                throw new AssertionError("Limits " + limits + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void forFileShouldNotLimitWithoutLimits() throws Exception {
+        final Path file = createTempFile("sagu-test-", ".bin");
+
+        assertThat(DiskReadLimiter.parse("").forFile(file).isUnlimited(), is(true));
+        assertThat(DiskReadLimiter.unlimited().forFile(file).isUnlimited(), is(true));
+        assertThat(DiskReadLimiter.parse("/does/not/exist=1MB").forFile(file).isUnlimited(), is(true));
+    }
+
+    @Test
+    public void forFileShouldShareLimitOfMount() throws Exception {
+        final Path dir = createTempDirectory("sagu-test-");
+        final DiskReadLimiter limiter = DiskReadLimiter.parse(dir + "=40MB/200");
+
+        final DiskReadLimiter.Limit limit = limiter.forFile(createTempFile(dir, "a-", ".bin"));
+
+        assertThat(limit.isUnlimited(), is(false));
+        assertThat(limiter.forFile(createTempFile(dir, "b-", ".bin")), is(sameInstance(limit)));
+        assertThat(limiter.forFile(Paths.get(dir.toString(), "missing")), is(not(sameInstance(limit))));
+    }
+
+    @Test
+    public void acquireShouldKeepToReadsPerSecond() throws Exception {
+        final Path dir = createTempDirectory("sagu-test-");
+        final DiskReadLimiter.Limit limit = DiskReadLimiter.parse(dir + "=unlimited/20")
+                .forFile(createTempFile(dir, "sagu-test-", ".bin"));
+
+        final long started = System.nanoTime();
+        for (int i = 0; i < 30; i++) {
+            limit.acquire(1);
+        }
+        final long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        // twenty reads fit into the bucket, the other ten take half a second
+        assertThat("elapsed " + elapsedMillis, elapsedMillis >= 400);
+    }
+
+    @Test
+    public void wrapShouldKeepToBytesPerSecond() throws Exception {
+        final byte[] content = new byte[200 * 1024];
+        new Random(3).nextBytes(content);
+        final Path file = createTempFile("sagu-test-", ".bin");
+        write(file, content);
+        final DiskReadLimiter.Limit limit = DiskReadLimiter.parse(file.getParent() + "=100KB").forFile(file);
+
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        final long started = System.nanoTime();
+        try (InputStream in = limit.wrap(new FileInputStream(file.toFile()))) {
+            final byte[] buffer = new byte[16 * 1024];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                read.write(buffer, 0, length);
+            }
+        }
+        final long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        assertThat(read.toByteArray(), is(content));
+        // the first 100 KB fit into the bucket, the rest takes a second
+        assertThat("elapsed " + elapsedMillis, elapsedMillis >= 800);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import com.amazonaws.services.glacier.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.glacier.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.glacier.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.glacier.model.ListMultipartUploadsResult;
+import com.amazonaws.services.glacier.model.ListPartsRequest;
+import com.amazonaws.services.glacier.model.ListPartsResult;
+import com.amazonaws.services.glacier.model.PartListElement;
+import com.amazonaws.services.glacier.model.UploadArchiveRequest;
+import com.amazonaws.services.glacier.model.UploadArchiveResult;
+import com.amazonaws.services.glacier.model.UploadListElement;
+import com.amazonaws.services.glacier.model.UploadMultipartPartRequest;
+import com.amazonaws.services.glacier.model.UploadMultipartPartResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.amazonaws.services.glacier.TreeHashGenerator.calculateTreeHash;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.synchronizedMap;
+
+/**
+ * In-memory stand-in for Glacier multipart upload API. It checks checksums the same way Glacier does and returns
+ * listings in pages of {@link #pageSize} elements.
+ */
+class FakeGlacierClient extends AmazonGlacierClient {
+
+    final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    final Map<String, byte[]> archives = new ConcurrentHashMap<>();
+    final Set<String> aborted = newSetFromMap(new ConcurrentHashMap<>());
+    final AtomicInteger partRequests = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    volatile long failPartStartingAt = -1;
+    volatile long partDelayMillis = 0;
+    /** Start of the part whose first request hangs until it is interrupted. */
+    volatile long stallPartStartingAt = -1;
+    /** When set, the stalled request ignores interrupts like a blocked socket write and hangs until it opens. */
+    volatile CountDownLatch stallReleased;
+    volatile int pageSize = 2;
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    static class Upload {
+        final String vaultName;
+        final String description;
+        final long partSize;
+        final String creationDate = Instant.now().toString();
+        final Map<Long, byte[]> parts = synchronizedMap(new TreeMap<>());
+        final Map<Long, String> checksums = synchronizedMap(new TreeMap<>());
+
+        Upload(final String vaultName, final String description, final long partSize) {
+            this.vaultName = vaultName;
+            this.description = description;
+            this.partSize = partSize;
+        }
+
+        byte[] content() {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            synchronized (parts) {
+                parts.values().forEach(part -> out.write(part, 0, part.length));
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request) {
+        final String uploadId = "upload-" + ids.incrementAndGet();
+        uploads.put(uploadId, new Upload(request.getVaultName(), request.getArchiveDescription(),
+                Long.parseLong(request.getPartSize())));
+        return new InitiateMultipartUploadResult().withUploadId(uploadId);
+    }
+
+    @Override
+    public UploadMultipartPartResult uploadMultipartPart(final UploadMultipartPartRequest request) {
+        partRequests.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            final Upload upload = uploads.get(request.getUploadId());
+            if (upload == null) {
+                throw serviceException("ResourceNotFoundException", 404);
+            }
+            final String[] range = request.getRange().replace("bytes ", "").replace("/*", "").split("-");
+            final long start = Long.parseLong(range[0]);
+            final long end = Long.parseLong(range[1]);
+            if (start == failPartStartingAt) {
+                throw serviceException("ServiceUnavailableException", 500);
+            }
+            if (partDelayMillis > 0) {
+                Thread.sleep(partDelayMillis);
+            }
+            if (start == stallPartStartingAt) {
+                stallPartStartingAt = -1;
+                if (stallReleased == null) {
+                    Thread.sleep(Long.MAX_VALUE);
+                }
+                awaitUninterruptibly(stallReleased);
+            }
+            final byte[] data = readAll(request.getBody());
+            if (data.length != end - start + 1 || !calculateTreeHash(
+                    new ByteArrayInputStream(data)).equals(request.getChecksum())) {
+                throw serviceException("InvalidParameterValueException", 400);
+            }
+            upload.parts.put(start, data);
+            upload.checksums.put(start, request.getChecksum());
+            return new UploadMultipartPartResult().withChecksum(request.getChecksum());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw serviceException("RequestTimeoutException", 408);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request) {
+        final Upload upload = uploads.remove(request.getUploadId());
+        if (upload == null) {
+            throw serviceException("ResourceNotFoundException", 404);
+        }
+        final byte[] content = upload.content();
+        if (content.length != Long.parseLong(request.getArchiveSize())
+                || !calculateTreeHash(new ByteArrayInputStream(content)).equals(request.getChecksum())) {
+            throw serviceException("InvalidParameterValueException", 400);
+        }
+        final String archiveId = "archive-" + ids.incrementAndGet();
+        archives.put(archiveId, content);
+        return new CompleteMultipartUploadResult().withArchiveId(archiveId).withChecksum(request.getChecksum());
+    }
+
+    @Override
+    public void abortMultipartUpload(final AbortMultipartUploadRequest request) {
+        uploads.remove(request.getUploadId());
+        aborted.add(request.getUploadId());
+    }
+
+    @Override
+    public UploadArchiveResult uploadArchive(final UploadArchiveRequest request) {
+        final byte[] content = readAll(request.getBody());
+        final String archiveId = "archive-" + ids.incrementAndGet();
+        archives.put(archiveId, content);
+        return new UploadArchiveResult().withArchiveId(archiveId).withChecksum(request.getChecksum());
+    }
+
+    @Override
+    public ListMultipartUploadsResult listMultipartUploads(final ListMultipartUploadsRequest request) {
+        final List<String> ids = new ArrayList<>(new TreeMap<>(uploads).keySet());
+        final List<UploadListElement> page = new ArrayList<>();
+        final int from = request.getUploadIdMarker() == null ? 0 : ids.indexOf(request.getUploadIdMarker());
+        for (int i = from; i < ids.size() && page.size() < pageSize; i++) {
+            final Upload upload = uploads.get(ids.get(i));
+            page.add(new UploadListElement()
+                    .withMultipartUploadId(ids.get(i))
+                    .withArchiveDescription(upload.description)
+                    .withPartSizeInBytes(upload.partSize)
+                    .withCreationDate(upload.creationDate));
+        }
+        final int next = from + page.size();
+        return new ListMultipartUploadsResult()
+                .withUploadsList(page)
+                .withMarker(next < ids.size() ? ids.get(next) : null);
+    }
+
+    @Override
+    public ListPartsResult listParts(final ListPartsRequest request) {
+        final Upload upload = uploads.get(request.getUploadId());
+        if (upload == null) {
+            throw serviceException("ResourceNotFoundException", 404);
+        }
+        final List<Long> starts;
+        synchronized (upload.parts) {
+            starts = new ArrayList<>(upload.parts.keySet());
+        }
+        final List<PartListElement> page = new ArrayList<>();
+        final int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        for (int i = from; i < starts.size() && page.size() < pageSize; i++) {
+            final long start = starts.get(i);
+            page.add(new PartListElement()
+                    .withRangeInBytes(start + "-" + (start + upload.parts.get(start).length - 1))
+                    .withSHA256TreeHash(upload.checksums.get(start)));
+        }
+        final int next = from + page.size();
+        return new ListPartsResult()
+                .withParts(page)
+                .withMarker(next < starts.size() ? Integer.toString(next) : null);
+    }
+
+    private static AmazonServiceException serviceException(final String errorCode, final int statusCode) {
+        final AmazonServiceException exception = new AmazonServiceException(errorCode);
+        exception.setErrorCode(errorCode);
+        exception.setStatusCode(statusCode);
+        return exception;
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
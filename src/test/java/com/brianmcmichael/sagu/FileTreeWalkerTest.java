@@ -0,0 +1,104 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.brianmcmichael.sagu.FileTreeWalker.SymlinkPolicy.FILES;
+import static com.brianmcmichael.sagu.FileTreeWalker.SymlinkPolicy.FOLLOW;
+import static com.brianmcmichael.sagu.FileTreeWalker.SymlinkPolicy.SKIP;
+import static java.nio.file.Files.createTempDirectory;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FileTreeWalkerTest {
+
+    private Path root;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        root = createTempDirectory("sagu-walk-");
+        for (String name : asList("a.txt", "b.jpg", "photos/c.jpg", "photos/2015/d.jpg", "photos/2015/e.tmp",
+                "cache/f.txt")) {
+            final Path file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.write(file, name.getBytes());
+        }
+    }
+
+    @Test
+    public void walkShouldFindAllFilesInAllSubdirectories() throws Exception {
+        assertThat(walk(new FileTreeWalker(null, null, SKIP), root.toFile()),
+                is(names("a.txt", "b.jpg", "cache/f.txt", "photos/2015/d.jpg", "photos/2015/e.tmp",
+                        "photos/c.jpg")));
+    }
+
+    @Test
+    public void globsShouldIncludeAndExcludeFiles() throws Exception {
+        assertThat(walk(new FileTreeWalker("*.jpg", null, SKIP), root.toFile()),
+                is(names("b.jpg", "photos/2015/d.jpg", "photos/c.jpg")));
+        assertThat(walk(new FileTreeWalker("photos/**", "*.tmp", SKIP), root.toFile()),
+                is(names("photos/2015/d.jpg", "photos/c.jpg")));
+        assertThat(walk(new FileTreeWalker(null, "cache, 2015", SKIP), root.toFile()),
+                is(names("a.txt", "b.jpg", "photos/c.jpg")));
+    }
+
+    @Test
+    public void fileRootsShouldBeReturnedAsTheyAre() throws Exception {
+        assertThat(walk(new FileTreeWalker("*.jpg", null, SKIP), root.resolve("a.txt").toFile()),
+                is(names("a.txt")));
+    }
+
+    @Test
+    public void symlinkPolicyShouldDecideWhichLinksAreFollowed() throws Exception {
+        Files.createSymbolicLink(root.resolve("link.txt"), root.resolve("a.txt"));
+        Files.createSymbolicLink(root.resolve("photos/2015/back"), root.resolve("photos"));
+
+        assertThat(walk(new FileTreeWalker("*.txt", null, SKIP), root.toFile()), is(names("a.txt", "cache/f.txt")));
+        assertThat(walk(new FileTreeWalker("*.txt", null, FILES), root.toFile()),
+                is(names("a.txt", "cache/f.txt", "link.txt")));
+        // the link back to photos is a loop, it is not followed
+        assertThat(walk(new FileTreeWalker("*.jpg", null, FOLLOW), root.toFile()),
+                is(names("b.jpg", "photos/2015/d.jpg", "photos/c.jpg")));
+        // from inside, the link leads out once and stops where the walk came back to its start
+        assertThat(walk(new FileTreeWalker("*.jpg", null, FOLLOW), root.resolve("photos/2015").toFile()),
+                is(names("photos/2015/back/2015/d.jpg", "photos/2015/back/c.jpg", "photos/2015/d.jpg")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidGlobShouldBeRejected() throws Exception {
+        new FileTreeWalker("[a", null, SKIP);
+    }
+
+    private Set<String> walk(final FileTreeWalker walker, final File start) {
+        final Set<String> found = new TreeSet<>();
+        try (FileTreeWalker.Walk walk = walker.walk(singletonList(start))) {
+            while (walk.hasNext()) {
+                final Path file = walk.next().toPath();
+                found.add((file.startsWith(root) ? root.relativize(file) : file).toString().replace(File.separatorChar,
+                        '/'));
+            }
+            assertThat(walk.getErrors().isEmpty(), is(true));
+        }
+        return found;
+    }
+
+    private static Set<String> names(final String... names) {
+        return new TreeSet<>(asList(names));
+    }
+}
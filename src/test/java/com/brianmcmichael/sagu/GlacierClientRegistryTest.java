@@ -0,0 +1,83 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+
+import static com.brianmcmichael.sagu.Endpoint.EU_WEST_IRELAND;
+import static com.brianmcmichael.sagu.Endpoint.US_EAST_NVIRGINIA;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.write;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GlacierClientRegistryTest {
+
+    @Test
+    public void getClientShouldReuseClientForSameCredentialsAndEndpoint() throws Exception {
+        final GlacierClientRegistry registry = new GlacierClientRegistry(new AppProperties(
+                createTempDirectory("sagu-test-")));
+
+        final AmazonGlacierClient client = registry.getClient("AC", "SE", US_EAST_NVIRGINIA);
+
+        assertThat(registry.getClient("AC", "SE", US_EAST_NVIRGINIA), is(sameInstance(client)));
+        assertThat(registry.getClient("AC", "SE", EU_WEST_IRELAND), is(not(sameInstance(client))));
+        assertThat(registry.getClient("AC", "OTHER", US_EAST_NVIRGINIA), is(not(sameInstance(client))));
+    }
+
+    @Test
+    public void constructorShouldConfigureConnectionPoolFromProperties() throws Exception {
+        final Path dir = createTempDirectory("sagu-test-");
+        write(dir.resolve("SAGU.properties"), asList("maxConnections=7", "tcpKeepAlive=false",
+                "connectionIdleSeconds=10", "connectionTtlSeconds=20"));
+
+        final ClientConfiguration configuration = new GlacierClientRegistry(new AppProperties(dir))
+                .getConfiguration();
+
+        assertThat(configuration.getMaxConnections(), is(7));
+        assertThat(configuration.useTcpKeepAlive(), is(false));
+        assertThat(configuration.getConnectionMaxIdleMillis(), is(10000L));
+        assertThat(configuration.getConnectionTTL(), is(20000L));
+        assertThat(configuration.useReaper(), is(true));
+    }
+
+    @Test
+    public void clientsShouldShareLimiterConfiguredFromProperties() throws Exception {
+        final Path dir = createTempDirectory("sagu-test-");
+        write(dir.resolve("SAGU.properties"), asList("bandwidthLimit=8Mbit"));
+
+        final GlacierClientRegistry registry = new GlacierClientRegistry(new AppProperties(dir));
+
+        assertThat(registry.getClient("AC", "SE", US_EAST_NVIRGINIA) instanceof ThrottledGlacierClient, is(true));
+        assertThat(registry.getLimiter().getRate(), is(1000000L));
+    }
+
+    @Test
+    public void everyClientShouldStartWithUploadThreadsAndGrowWithinPool() throws Exception {
+        final Path dir = createTempDirectory("sagu-test-");
+        write(dir.resolve("SAGU.properties"), asList("uploadThreads=4", "concurrentFiles=3", "maxConnections=10"));
+        final GlacierClientRegistry registry = new GlacierClientRegistry(new AppProperties(dir));
+
+        final ThrottledGlacierClient client = (ThrottledGlacierClient) registry.getClient("AC", "SE",
+                US_EAST_NVIRGINIA);
+        final ThrottledGlacierClient other = (ThrottledGlacierClient) registry.getClient("AC", "SE",
+                EU_WEST_IRELAND);
+
+        assertThat(client.getConcurrency().getLimit(), is(4));
+        assertThat(client.getConcurrency().getMaxLimit(), is(10));
+        assertThat(other.getConcurrency(), is(not(sameInstance(client.getConcurrency()))));
+    }
+}
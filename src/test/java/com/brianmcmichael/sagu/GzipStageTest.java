@@ -0,0 +1,88 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GzipStageTest {
+
+    @Test
+    public void compressedStreamShouldBeReadableByGzip() throws Exception {
+        final byte[] content = textContent(3 * GzipStage.BLOCK_SIZE + 1234);
+
+        final byte[] compressed = compress(content, 4);
+
+        assertThat(gunzip(compressed), is(content));
+        assertThat(compressed.length < content.length / 4, is(true));
+    }
+
+    @Test
+    public void emptyStreamShouldBeValidGzip() throws Exception {
+        assertThat(gunzip(compress(new byte[0], 2)).length, is(0));
+    }
+
+    @Test
+    public void incompressibleContentShouldStayWithinMaxCompressedLength() throws Exception {
+        final byte[] content = randomContent(2 * GzipStage.BLOCK_SIZE + 5);
+
+        final byte[] compressed = compress(content, 2);
+
+        assertThat(gunzip(compressed), is(content));
+        assertThat(compressed.length <= GzipStage.maxCompressedLength(content.length), is(true));
+    }
+
+    @Test
+    public void isCompressibleShouldRejectRandomContentOnly() throws Exception {
+        assertThat(GzipStage.isCompressible(tempFile(textContent(3 * 1024 * 1024))), is(true));
+        assertThat(GzipStage.isCompressible(tempFile(randomContent(3 * 1024 * 1024))), is(false));
+    }
+
+    private static byte[] compress(final byte[] content, final int threads) throws IOException {
+        try (InputStream in = new ParallelBlockPipeline(new ByteArrayInputStream(content), GzipStage.BLOCK_SIZE,
+                threads, new GzipStage(6))) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] gunzip(final byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] textContent(final int length) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < length; i++) {
+            text.append("2015-10-14 12:00:").append(i % 60).append(" INFO uploaded part ").append(i).append('\n');
+        }
+        return text.substring(0, length).getBytes(UTF_8);
+    }
+
+    static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static java.nio.file.Files.createTempDirectory;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class HashCacheTest {
+
+    private Path dir;
+    private CountingHasher hasher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = createTempDirectory("sagu-hash-cache-");
+        hasher = new CountingHasher();
+    }
+
+    @Test
+    public void unchangedFileShouldNotBeHashedAgain() throws Exception {
+        final File file = oldFile(randomContent(3000));
+        final String expected = new ParallelTreeHasher().calculateTreeHash(file);
+
+        assertThat(new HashCache(dir, hasher).treeHash(file), is(expected));
+        assertThat(new HashCache(dir, hasher).treeHash(file), is(expected));
+        assertThat(new HashCache(dir, hasher).get(file), is(expected));
+        assertThat(hasher.count.get(), is(1));
+    }
+
+    @Test
+    public void changedFileShouldBeHashedAgain() throws Exception {
+        final File file = oldFile(randomContent(3000));
+        final HashCache cache = new HashCache(dir, hasher);
+        cache.treeHash(file);
+
+        Files.write(file.toPath(), randomContent(3001));
+        setOld(file);
+
+        assertThat(cache.get(file), is(nullValue()));
+        assertThat(cache.treeHash(file), is(new ParallelTreeHasher().calculateTreeHash(file)));
+        assertThat(hasher.count.get(), is(2));
+    }
+
+    @Test
+    public void recentlyModifiedFileShouldNotBeCached() throws Exception {
+        final File file = tempFile(randomContent(3000));
+        final HashCache cache = new HashCache(dir, hasher);
+
+        cache.treeHash(file);
+        cache.treeHash(file);
+
+        assertThat(hasher.count.get(), is(2));
+        assertThat(Files.exists(dir.resolve(HashCache.CACHE_FILE_NAME)), is(false));
+    }
+
+    @Test
+    public void outdatedLinesShouldBeCompacted() throws Exception {
+        final File file = oldFile(randomContent(10));
+        for (int i = 0; i < 1200; i++) {
+            Files.write(file.toPath(), randomContent(10 + i % 2));
+            setOld(file);
+            // every new version of the file is appended to the cache file
+            new HashCache(dir, hasher).treeHash(file);
+        }
+
+        new HashCache(dir, hasher);
+
+        assertThat(Files.readAllLines(dir.resolve(HashCache.CACHE_FILE_NAME)).size() < 1000, is(true));
+    }
+
+    private static File oldFile(final byte[] content) throws Exception {
+        final File file = tempFile(content);
+        setOld(file);
+        return file;
+    }
+
+    private static void setOld(final File file) throws IOException {
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(
+                System.currentTimeMillis() - 60000 - Files.size(file.toPath()) * 1000));
+    }
+
+    private static class CountingHasher extends ParallelTreeHasher {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String calculateTreeHash(final File file) throws IOException {
+            count.incrementAndGet();
+            return super.calculateTreeHash(file);
+        }
+    }
+}
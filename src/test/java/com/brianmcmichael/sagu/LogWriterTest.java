@@ -11,7 +11,9 @@ package com.brianmcmichael.sagu;
 import org.testng.annotations.Test;
 
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.brianmcmichael.sagu.LogWriter.getLogFile;
 import static java.lang.System.getProperty;
@@ -82,4 +84,29 @@ public class LogWriterTest {
         assertThat(yamlLines.get(6).matches("   Date:      \".*\""), is(true));
         assertThat(yamlLines.get(7), is("   Hash:      \"test_hash\""));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void logUploadedFileShouldAppendDetails() throws Exception {
+        final AppProperties properties = mock(AppProperties.class);
+        final Path tempDir = createTempDirectory("sagu");
+        when(properties.getDir()).thenReturn(tempDir);
+        final Map<String, String> details = new LinkedHashMap<>();
+        details.put("Compression", "gzip");
+        details.put("OriginalBytes", "1000");
+
+        final LogWriter logWriter = new LogWriter(properties);
+        logWriter.logUploadedFile("vault", "region", "file", "100", "hash", "id", details);
+
+        final List<String> logLines = readAllLines(getLogFile(0, properties).toPath());
+        assertThat(logLines.get(2).endsWith(
+                " | Hash: hash  | Compression: gzip  | OriginalBytes: 1000 "), is(true));
+
+        final List<String> csvLines = readAllLines(getLogFile(2, properties).toPath());
+        assertThat(csvLines.get(0).endsWith("\"hash\",\"Compression=gzip\",\"OriginalBytes=1000\""), is(true));
+
+        final List<String> yamlLines = readAllLines(getLogFile(3, properties).toPath());
+        assertThat(yamlLines.size(), is(10));
+        assertThat(yamlLines.get(8), is("   Compression: \"gzip\""));
+        assertThat(yamlLines.get(9), is("   OriginalBytes: \"1000\""));
+    }
+}
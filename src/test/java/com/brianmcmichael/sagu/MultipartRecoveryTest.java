@@ -0,0 +1,117 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.services.glacier.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.UploadListElement;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.NavigableMap;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.createTempFile;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MultipartRecoveryTest {
+
+    @Test
+    public void listUploadsShouldReadAllPages() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        for (int i = 0; i < 5; i++) {
+            initiate(client, "file" + i, MB);
+        }
+
+        assertThat(new MultipartRecovery(client).listUploads("vault").size(), is(5));
+    }
+
+    @Test
+    public void claimShouldMatchDescriptionOnlyOnce() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        initiate(client, "other", MB);
+        final String uploadId = initiate(client, "file", 2 * MB);
+        final MultipartRecovery recovery = new MultipartRecovery(client);
+
+        final UploadListElement claimed = recovery.claim("vault", "file", 10 * MB);
+
+        assertThat(claimed.getMultipartUploadId(), is(uploadId));
+        assertThat(recovery.claim("vault", "file", 10 * MB), is(nullValue()));
+        assertThat(recovery.claim("vault", "missing", 10 * MB), is(nullValue()));
+    }
+
+    @Test
+    public void claimShouldSkipUploadWithTooSmallPartsForFile() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        initiate(client, "file", MB);
+
+        assertThat(new MultipartRecovery(client).claim("vault", "file", 20000 * MB), is(nullValue()));
+    }
+
+    @Test
+    public void listPartsShouldReturnTreeHashesByPartStart() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final String uploadId = initiate(client, "file", MB);
+        for (long start = 0; start < 3 * MB; start += MB) {
+            client.uploads.get(uploadId).parts.put(start, new byte[(int) MB]);
+            client.uploads.get(uploadId).checksums.put(start, toHex(new byte[]{(byte) (start / MB)}));
+        }
+
+        final NavigableMap<Long, byte[]> parts = new MultipartRecovery(client).listParts("vault", uploadId);
+
+        assertThat(parts.keySet().toString(), is("[0, " + MB + ", " + 2 * MB + "]"));
+        assertThat(parts.get(2 * MB), is(new byte[]{2}));
+    }
+
+    @Test
+    public void abortStaleShouldAbortOnlyOldUploads() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        initiate(client, "file1", MB);
+        initiate(client, "file2", MB);
+        final MultipartRecovery recovery = new MultipartRecovery(client);
+
+        assertThat(recovery.abortStale("vault", DAYS.toMillis(1), null), is(0));
+        assertThat(recovery.abortStale("vault", DAYS.toMillis(1), null,
+                System.currentTimeMillis() + DAYS.toMillis(2)), is(2));
+        assertThat(client.uploads.isEmpty(), is(true));
+        assertThat(client.aborted.size(), is(2));
+    }
+
+    @Test
+    public void abortStaleShouldKeepUploadsWithJournal() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final String journaled = initiate(client, "file1", MB);
+        final String other = initiate(client, "file2", MB);
+        final Path journalDir = createTempDirectory("sagu-journal-");
+        final File file = createTempFile("sagu-test-", ".bin").toFile();
+        try (UploadJournal journal = UploadJournal.open(journalDir, "vault", file)) {
+            journal.start(journaled, MB);
+        }
+        // a journal of another vault does not keep the upload
+        try (UploadJournal journal = UploadJournal.open(journalDir, "other", file)) {
+            journal.start(other, MB);
+        }
+
+        assertThat(new MultipartRecovery(client).abortStale("vault", DAYS.toMillis(1), journalDir,
+                System.currentTimeMillis() + DAYS.toMillis(2)), is(1));
+        assertThat(client.uploads.keySet().toString(), is("[" + journaled + "]"));
+    }
+
+    private static String initiate(final FakeGlacierClient client, final String description, final long partSize) {
+        return client.initiateMultipartUpload(new InitiateMultipartUploadRequest()
+                .withVaultName("vault")
+                .withArchiveDescription(description)
+                .withPartSize(Long.toString(partSize))).getUploadId();
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.AmazonServiceException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static com.amazonaws.services.glacier.TreeHashGenerator.calculateTreeHash;
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.MultipartUploader.isValidPartSize;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.write;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MultipartUploaderTest {
+
+    @Test
+    public void isValidPartSizeShouldAcceptOnlyPowerOfTwoMegabytes() throws Exception {
+        assertThat(isValidPartSize(MB), is(true));
+        assertThat(isValidPartSize(2 * MB), is(true));
+        assertThat(isValidPartSize(64 * MB), is(true));
+        assertThat(isValidPartSize(0), is(false));
+        assertThat(isValidPartSize(MB / 2), is(false));
+        assertThat(isValidPartSize(3 * MB), is(false));
+        assertThat(isValidPartSize(MB + 1), is(false));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void constructorShouldRejectInvalidPartSize() throws Exception {
+        new MultipartUploader.Builder(new FakeGlacierClient(), 2, 3 * MB).build();
+    }
+
+    @Test
+    public void uploadShouldSendAllPartsAndCompleteArchive() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final byte[] content = randomContent(5 * MB + 12345);
+        final File file = tempFile(content);
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 3, MB).build()) {
+            result = uploader.upload("vault", "description", file, null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(result.getTreeHash(), is(calculateTreeHash(file)));
+        assertThat(result.getLength(), is(file.length()));
+        assertThat(client.partRequests.get(), is(6));
+        assertThat(client.uploads.isEmpty(), is(true));
+    }
+
+    @Test
+    public void uploadShouldKeepSeveralPartsInFlight() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.partDelayMillis = 100;
+        final File file = tempFile(randomContent(8 * MB));
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 4, MB).build()) {
+            uploader.upload("vault", "description", file, null);
+        }
+
+        assertThat(client.maxInFlight.get(), is(4));
+    }
+
+    @Test
+    public void partsInFlightShouldGrowPastThreadsWhenGlacierKeepsUp() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.partDelayMillis = 50;
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 8, new TransferMetrics());
+        final byte[] content = randomContent(32 * MB);
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB)
+                .withReadAhead(new ReadAhead(8))
+                .withBufferPool(new PartBufferPool(PartBufferPool.UNLIMITED, new TransferMetrics()))
+                .withConcurrency(concurrency)
+                .withHedging(PartHedger.DEFAULT_MIN_STALL_MILLIS, 1000)
+                .build()) {
+            result = uploader.upload("vault", "description", tempFile(content), null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(concurrency.getLimit() > 2, is(true));
+        assertThat(client.maxInFlight.get() > 2, is(true));
+    }
+
+    @Test
+    public void uploadShouldHandleEmptyFile() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final File file = tempFile(new byte[0]);
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            result = uploader.upload("vault", "description", file, null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()).length, is(0));
+    }
+
+    @Test
+    public void uploadShouldAbortWhenPartFails() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = 2 * MB;
+        final File file = tempFile(randomContent(4 * MB));
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            uploader.upload("vault", "description", file, null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+
+        assertThat(client.aborted.size(), is(1));
+        assertThat(client.archives.isEmpty(), is(true));
+    }
+
+    @Test(timeOut = 10000)
+    public void uploadShouldHedgeStalledPart() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.stallPartStartingAt = 4 * MB;
+        final byte[] content = randomContent(6 * MB);
+        final TransferMetrics metrics = TransferMetrics.getInstance();
+        final long hedgesWon = metrics.getHedgesWon();
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB)
+                .withBufferPool(new PartBufferPool(PartBufferPool.UNLIMITED, metrics))
+                .withConcurrency(null)
+                .withHedging(200, 20)
+                .build()) {
+            result = uploader.upload("vault", "description", tempFile(content), null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(client.partRequests.get(), is(7));
+        assertThat(metrics.getHedgesWon(), is(hedgesWon + 1));
+    }
+
+    @Test(timeOut = 10000)
+    public void losingRequestShouldHoldBufferAndPermitUntilItEnds() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.stallPartStartingAt = 4 * MB;
+        client.stallReleased = new CountDownLatch(1);
+        final byte[] content = randomContent(6 * MB);
+        final TransferMetrics metrics = new TransferMetrics();
+        final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 2, metrics);
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB)
+                .withBufferPool(new PartBufferPool(PartBufferPool.UNLIMITED, metrics))
+                .withConcurrency(concurrency)
+                .withHedging(200, 20)
+                .build()) {
+            final UploadedArchive result = uploader.upload("vault", "description", tempFile(content), null);
+            assertThat(client.archives.get(result.getArchiveId()), is(content));
+
+            // the loser ignored its cancellation and still holds the part's buffer and one of the two permits
+            assertThat(metrics.getBufferBytesInUse(), is(MB));
+            final CompletableFuture<Void> bothPermits = CompletableFuture.runAsync(() -> {
+                concurrency.acquire().completed(0);
+                final AdaptiveConcurrency.Permit first = concurrency.acquire();
+                concurrency.acquire().completed(0);
+                first.completed(0);
+            });
+            Thread.sleep(200);
+            assertThat(bothPermits.isDone(), is(false));
+
+            client.stallReleased.countDown();
+            bothPermits.get(5, SECONDS);
+            assertThat(metrics.getBufferBytesInUse(), is(0L));
+        }
+    }
+
+    @Test
+    public void uploadsShouldStayWithinBufferBudgetAndReturnAllBuffers() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.partDelayMillis = 20;
+        final byte[] content = randomContent(6 * MB + 100);
+        final TransferMetrics metrics = new TransferMetrics();
+        final PartBufferPool pool = new PartBufferPool(2 * MB, metrics);
+
+        final UploadedArchive fromFile;
+        final UploadedArchive fromStream;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 4, MB)
+                .withReadAhead(new ReadAhead(2))
+                .withBufferPool(pool)
+                .build()) {
+            fromFile = uploader.upload("vault", "file", tempFile(content), null);
+            fromStream = uploader.upload("vault", "stream", new ByteArrayInputStream(content), content.length,
+                    null);
+        }
+
+        assertThat(client.archives.get(fromFile.getArchiveId()), is(content));
+        assertThat(client.archives.get(fromStream.getArchiveId()), is(content));
+        assertThat(client.maxInFlight.get() <= 2, is(true));
+        assertThat(pool.getAllocated() <= 2 * MB, is(true));
+        assertThat(metrics.getBufferBytesInUse(), is(0L));
+    }
+
+    @Test
+    public void uploadShouldReadFilePastPageCacheWhenAsked() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final byte[] content = randomContent(3 * MB + 4321);
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB)
+                .withBufferPool(new PartBufferPool(PartBufferPool.UNLIMITED, new TransferMetrics()))
+                .withUncachedReads(true)
+                .build()) {
+            result = uploader.upload("vault", "description", tempFile(content), null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+    }
+
+    @Test
+    public void failedUploadShouldReturnAllBuffers() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = 2 * MB;
+        client.partDelayMillis = 20;
+        final TransferMetrics metrics = new TransferMetrics();
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB)
+                .withReadAhead(new ReadAhead(4))
+                .withBufferPool(new PartBufferPool(PartBufferPool.UNLIMITED, metrics))
+                .build()) {
+            uploader.upload("vault", "description", tempFile(randomContent(10 * MB)), null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+
+        assertThat(metrics.getBufferBytesInUse(), is(0L));
+    }
+
+    @Test
+    public void uploadStreamShouldSendAllPartsAndCompleteArchive() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.partDelayMillis = 20;
+        final byte[] content = randomContent(6 * MB + 777);
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            result = uploader.upload("vault", "description", new ByteArrayInputStream(content), content.length,
+                    null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(result.getTreeHash(), is(calculateTreeHash(tempFile(content))));
+        assertThat(client.partRequests.get(), is(7));
+        assertThat(client.maxInFlight.get() <= 2, is(true));
+    }
+
+    @Test
+    public void uploadStreamShouldAbortWhenStreamIsShorterThanAnnounced() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final byte[] content = randomContent(2 * MB);
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            uploader.upload("vault", "description", new ByteArrayInputStream(content), content.length + 1, null);
+            throw new AssertionError("Upload should fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertThat(client.aborted.size(), is(1));
+        assertThat(client.archives.isEmpty(), is(true));
+    }
+
+    @Test
+    public void uploadStreamShouldAbortWhenStreamIsLongerThanAnnounced() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final byte[] content = randomContent(2 * MB);
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            uploader.upload("vault", "description", new ByteArrayInputStream(content), content.length - 1, null);
+            throw new AssertionError("Upload should fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertThat(client.aborted.size(), is(1));
+        assertThat(client.archives.isEmpty(), is(true));
+    }
+
+    @Test
+    public void uploadShouldStopReadingFileAheadWhenPartFails() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = 0;
+        final File file = tempFile(randomContent(20 * MB));
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withReadAhead(new ReadAhead(1))
+                .build()) {
+            uploader.upload("vault", "description", file, null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+
+        assertThat(client.partRequests.get() <= 3, is(true));
+        assertThat(client.aborted.size(), is(1));
+    }
+
+    @Test
+    public void uploadUpToShouldUploadStreamOfUnknownLength() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final byte[] content = randomContent(3 * MB + 5);
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            result = uploader.uploadUpTo("vault", "description", new ByteArrayInputStream(content), 10 * MB, null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(result.getLength(), is((long) content.length));
+        assertThat(client.partRequests.get(), is(4));
+    }
+
+    @Test
+    public void uploadUpToShouldUploadEmptyStreamAsEmptyArchive() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB).build()) {
+            result = uploader.uploadUpTo("vault", "description", new ByteArrayInputStream(new byte[0]), MB, null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()).length, is(0));
+        assertThat(client.partRequests.get(), is(0));
+    }
+
+    @Test
+    public void uploadWithJournalShouldKeepFailedUploadOpenAndResumeIt() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = 2 * MB;
+        final byte[] content = randomContent(4 * MB + 100);
+        final File file = tempFile(content);
+        final Path journalDir = createTempDirectory("sagu-journal-");
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withJournalDir(journalDir)
+                .build()) {
+            uploader.upload("vault", "description", file, null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+        assertThat(client.aborted.isEmpty(), is(true));
+        assertThat(client.uploads.size(), is(1));
+        final int uploadedParts = client.uploads.values().iterator().next().parts.size();
+
+        client.failPartStartingAt = -1;
+        client.partRequests.set(0);
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withJournalDir(journalDir)
+                .build()) {
+            result = uploader.upload("vault", "description", file, null);
+        }
+
+        assertThat(client.partRequests.get(), is(5 - uploadedParts));
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(result.getTreeHash(), is(calculateTreeHash(file)));
+        assertThat(client.uploads.isEmpty(), is(true));
+        assertThat(journalDir.toFile().list().length, is(0));
+    }
+
+    @Test
+    public void uploadWithJournalShouldStartAgainWhenUploadNoLongerExists() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = MB;
+        final byte[] content = randomContent(3 * MB);
+        final File file = tempFile(content);
+        final Path journalDir = createTempDirectory("sagu-journal-");
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withJournalDir(journalDir)
+                .build()) {
+            uploader.upload("vault", "description", file, null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+        client.uploads.clear();
+
+        client.failPartStartingAt = -1;
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withJournalDir(journalDir)
+                .build()) {
+            result = uploader.upload("vault", "description", file, null);
+        }
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+    }
+
+    @Test
+    public void uploadWithJournalShouldStartAgainWhenLastPartChanged() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = 2 * MB;
+        final byte[] content = randomContent(3 * MB);
+        final File file = tempFile(content);
+        final long lastModified = file.lastModified();
+        final Path journalDir = createTempDirectory("sagu-journal-");
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withJournalDir(journalDir)
+                .build()) {
+            uploader.upload("vault", "description", file, null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+        content[(int) MB + 1]++;
+        write(file.toPath(), content);
+        assertThat(file.setLastModified(lastModified), is(true));
+
+        client.failPartStartingAt = -1;
+        client.partRequests.set(0);
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withJournalDir(journalDir)
+                .build()) {
+            result = uploader.upload("vault", "description", file, null);
+        }
+
+        assertThat(client.partRequests.get(), is(3));
+        assertThat(client.aborted.size(), is(1));
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+    }
+
+    @Test
+    public void uploadWithRecoveryShouldResumeUploadOpenOnServer() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        client.failPartStartingAt = 2 * MB;
+        final byte[] content = randomContent(4 * MB);
+        final File file = tempFile(content);
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 1, MB)
+                .withRecovery(new MultipartRecovery(client))
+                .build()) {
+            uploader.upload("vault", "description", file, null);
+            throw new AssertionError("Upload should fail");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("ServiceUnavailableException"));
+        }
+        assertThat(client.aborted.isEmpty(), is(true));
+        final int uploadedParts = client.uploads.values().iterator().next().parts.size();
+
+        content[1]++;
+        write(file.toPath(), content);
+        client.failPartStartingAt = -1;
+        client.partRequests.set(0);
+        final UploadedArchive result;
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, MB)
+                .withRecovery(new MultipartRecovery(client))
+                .build()) {
+            result = uploader.upload("vault", "description", file, null);
+        }
+
+        // the missing parts and the changed first part
+        assertThat(client.partRequests.get(), is(4 - uploadedParts + 1));
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(client.uploads.isEmpty(), is(true));
+    }
+
+    @Test
+    public void uploadShouldReportPartPlan() throws Exception {
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final File file = tempFile(randomContent(5 * MB));
+        final List<String> plans = new ArrayList<>();
+
+        try (MultipartUploader uploader = new MultipartUploader.Builder(client, 2, 2 * MB).build()) {
+            uploader.upload("vault", "description", file, null, plan -> plans.add(plan.toString()));
+        }
+
+        assertThat(plans, is(asList("3 parts of 2 MB")));
+        assertThat(client.uploads.isEmpty(), is(true));
+    }
+
+    static byte[] randomContent(final long length) {
+        final byte[] content = new byte[(int) length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    static File tempFile(final byte[] content) throws Exception {
+        final File file = createTempFile("sagu-upload-", ".bin").toFile();
+        file.deleteOnExit();
+        write(file.toPath(), content);
+        return file;
+    }
+}
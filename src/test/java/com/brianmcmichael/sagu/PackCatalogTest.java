@@ -0,0 +1,59 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.readAllLines;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PackCatalogTest {
+
+    @Test
+    public void logContainerShouldWriteHeaderOnceAndOneLinePerMember() throws Exception {
+        final Path dir = createTempDirectory("sagu-catalog-");
+        final TarStream tar = new TarStream(asList(tempFile(new byte[]{1}), tempFile(new byte[]{2})),
+                asList("a \"quoted\" name", "b"));
+        try (InputStream in = tar) {
+            while (in.read() >= 0) {
+                // stream the members so their hashes are known
+            }
+        }
+        final PackCatalog catalog = new PackCatalog(dir);
+        final UploadedArchive archive = new UploadedArchive("archive-1", "hash", tar.getLength());
+
+        catalog.logContainer("vault", "US_EAST_1", "SAGU-pack-1.tar", archive, tar.getMembers());
+        catalog.logContainer("vault", "US_EAST_1", "SAGU-pack-2.tar", archive, tar.getMembers());
+
+        final List<String> lines = readAllLines(catalog.getFile(), UTF_8);
+        assertThat(lines.size(), is(5));
+        assertThat(lines.get(0), startsWith("\"ArchiveID\","));
+        assertThat(lines.get(1), startsWith("\"archive-1\",\"SAGU-pack-1.tar\",\"a \"\"quoted\"\" name\",\"512\","
+                + "\"1\",\"" + tar.getMembers().get(0).getSha256() + "\",\"vault\",\"US_EAST_1\","));
+        assertThat(lines.get(4), startsWith("\"archive-1\",\"SAGU-pack-2.tar\",\"b\",\"1536\",\"1\","));
+    }
+
+    @Test
+    public void retrievalRangeShouldBeMegabyteAligned() throws Exception {
+        assertThat(PackCatalog.retrievalRange(512, 100, 10 * MB), is("0-" + (MB - 1)));
+        assertThat(PackCatalog.retrievalRange(MB - 10, 20, 10 * MB), is("0-" + (2 * MB - 1)));
+        assertThat(PackCatalog.retrievalRange(9 * MB + 5, 100, 9 * MB + 2048), is(9 * MB + "-" + (9 * MB + 2047)));
+    }
+}
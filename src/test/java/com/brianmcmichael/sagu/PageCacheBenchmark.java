@@ -0,0 +1,106 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+
+/**
+ * Measures how much of the page cache reading a file for upload takes and how fast it is read, through the page
+ * cache as files were read before and with uncached reads of {@link PartReader}. The page cache is measured as the
+ * growth of {@code Cached} in {@code /proc/meminfo}, so it runs on Linux only and other activity on the machine shows
+ * in the numbers. The caches are dropped before every read, which needs root; without it the file written by the
+ * benchmark is cached already and the numbers show nothing. It is not run as a test:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * sudo java -cp target/classes:target/test-classes:$(cat cp.txt) com.brianmcmichael.sagu.PageCacheBenchmark [MB] [DIR]
+ * </pre>
+ */
+public class PageCacheBenchmark {
+
+    private static final int PART_SIZE = (int) (16 * MB);
+    private static final int ROUNDS = 3;
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+    private static final Path DROP_CACHES = Paths.get("/proc/sys/vm/drop_caches");
+
+    public static void main(final String[] args) throws Exception {
+        final long fileMB = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+        final File dir = args.length > 1 ? new File(args[1]) : null;
+        final File file = File.createTempFile("sagu-benchmark", ".bin", dir);
+        file.deleteOnExit();
+        writeRandom(file, fileMB * MB);
+        if (!dropCaches()) {
+            System.out.println("Page cache cannot be dropped, run as root for meaningful numbers");
+        }
+
+        final ByteBuffer part = ByteBuffer.allocateDirect(PART_SIZE);
+        for (int round = 1; round <= ROUNDS; round++) {
+            measure("page cache, round " + round, file, false, part);
+            measure("uncached, round " + round, file, true, part);
+        }
+    }
+
+    private static void measure(final String name, final File file, final boolean uncached, final ByteBuffer part)
+            throws IOException, InterruptedException {
+        dropCaches();
+        final long cachedBefore = cachedKB();
+        final long started = System.nanoTime();
+        final boolean direct;
+        try (PartReader reader = PartReader.open(file.toPath(), uncached)) {
+            for (long start = 0; start < file.length(); start += PART_SIZE) {
+                part.clear();
+                part.limit((int) Math.min(PART_SIZE, file.length() - start));
+                reader.readFully(part, start);
+            }
+            direct = reader.isDirect();
+        }
+        final long elapsed = System.nanoTime() - started;
+        System.out.printf("%-24s %-9s %8.1f MB added to page cache %8.1f MB/s%n", name,
+                direct ? "O_DIRECT" : "buffered", (cachedKB() - cachedBefore) / 1024.0,
+                file.length() / (elapsed / 1e9) / MB);
+    }
+
+    private static boolean dropCaches() throws IOException, InterruptedException {
+        if (!Files.isWritable(DROP_CACHES)) {
+            return false;
+        }
+        new ProcessBuilder("sync").inheritIO().start().waitFor();
+        Files.write(DROP_CACHES, "1".getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    private static long cachedKB() throws IOException {
+        for (String line : Files.readAllLines(MEMINFO, StandardCharsets.US_ASCII)) {
+            if (line.startsWith("Cached:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        throw new IOException("No Cached line in " + MEMINFO);
+    }
+
+    private static void writeRandom(final File file, final long length) throws IOException {
+        final byte[] block = new byte[(int) MB];
+        new Random(1).nextBytes(block);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < length; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, length - written));
+            }
+            out.getFD().sync();
+        }
+    }
+}
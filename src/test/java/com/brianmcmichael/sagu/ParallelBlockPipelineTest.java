@@ -0,0 +1,166 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import static com.brianmcmichael.sagu.GzipStageTest.readAll;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ParallelBlockPipelineTest {
+
+    @Test
+    public void blocksShouldBeReturnedInSourceOrderBetweenHeaderAndTrailer() throws Exception {
+        final Random random = new Random(1);
+        final ParallelBlockPipeline.Stage stage = new ParallelBlockPipeline.Stage() {
+            @Override
+            public byte[] header() {
+                return "<".getBytes(UTF_8);
+            }
+
+            @Override
+            public void read(final byte[] block, final int length) {
+            }
+
+            @Override
+            public byte[] transform(final long index, final byte[] block, final int length,
+                                    final byte[] previous) throws Exception {
+                // finish blocks out of order
+                Thread.sleep(random.nextInt(20));
+                return (index + ":" + new String(block, 0, length, UTF_8)
+                        + ":" + (previous == null ? "-" : new String(previous, UTF_8)) + ";").getBytes(UTF_8);
+            }
+
+            @Override
+            public byte[] trailer() {
+                return ">".getBytes(UTF_8);
+            }
+        };
+
+        try (InputStream in = new ParallelBlockPipeline(new ByteArrayInputStream("abcdefghij".getBytes(UTF_8)),
+                3, 3, stage)) {
+            assertThat(new String(readAll(in), UTF_8), is("<0:abc:-;1:def:abc;2:ghi:def;3:j:ghi;>"));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void failedTransformationShouldFailTheStream() throws Exception {
+        final ParallelBlockPipeline.Stage stage = new ParallelBlockPipeline.Stage() {
+            @Override
+            public byte[] header() {
+                return new byte[0];
+            }
+
+            @Override
+            public void read(final byte[] block, final int length) {
+            }
+
+            @Override
+            public byte[] transform(final long index, final byte[] block, final int length,
+                                    final byte[] previous) {
+                if (index == 1) {
+                    throw new IllegalStateException("broken block");
+                }
+                return Arrays.copyOf(block, length);
+            }
+
+            @Override
+            public byte[] trailer() {
+                return new byte[0];
+            }
+        };
+
+        try (InputStream in = new ParallelBlockPipeline(new ByteArrayInputStream(new byte[100]), 10, 2, stage)) {
+            readAll(in);
+        }
+    }
+
+    @Test
+    public void pipelinesShouldShareLimitOfBlocksReadAhead() throws Exception {
+        final ExecutorService executor = newFixedThreadPool(2);
+        final Semaphore blocks = new Semaphore(3);
+        try {
+            final ByteArrayInputStream first = new ByteArrayInputStream(new byte[100]);
+            final ByteArrayInputStream second = new ByteArrayInputStream(new byte[100]);
+            try (InputStream one = new ParallelBlockPipeline(first, 10, 4, copyStage(), executor, blocks);
+                 InputStream two = new ParallelBlockPipeline(second, 10, 4, copyStage(), executor, blocks)) {
+                one.read();
+                // three blocks read ahead although the pipeline could take eight, the first one is being read
+                assertThat(first.available(), is(70));
+                assertThat(blocks.availablePermits(), is(1));
+
+                two.read();
+                two.read();
+                assertThat(second.available(), is(90));
+
+                assertThat(readAll(two).length, is(98));
+                assertThat(blocks.availablePermits(), is(1));
+            }
+            assertThat(blocks.availablePermits(), is(3));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void pipelineShouldReadOneBlockAtTimeWhenSharedLimitIsUsedUp() throws Exception {
+        final ExecutorService executor = newFixedThreadPool(2);
+        final Semaphore blocks = new Semaphore(0);
+        try {
+            final byte[] content = new byte[95];
+            new Random(1).nextBytes(content);
+            final ByteArrayInputStream source = new ByteArrayInputStream(content);
+            try (InputStream in = new ParallelBlockPipeline(source, 10, 4, copyStage(), executor, blocks)) {
+                in.read();
+                assertThat(source.available(), is(85));
+                assertThat(in.read(), is(content[1] & 0xff));
+                final byte[] rest = readAll(in);
+                assertThat(rest, is(Arrays.copyOfRange(content, 2, content.length)));
+            }
+            assertThat(blocks.availablePermits(), is(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ParallelBlockPipeline.Stage copyStage() {
+        return new ParallelBlockPipeline.Stage() {
+            @Override
+            public byte[] header() {
+                return new byte[0];
+            }
+
+            @Override
+            public void read(final byte[] block, final int length) {
+            }
+
+            @Override
+            public byte[] transform(final long index, final byte[] block, final int length,
+                                    final byte[] previous) {
+                return Arrays.copyOf(block, length);
+            }
+
+            @Override
+            public byte[] trailer() {
+                return new byte[0];
+            }
+        };
+    }
+}
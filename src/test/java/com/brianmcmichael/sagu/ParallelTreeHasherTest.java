@@ -0,0 +1,89 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.amazonaws.services.glacier.TreeHashGenerator.calculateTreeHash;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static com.brianmcmichael.sagu.TreeHash.CHUNK_SIZE;
+import static java.nio.file.Files.createTempFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ParallelTreeHasherTest {
+
+    private static final long[] LENGTHS = {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 2 * CHUNK_SIZE,
+            3 * CHUNK_SIZE + 17, 5 * CHUNK_SIZE, 7 * CHUNK_SIZE - 1, 8 * CHUNK_SIZE, 13 * CHUNK_SIZE + 1234};
+
+    @Test
+    public void calculateTreeHashShouldMatchSdk() throws Exception {
+        final ParallelTreeHasher hasher = new ParallelTreeHasher();
+        for (long length : LENGTHS) {
+            final File file = tempFile(randomContent(length));
+            assertThat("length " + length, hasher.calculateTreeHash(file).equals(calculateTreeHash(file)));
+        }
+    }
+
+    @Test
+    public void calculateTreeHashShouldMatchSdkWithSmallWindows() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (long windowSize : new long[]{CHUNK_SIZE, 2 * CHUNK_SIZE, 4 * CHUNK_SIZE}) {
+                final ParallelTreeHasher hasher = new ParallelTreeHasher(pool, windowSize);
+                for (long length : LENGTHS) {
+                    final File file = tempFile(randomContent(length));
+                    assertThat("window " + windowSize + ", length " + length,
+                            hasher.calculateTreeHash(file).equals(calculateTreeHash(file)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void calculateTreeHashShouldKeepToDiskReadLimit() throws Exception {
+        final File file = tempFile(randomContent(8 * CHUNK_SIZE));
+        final ParallelTreeHasher hasher = new ParallelTreeHasher(
+                DiskReadLimiter.parse(file.getParent() + "=unlimited/4"));
+
+        final long started = System.nanoTime();
+        final String hash = hasher.calculateTreeHash(file);
+        final long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        assertThat(hash, is(calculateTreeHash(file)));
+        // four chunks fit into the bucket, the other four take a second
+        assertThat("elapsed " + elapsedMillis, elapsedMillis >= 700);
+    }
+
+    @Test
+    public void calculateTreeHashShouldHandleFilesLargerThanTwoGigabytes() throws Exception {
+        final File file = createTempFile("sagu-large-", ".bin").toFile();
+        file.deleteOnExit();
+        try (RandomAccessFile sparse = new RandomAccessFile(file, "rw")) {
+            sparse.setLength(2L * 1024 * CHUNK_SIZE + 3 * CHUNK_SIZE + 5);
+            sparse.seek(sparse.length() - 1);
+            sparse.write(42);
+        }
+
+        assertThat(new ParallelTreeHasher().calculateTreeHash(file), is(calculateTreeHash(file)));
+        file.delete();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void constructorShouldRejectWindowWhichIsNotPowerOfTwoChunks() throws Exception {
+        new ParallelTreeHasher(ForkJoinPool.commonPool(), 3 * CHUNK_SIZE);
+    }
+}
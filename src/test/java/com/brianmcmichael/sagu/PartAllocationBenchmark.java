@@ -0,0 +1,192 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import com.amazonaws.services.glacier.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.glacier.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.glacier.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.glacier.model.UploadMultipartPartRequest;
+import com.amazonaws.services.glacier.model.UploadMultipartPartResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+
+/**
+ * Measures heap allocated and garbage collections per uploaded GB by {@link MultipartUploader} compared with reading
+ * every part into a new heap array, as uploads did before part buffers were reused. Parts are sent to a client which
+ * only drains the request body, so the numbers do not include the HTTP stack. It is not run as a test:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) com.brianmcmichael.sagu.PartAllocationBenchmark [MB]
+ * </pre>
+ */
+public class PartAllocationBenchmark {
+
+    private static final int THREADS = 4;
+    private static final long PART_SIZE = 16 * MB;
+    private static final int ROUNDS = 3;
+
+    public static void main(final String[] args) throws Exception {
+        final long fileMB = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+        final File file = File.createTempFile("sagu-benchmark", ".bin");
+        file.deleteOnExit();
+        writeRandom(file, fileMB * MB);
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            measure("heap arrays, round " + round, file, () -> uploadWithHeapArrays(file));
+            measure("reused direct buffers, round " + round, file, () -> {
+                try (MultipartUploader uploader = new MultipartUploader.Builder(new DrainingClient(), THREADS,
+                        PART_SIZE).build()) {
+                    uploader.upload("vault", "benchmark", file, null);
+                }
+            });
+        }
+    }
+
+    private static void measure(final String name, final File file, final Upload upload) throws Exception {
+        DrainingClient.ALLOCATED.clear();
+        final long gcCountBefore = gcCount();
+        final long gcMillisBefore = gcMillis();
+        final long mainBefore = allocated(Thread.currentThread().getId());
+        final long started = System.nanoTime();
+        upload.run();
+        final long elapsed = System.nanoTime() - started;
+        long bytes = allocated(Thread.currentThread().getId()) - mainBefore;
+        for (long workerBytes : DrainingClient.ALLOCATED.values()) {
+            bytes += workerBytes;
+        }
+        final double gb = file.length() / (1024.0 * MB);
+        System.out.printf("%-32s %8.1f MB allocated/GB %6.1f GCs/GB %7.1f GC ms/GB %7.1f MB/s%n", name,
+                bytes / gb / MB, (gcCount() - gcCountBefore) / gb, (gcMillis() - gcMillisBefore) / gb,
+                file.length() / (elapsed / 1e9) / MB);
+    }
+
+    /**
+     * Uploads the file the way parts were uploaded before buffers were reused, one new array per part.
+     */
+    private static void uploadWithHeapArrays(final File file) throws Exception {
+        final DrainingClient client = new DrainingClient();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            final List<Future<byte[]>> parts = new ArrayList<>();
+            for (long start = 0; start < file.length(); start += PART_SIZE) {
+                final long partStart = start;
+                final int length = (int) Math.min(PART_SIZE, file.length() - start);
+                parts.add(executor.submit(() -> {
+                    final byte[] buffer = new byte[length];
+                    synchronized (in) {
+                        in.seek(partStart);
+                        in.readFully(buffer);
+                    }
+                    final byte[] checksum = TreeHash.of(ByteBuffer.wrap(buffer));
+                    client.uploadMultipartPart(new UploadMultipartPartRequest()
+                            .withBody(new ByteArrayInputStream(buffer)));
+                    return checksum;
+                }));
+            }
+            for (Future<byte[]> part : parts) {
+                part.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void writeRandom(final File file, final long length) throws IOException {
+        final byte[] block = new byte[(int) MB];
+        new Random(1).nextBytes(block);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < length; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, length - written));
+            }
+        }
+    }
+
+    private static long allocated(final long threadId) {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(threadId);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += gc.getCollectionTime();
+        }
+        return millis;
+    }
+
+    private interface Upload {
+        void run() throws Exception;
+    }
+
+    /**
+     * Drains part bodies like a socket would and records how much every worker thread allocated so far, since the
+     * threads end with their uploader.
+     */
+    private static final class DrainingClient extends AmazonGlacierClient {
+        private static final Map<Long, Long> ALLOCATED = new ConcurrentHashMap<>();
+        private static final ThreadLocal<byte[]> SOCKET_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request) {
+            return new InitiateMultipartUploadResult().withUploadId("upload");
+        }
+
+        @Override
+        public UploadMultipartPartResult uploadMultipartPart(final UploadMultipartPartRequest request) {
+            final byte[] buffer = SOCKET_BUFFER.get();
+            try (InputStream body = request.getBody()) {
+                while (body.read(buffer) >= 0) {
+                    // discard
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            final long thread = Thread.currentThread().getId();
+            ALLOCATED.put(thread, allocated(thread));
+            return new UploadMultipartPartResult().withChecksum(request.getChecksum());
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request) {
+            return new CompleteMultipartUploadResult().withArchiveId("archive");
+        }
+
+        @Override
+        public void abortMultipartUpload(final AbortMultipartUploadRequest request) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PartBufferPoolTest {
+
+    private TransferMetrics metrics;
+
+    @BeforeMethod
+    public void setUp() {
+        metrics = new TransferMetrics();
+    }
+
+    @Test
+    public void acquireShouldReuseSmallestFittingDirectBuffer() throws Exception {
+        final PartBufferPool pool = new PartBufferPool(1000, metrics);
+        final ByteBuffer large = pool.acquire(300);
+        final ByteBuffer small = pool.acquire(200);
+        pool.release(large);
+        pool.release(small);
+
+        final ByteBuffer reused = pool.acquire(150);
+
+        assertThat(reused, is(sameInstance(small)));
+        assertThat(reused.isDirect(), is(true));
+        assertThat(reused.position(), is(0));
+        assertThat(reused.limit(), is(150));
+        assertThat(pool.getAllocated(), is(500L));
+        assertThat(metrics.getBufferBytesInUse(), is(200L));
+        assertThat(metrics.getBufferBytesAllocated(), is(500L));
+    }
+
+    @Test(timeOut = 5000)
+    public void acquireShouldWaitWhileBudgetIsUsedUp() throws Exception {
+        final PartBufferPool pool = new PartBufferPool(500, metrics);
+        final ByteBuffer first = pool.acquire(300);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(() -> {
+            pool.release(pool.acquire(300));
+            acquired.countDown();
+        }).start();
+
+        assertThat(acquired.await(100, MILLISECONDS), is(false));
+        pool.release(first);
+        assertThat(acquired.await(1, SECONDS), is(true));
+        assertThat(metrics.getBufferWaits(), is(1L));
+        assertThat(metrics.getBufferBytesInUse(), is(0L));
+    }
+
+    @Test
+    public void acquireShouldDropFreeBuffersWhichAreTooSmall() throws Exception {
+        final PartBufferPool pool = new PartBufferPool(500, metrics);
+        pool.release(pool.acquire(200));
+        pool.release(pool.acquire(100));
+
+        pool.acquire(400);
+
+        assertThat(pool.getAllocated(), is(400L));
+        assertThat(metrics.getBufferBytesAllocated(), is(400L));
+        assertThat(metrics.getBufferWaits(), is(0L));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void acquireShouldRejectPartLargerThanBudget() throws Exception {
+        new PartBufferPool(100, metrics).acquire(101);
+    }
+}
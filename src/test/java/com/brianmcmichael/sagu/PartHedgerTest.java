@@ -0,0 +1,118 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PartHedgerTest {
+
+    private ExecutorService executor;
+    private TransferMetrics metrics;
+    private PartHedger hedger;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = newCachedThreadPool();
+        metrics = new TransferMetrics();
+        hedger = new PartHedger(executor, metrics, 100, 10);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void medianShouldNeedEnoughSamples() throws Exception {
+        sendQuickly(3);
+        assertThat(hedger.median() > 0, is(true));
+        assertThat(metrics.getPartsUploaded(), is(3L));
+        assertThat(metrics.getBytesUploaded(), is(3000L));
+        assertThat(new PartHedger(executor, metrics, 100, 10).median(), is(0.0));
+    }
+
+    @Test(timeOut = 5000)
+    public void sendShouldHedgeStalledRequestAndCancelIt() throws Exception {
+        sendQuickly(3);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        final String result = hedger.send(1000, (hedge, sent) -> {
+            if (hedge) {
+                return "hedge";
+            }
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "primary";
+        }, finished::countDown);
+
+        assertThat(result, is("hedge"));
+        assertThat(interrupted.await(1, SECONDS), is(true));
+        assertThat(finished.await(1, SECONDS), is(true));
+        assertThat(metrics.getHedgedParts(), is(1L));
+        assertThat(metrics.getHedgesWon(), is(1L));
+    }
+
+    @Test
+    public void sendShouldNotHedgeBeforeThereAreSamples() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+
+        hedger.send(1000, (hedge, sent) -> {
+            requests.incrementAndGet();
+            Thread.sleep(300);
+            return null;
+        }, () -> { });
+
+        assertThat(requests.get(), is(1));
+        assertThat(metrics.getHedgedParts(), is(0L));
+    }
+
+    @Test(timeOut = 5000)
+    public void sendShouldThrowFirstFailureWhenBothRequestsFail() throws Exception {
+        sendQuickly(3);
+
+        try {
+            hedger.send(1000, (hedge, sent) -> {
+                if (hedge) {
+                    throw new IOException("hedge");
+                }
+                Thread.sleep(300);
+                throw new IOException("primary");
+            }, () -> { });
+            throw new AssertionError("Send should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("hedge"));
+        }
+        assertThat(metrics.getPartFailures(), is(2L));
+    }
+
+    private void sendQuickly(final int parts) throws Exception {
+        for (int i = 0; i < parts; i++) {
+            hedger.send(1000, (hedge, sent) -> {
+                sent.set(1000);
+                return null;
+            }, () -> { });
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.write;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PartReaderTest {
+
+    @Test
+    public void readFullyShouldReadUnalignedRangesInBothModes() throws Exception {
+        final byte[] content = new byte[3 * PartReader.CHUNK_SIZE + 1234];
+        new Random(7).nextBytes(content);
+        final Path file = createTempFile("sagu-test-", ".bin");
+        write(file, content);
+
+        for (boolean uncached : new boolean[]{false, true}) {
+            try (PartReader reader = PartReader.open(file, uncached)) {
+                assertRead(reader, content, 0, content.length);
+                assertRead(reader, content, 5000, PartReader.CHUNK_SIZE + 17);
+                assertRead(reader, content, content.length - 100, 100);
+                assertRead(reader, content, 2 * PartReader.CHUNK_SIZE, 4096);
+            }
+        }
+    }
+
+    @Test
+    public void readFullyShouldFailAtEndOfFileInBothModes() throws Exception {
+        final Path file = createTempFile("sagu-test-", ".bin");
+        write(file, new byte[10000]);
+
+        for (boolean uncached : new boolean[]{false, true}) {
+            try (PartReader reader = PartReader.open(file, uncached)) {
+                reader.readFully(ByteBuffer.allocateDirect(2000), 9000);
+                throw new AssertionError("Read should fail");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void readersOpenOnOneThreadShouldNotShareBuffer() throws Exception {
+        final byte[] first = new byte[PartReader.CHUNK_SIZE + 1234];
+        new Random(1).nextBytes(first);
+        final byte[] second = new byte[PartReader.CHUNK_SIZE + 1234];
+        new Random(2).nextBytes(second);
+        final Path firstFile = createTempFile("sagu-test-", ".bin");
+        write(firstFile, first);
+        final Path secondFile = createTempFile("sagu-test-", ".bin");
+        write(secondFile, second);
+
+        for (int i = 0; i < 2; i++) {
+            // the second round takes the memory the readers of the first one left to the thread
+            try (PartReader one = PartReader.open(firstFile, true);
+                 PartReader two = PartReader.open(secondFile, true)) {
+                assertRead(one, first, 100, first.length - 100);
+                assertRead(two, second, 200, second.length - 200);
+                assertRead(one, first, 0, 4096);
+            }
+        }
+    }
+
+    @Test
+    public void openShouldReadThroughPageCacheUnlessAskedNotTo() throws Exception {
+        final Path file = createTempFile("sagu-test-", ".bin");
+
+        try (PartReader reader = PartReader.open(file, false)) {
+            assertThat(reader.isDirect(), is(false));
+        }
+    }
+
+    private static void assertRead(final PartReader reader, final byte[] content, final int position,
+                                   final int length) throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(length + 10);
+        buffer.position(3).limit(3 + length);
+
+        reader.readFully(buffer, position);
+
+        assertThat(buffer.position(), is(3 + length));
+        buffer.flip().position(3);
+        final byte[] read = new byte[length];
+        buffer.get(read);
+        assertThat(Arrays.equals(read, Arrays.copyOfRange(content, position, position + length)), is(true));
+    }
+}
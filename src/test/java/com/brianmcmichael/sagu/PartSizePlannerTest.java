@@ -0,0 +1,105 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.PartSizePlanner.MAX_ADAPTIVE_PART_SIZE;
+import static com.brianmcmichael.sagu.PartSizePlanner.minimumPartSize;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PartSizePlannerTest {
+
+    @Test
+    public void minimumPartSizeShouldFitFileIntoPartLimit() throws Exception {
+        assertThat(minimumPartSize(1), is(MB));
+        assertThat(minimumPartSize(10000 * MB), is(MB));
+        assertThat(minimumPartSize(10000 * MB + 1), is(2 * MB));
+        assertThat(minimumPartSize(100000 * MB), is(16 * MB));
+    }
+
+    @Test
+    public void planShouldUsePreferredPartSizeWithinBounds() throws Exception {
+        final PartSizePlanner planner = new PartSizePlanner(16 * MB, false);
+
+        assertThat(planner.plan(100 * MB).getPartSize(), is(16 * MB));
+        assertThat(planner.plan(100 * MB).getPartCount(), is(7L));
+        assertThat(planner.plan(3 * MB).getPartSize(), is(4 * MB));
+        assertThat(planner.plan(100 * MB).toString(), is("7 parts of 16 MB"));
+        assertThat(planner.plan(500000 * MB).getPartSize(), is(64 * MB));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void planShouldRejectFileOverPartLimit() throws Exception {
+        new PartSizePlanner(MB, false).plan(20000L * 1024 * MB);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void constructorShouldRejectInvalidPartSize() throws Exception {
+        new PartSizePlanner(3 * MB, true);
+    }
+
+    @Test
+    public void fastPartsShouldIncreasePartSize() throws Exception {
+        final PartSizePlanner planner = new PartSizePlanner(4 * MB, true);
+
+        // 4 MB in 100 ms is 40 MB/s, a part of 10 seconds would be 400 MB
+        for (int i = 0; i < 8; i++) {
+            planner.partUploaded(4 * MB, SECONDS.toNanos(1) / 10);
+        }
+        assertThat(planner.getPreferredPartSize(), is(8 * MB));
+
+        for (int i = 0; i < 80; i++) {
+            planner.partUploaded(4 * MB, SECONDS.toNanos(1) / 10);
+        }
+        assertThat(planner.getPreferredPartSize(), is(MAX_ADAPTIVE_PART_SIZE));
+    }
+
+    @Test
+    public void slowPartsShouldDecreasePartSize() throws Exception {
+        final PartSizePlanner planner = new PartSizePlanner(16 * MB, true);
+
+        // 16 MB in 64 seconds is 256 KB/s, a part of 10 seconds would be under 4 MB
+        for (int i = 0; i < 24; i++) {
+            planner.partUploaded(16 * MB, SECONDS.toNanos(64));
+        }
+
+        assertThat(planner.getPreferredPartSize(), is(2 * MB));
+    }
+
+    @Test
+    public void failuresShouldDecreasePartSize() throws Exception {
+        final PartSizePlanner planner = new PartSizePlanner(16 * MB, true);
+
+        // fast enough for large parts, but every fourth part fails
+        for (int i = 0; i < 8; i++) {
+            if (i % 4 == 3) {
+                planner.partFailed();
+            } else {
+                planner.partUploaded(16 * MB, SECONDS.toNanos(1));
+            }
+        }
+
+        assertThat(planner.getPreferredPartSize(), is(8 * MB));
+    }
+
+    @Test
+    public void fixedPlannerShouldKeepPartSize() throws Exception {
+        final PartSizePlanner planner = new PartSizePlanner(16 * MB, false);
+
+        for (int i = 0; i < 16; i++) {
+            planner.partFailed();
+        }
+
+        assertThat(planner.getPreferredPartSize(), is(16 * MB));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReadAheadTest {
+
+    @Test
+    public void partsForShouldDependOnDevice() {
+        assertThat(ReadAhead.partsFor("nfs4", null), is(ReadAhead.NETWORK_PARTS));
+        assertThat(ReadAhead.partsFor("CIFS", false), is(ReadAhead.NETWORK_PARTS));
+        assertThat(ReadAhead.partsFor("ext4", true), is(ReadAhead.ROTATIONAL_PARTS));
+        assertThat(ReadAhead.partsFor("ext4", false), is(ReadAhead.SOLID_STATE_PARTS));
+        assertThat(ReadAhead.partsFor("NTFS", null), is(ReadAhead.ROTATIONAL_PARTS));
+    }
+
+    @Test
+    public void configuredPartsShouldBeUsedForEveryFile() throws Exception {
+        assertThat(new ReadAhead(5).partsFor(tempFile(new byte[1]).toPath()), is(5));
+    }
+
+    @Test
+    public void partsForFileShouldBeAtLeastOne() throws Exception {
+        final File file = tempFile(new byte[1]);
+
+        assertThat(new ReadAhead(0).partsFor(file.toPath()) >= 1, is(true));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void negativePartsShouldBeRejected() {
+        new ReadAhead(-1);
+    }
+}
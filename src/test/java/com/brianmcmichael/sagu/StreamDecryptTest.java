@@ -0,0 +1,90 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.brianmcmichael.sagu.GzipStageTest.readAll;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static java.nio.file.Files.createTempDirectory;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StreamDecryptTest {
+
+    @Test
+    public void runShouldDecryptWithKeyOfProperties() throws Exception {
+        final Path dir = createTempDirectory("sagu");
+        final EncryptionKey key = EncryptionKey.loadOrGenerate(new AppProperties(dir).getEncryptionKeyFile());
+        final byte[] content = randomContent(3 * AesGcmStage.CHUNK_SIZE + 5);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        final int exitCode = StreamDecrypt.run(new String[]{"--decrypt", "--properties-dir", dir.toString()},
+                new ByteArrayInputStream(encrypt(content, key)), out, new PrintStream(err));
+
+        assertThat(exitCode, is(0));
+        assertThat(out.toByteArray(), is(content));
+        assertThat(err.toString(), containsString(key.getId()));
+    }
+
+    @Test
+    public void runShouldFailWithoutGeneratingMissingKey() throws Exception {
+        final Path keyFile = createTempDirectory("sagu").resolve("missing.key");
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        final int exitCode = StreamDecrypt.run(new String[]{"--decrypt", "--key", keyFile.toString()},
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(err));
+
+        assertThat(exitCode, is(1));
+        assertThat(err.toString(), containsString("no encryption key file"));
+        assertThat(Files.exists(keyFile), is(false));
+    }
+
+    @Test
+    public void runShouldFailWithAnotherKey() throws Exception {
+        final Path dir = createTempDirectory("sagu");
+        final EncryptionKey other = EncryptionKey.loadOrGenerate(dir.resolve("other.key"));
+        EncryptionKey.loadOrGenerate(dir.resolve("right.key"));
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        final int exitCode = StreamDecrypt.run(new String[]{"--decrypt", "--key", dir.resolve("right.key").toString()},
+                new ByteArrayInputStream(encrypt(randomContent(100), other)), new ByteArrayOutputStream(),
+                new PrintStream(err));
+
+        assertThat(exitCode, is(1));
+        assertThat(err.toString(), containsString("Decryption failed"));
+    }
+
+    @Test
+    public void runShouldRejectUnknownOption() throws Exception {
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        final int exitCode = StreamDecrypt.run(new String[]{"--decrypt", "--vault", "v"},
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(err));
+
+        assertThat(exitCode, is(2));
+        assertThat(err.toString(), containsString("Unknown option --vault"));
+    }
+
+    private static byte[] encrypt(final byte[] content, final EncryptionKey key) throws Exception {
+        try (InputStream in = new ParallelBlockPipeline(new ByteArrayInputStream(content), AesGcmStage.CHUNK_SIZE, 2,
+                new AesGcmStage(key))) {
+            return readAll(in);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.readAllLines;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StreamUploadTest {
+
+    @Test
+    public void uploadShouldUploadWholeStreamAndLogIt() throws Exception {
+        final Path dir = createTempDirectory("sagu");
+        final FakeGlacierClient client = new FakeGlacierClient();
+        final byte[] content = randomContent(5 * MB + 7);
+
+        final UploadedArchive result = new StreamUpload(new AppProperties(dir), client, Endpoint.EU_WEST_IRELAND)
+                .upload("vault", "db.sql", new ByteArrayInputStream(content), 20 * MB);
+
+        assertThat(client.archives.get(result.getArchiveId()), is(content));
+        assertThat(result.getLength(), is((long) content.length));
+        final List<String> csv = readAllLines(dir.resolve("Glacier.csv"), UTF_8);
+        assertThat(csv.size(), is(1));
+        assertThat(csv.get(0), containsString(result.getArchiveId()));
+        assertThat(csv.get(0), containsString("db.sql"));
+        assertThat(csv.get(0), containsString("EU_WEST_IRELAND"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void uploadShouldFailWhenStreamCannotFitIntoParts() throws Exception {
+        new StreamUpload(new AppProperties(createTempDirectory("sagu")), new FakeGlacierClient(),
+                Endpoint.EU_WEST_IRELAND)
+                .upload("vault", "db.sql", new ByteArrayInputStream(new byte[1]), 20000L * 1024 * MB);
+    }
+
+    @Test
+    public void parseSizeShouldAcceptBinarySuffixes() {
+        assertThat(StreamUpload.parseSize("1048576"), is(MB));
+        assertThat(StreamUpload.parseSize("64k"), is(64L * 1024));
+        assertThat(StreamUpload.parseSize("500M"), is(500 * MB));
+        assertThat(StreamUpload.parseSize("2G"), is(2048 * MB));
+        assertThat(StreamUpload.parseSize("1T"), is(StreamUpload.DEFAULT_MAX_SIZE));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void parseSizeShouldRejectInvalidSize() {
+        StreamUpload.parseSize("1X");
+    }
+
+    @Test
+    public void parseEndpointShouldFindRegionById() {
+        assertThat(StreamUpload.parseEndpoint("eu-central-1"), is(Endpoint.EU_CENTRAL_FRANKFURT));
+    }
+
+    @Test
+    public void runShouldRejectMissingVault() throws Exception {
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        final String dir = createTempDirectory("sagu").toString();
+
+        final int exitCode = StreamUpload.run(new String[]{"--properties-dir", dir, "--description", "x"},
+                new ByteArrayInputStream(new byte[0]), new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(err));
+
+        assertThat(exitCode, is(2));
+        assertThat(err.toString(), containsString("Vault is required"));
+    }
+
+    @Test
+    public void runShouldRejectMaxSizeOverPartLimit() throws Exception {
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        final String dir = createTempDirectory("sagu").toString();
+
+        final int exitCode = StreamUpload.run(new String[]{"--properties-dir", dir, "--vault", "v",
+                "--max-size", "10001G"}, new ByteArrayInputStream(new byte[0]),
+                new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+
+        assertThat(exitCode, is(2));
+        assertThat(err.toString(), containsString("do not fit into 10000 parts"));
+    }
+
+    @Test
+    public void runShouldRejectUnknownOption() throws Exception {
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        final int exitCode = StreamUpload.run(new String[]{"--vault", "v", "--size", "1G"},
+                new ByteArrayInputStream(new byte[0]), new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(err));
+
+        assertThat(exitCode, is(2));
+        assertThat(err.toString(), containsString("Unknown option --size"));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static com.brianmcmichael.sagu.TarStream.BLOCK_SIZE;
+import static com.brianmcmichael.sagu.TarStream.END_LENGTH;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.write;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TarStreamTest {
+
+    @Test
+    public void streamShouldContainUstarHeadersAndContentAtMemberOffsets() throws Exception {
+        final byte[] first = randomContent(1000);
+        final byte[] second = randomContent(BLOCK_SIZE);
+        final TarStream tar = new TarStream(asList(tempFile(first), tempFile(second)), asList("a/first", "second"));
+
+        final byte[] archive = readAll(tar);
+
+        assertThat((long) archive.length, is(tar.getLength()));
+        assertThat(tar.getLength(), is(3L * BLOCK_SIZE + 2L * BLOCK_SIZE + END_LENGTH));
+        final TarStream.Member member = tar.getMembers().get(0);
+        assertThat(member.getHeaderOffset(), is(0L));
+        assertThat(member.getDataOffset(), is((long) BLOCK_SIZE));
+        assertThat(field(archive, 0, 100), is("a/first"));
+        assertThat(field(archive, 257, 6), is("ustar"));
+        assertThat(Long.parseLong(field(archive, 124, 12), 8), is(1000L));
+        assertThat(Long.parseLong(field(archive, 148, 7).trim(), 8), is(checksum(archive, 0)));
+        assertThat(slice(archive, member.getDataOffset(), first.length), is(first));
+        assertThat(member.getSha256(), is(sha256(first)));
+
+        final TarStream.Member last = tar.getMembers().get(1);
+        assertThat(last.getHeaderOffset(), is(3L * BLOCK_SIZE));
+        assertThat(field(archive, (int) last.getHeaderOffset(), 100), is("second"));
+        assertThat(slice(archive, last.getDataOffset(), second.length), is(second));
+        assertThat(slice(archive, tar.getLength() - END_LENGTH, END_LENGTH), is(new byte[END_LENGTH]));
+    }
+
+    @Test
+    public void longNameShouldGetPaxHeader() throws Exception {
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            name.append("directory").append(i).append('/');
+        }
+        name.append("file");
+        final byte[] content = randomContent(10);
+        final TarStream tar = new TarStream(asList(tempFile(content)), asList(name.toString()));
+
+        final byte[] archive = readAll(tar);
+
+        assertThat((long) archive.length, is(tar.getLength()));
+        assertThat(archive[156], is((byte) 'x'));
+        final String records = field(archive, BLOCK_SIZE, BLOCK_SIZE);
+        assertThat(records, startsWith(records.length() + " path=" + name + "\n"));
+        final TarStream.Member member = tar.getMembers().get(0);
+        assertThat(archive[(int) member.getDataOffset() - BLOCK_SIZE + 156], is((byte) '0'));
+        assertThat(slice(archive, member.getDataOffset(), content.length), is(content));
+        assertThat(TarStream.memberLength(name.toString(), content.length), is(tar.getLength() - END_LENGTH));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void streamShouldFailWhenFileGotShorter() throws Exception {
+        final File file = tempFile(randomContent(100));
+        final TarStream tar = new TarStream(asList(file), asList("file"));
+        write(file.toPath(), new byte[10]);
+
+        readAll(tar);
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[777];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String field(final byte[] archive, final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && archive[end] != 0) {
+            end++;
+        }
+        return new String(archive, offset, end - offset, UTF_8);
+    }
+
+    private static long checksum(final byte[] archive, final int offset) {
+        long sum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : archive[offset + i] & 0xff;
+        }
+        return sum;
+    }
+
+    private static byte[] slice(final byte[] archive, final long offset, final int length) {
+        return Arrays.copyOfRange(archive, (int) offset, (int) offset + length);
+    }
+
+    private static String sha256(final byte[] content) throws Exception {
+        return TreeHash.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
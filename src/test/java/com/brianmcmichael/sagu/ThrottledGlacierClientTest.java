@@ -0,0 +1,129 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.glacier.model.UploadMultipartPartRequest;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ThrottledGlacierClientTest {
+
+    private HttpServer server;
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Starts a local stand-in for Glacier which accepts every part, after failing the given number of requests.
+     */
+    @BeforeMethod
+    public void startServer() throws Exception {
+        failuresLeft.set(0);
+        received.set(0);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+        server.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    received.addAndGet(read);
+                }
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                final byte[] error = ("{\"code\":\"ServiceUnavailableException\",\"message\":\"Try again\","
+                        + "\"type\":\"Server\"}").getBytes(UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(503, error.length);
+                exchange.getResponseBody().write(error);
+            } else {
+                exchange.getResponseHeaders().add("x-amz-sha256-tree-hash", "00");
+                exchange.sendResponseHeaders(204, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void partShouldBeChargedOnlyForBytesSent() throws Exception {
+        final CountingLimiter limiter = new CountingLimiter();
+
+        uploadPart(limiter, randomContent(MB));
+
+        assertThat(received.get(), is(MB));
+        assertThat(limiter.charged.get(), is(MB));
+    }
+
+    @Test
+    public void retriedPartShouldBeChargedAgain() throws Exception {
+        failuresLeft.set(1);
+        final CountingLimiter limiter = new CountingLimiter();
+
+        uploadPart(limiter, randomContent(MB));
+
+        assertThat(received.get(), is(2 * MB));
+        assertThat(limiter.charged.get(), is(2 * MB));
+    }
+
+    private void uploadPart(final BandwidthLimiter limiter, final byte[] content) {
+        final ThrottledGlacierClient client = new ThrottledGlacierClient(new BasicAWSCredentials("access", "secret"),
+                new ClientConfiguration(), limiter, new AdaptiveConcurrency(1, 1, new TransferMetrics()));
+        client.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+        try {
+            client.uploadMultipartPart(new UploadMultipartPartRequest()
+                    .withVaultName("vault")
+                    .withUploadId("upload")
+                    .withRange("bytes 0-" + (content.length - 1) + "/*")
+                    .withChecksum(TreeHash.toHex(TreeHash.of(ByteBuffer.wrap(content))))
+                    .withBody(new ByteArrayInputStream(content)));
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    /**
+     * Unlimited limiter which counts the bytes it is asked for.
+     */
+    private static final class CountingLimiter extends BandwidthLimiter {
+        private final AtomicLong charged = new AtomicLong();
+
+        private CountingLimiter() {
+            super(BandwidthSchedule.unlimited(), 1);
+        }
+
+        @Override
+        public void acquire(final long bytes) throws InterruptedIOException {
+            charged.addAndGet(bytes);
+            super.acquire(bytes);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.amazonaws.services.glacier.TreeHashGenerator.calculateTreeHash;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.randomContent;
+import static com.brianmcmichael.sagu.TreeHash.CHUNK_SIZE;
+import static com.brianmcmichael.sagu.TreeHash.chunkHashes;
+import static com.brianmcmichael.sagu.TreeHash.reduce;
+import static com.brianmcmichael.sagu.TreeHash.toHex;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TreeHashTest {
+
+    @Test
+    public void ofShouldMatchSdkTreeHash() throws Exception {
+        for (long length : new long[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE + 7,
+                5 * CHUNK_SIZE}) {
+            final byte[] content = randomContent(length);
+            assertThat("length " + length, toHex(TreeHash.of(ByteBuffer.wrap(content)))
+                    .equals(calculateTreeHash(new ByteArrayInputStream(content))));
+        }
+    }
+
+    @Test
+    public void chunkHashesShouldSplitDataToMegabytes() throws Exception {
+        assertThat(chunkHashes(ByteBuffer.allocate(0)).size(), is(1));
+        assertThat(chunkHashes(ByteBuffer.allocate(CHUNK_SIZE)).size(), is(1));
+        assertThat(chunkHashes(ByteBuffer.allocate(CHUNK_SIZE + 1)).size(), is(2));
+    }
+
+    @Test
+    public void reduceOfPartHashesShouldMatchHashOfWholeData() throws Exception {
+        final byte[] content = randomContent(7 * CHUNK_SIZE + 100);
+        final List<byte[]> partHashes = new ArrayList<>();
+        for (int start = 0; start < content.length; start += 2 * CHUNK_SIZE) {
+            final int length = Math.min(2 * CHUNK_SIZE, content.length - start);
+            partHashes.add(TreeHash.of(ByteBuffer.wrap(content, start, length)));
+        }
+        assertThat(toHex(reduce(partHashes)), is(calculateTreeHash(new ByteArrayInputStream(content))));
+    }
+
+    @Test
+    public void ofShouldNotMoveBufferPosition() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(randomContent(CHUNK_SIZE + 5));
+        TreeHash.of(buffer);
+        assertThat(buffer.position(), is(0));
+    }
+}
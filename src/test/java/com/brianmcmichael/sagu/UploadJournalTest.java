@@ -0,0 +1,114 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import static com.brianmcmichael.sagu.MultipartUploader.MB;
+import static com.brianmcmichael.sagu.MultipartUploaderTest.tempFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class UploadJournalTest {
+
+    private Path dir;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = createTempDirectory("sagu-journal-");
+        file = tempFile(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void openShouldRestoreUploadIdAndCompletedParts() throws Exception {
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            assertThat(journal.getUploadId(), is(nullValue()));
+            journal.start("upload-1", MB);
+            journal.partCompleted(0, MB - 1, hash(1));
+            journal.partCompleted(2 * MB, 3 * MB - 1, hash(3));
+        }
+
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            assertThat(journal.getUploadId(), is("upload-1"));
+            assertThat(journal.getCompletedParts().keySet().toString(), is("[0, " + 2 * MB + "]"));
+            assertThat(journal.getCompletedParts().get(2 * MB), is(hash(3)));
+        }
+    }
+
+    @Test
+    public void openShouldIgnorePartLineCutByCrash() throws Exception {
+        final Path journalFile;
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            journal.start("upload-1", MB);
+            journal.partCompleted(0, MB - 1, hash(1));
+            journalFile = journal.getJournalFile();
+        }
+        write(journalFile, ("part=" + MB + " " + (2 * MB - 1) + " 0a1b").getBytes(UTF_8), APPEND);
+
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            assertThat(journal.getUploadId(), is("upload-1"));
+            assertThat(journal.getCompletedParts().size(), is(1));
+        }
+    }
+
+    @Test
+    public void openShouldDiscardJournalOfChangedFile() throws Exception {
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            journal.start("upload-1", MB);
+        }
+        write(file.toPath(), new byte[]{1, 2, 3, 4});
+
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            assertThat(journal.getUploadId(), is(nullValue()));
+            assertThat(exists(journal.getJournalFile()), is(false));
+        }
+    }
+
+    @Test
+    public void openShouldRestorePartSize() throws Exception {
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            journal.start("upload-1", 4 * MB);
+        }
+
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            assertThat(journal.getUploadId(), is("upload-1"));
+            assertThat(journal.getPartSize(), is(4 * MB));
+        }
+    }
+
+    @Test
+    public void deleteShouldRemoveJournal() throws Exception {
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            journal.start("upload-1", MB);
+            journal.delete();
+            assertThat(exists(journal.getJournalFile()), is(false));
+        }
+
+        try (UploadJournal journal = UploadJournal.open(dir, "vault", file)) {
+            assertThat(journal.getUploadId(), is(nullValue()));
+        }
+    }
+
+    private static byte[] hash(final int seed) {
+        final byte[] hash = new byte[32];
+        hash[0] = (byte) seed;
+        return hash;
+    }
+}
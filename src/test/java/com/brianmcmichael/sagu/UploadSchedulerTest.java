@@ -0,0 +1,127 @@
+/*
+ * Simple Amazon Glacier Uploader - GUI client for Amazon Glacier
+ * Copyright (C) 2012-2015 Brian L. McMichael, Libor Rysavy and other contributors
+ *
+ * This program is free software licensed under GNU General Public License
+ * found in the LICENSE file in the root directory of this source tree.
+ */
+
+package com.brianmcmichael.sagu;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class UploadSchedulerTest {
+
+    @Test
+    public void uploadAllShouldReportFilesInCompletionOrder() throws Exception {
+        final List<File> files = asList(new File("300"), new File("10"), new File("150"));
+        final List<String> completed = new ArrayList<>();
+
+        try (UploadScheduler scheduler = new UploadScheduler(3)) {
+            scheduler.uploadAll(files, file -> {
+                sleep(Long.parseLong(file.getName()));
+                return file.getName();
+            }, (file, result, error) -> completed.add(result));
+        }
+
+        assertThat(completed, is(asList("10", "150", "300")));
+    }
+
+    @Test
+    public void uploadAllShouldLimitConcurrency() throws Exception {
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(new File("file" + i));
+        }
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+
+        try (UploadScheduler scheduler = new UploadScheduler(2)) {
+            scheduler.uploadAll(files, file -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                sleep(20);
+                inFlight.decrementAndGet();
+                return file;
+            }, (file, result, error) -> completed.incrementAndGet());
+        }
+
+        assertThat(maxInFlight.get(), is(2));
+        assertThat(completed.get(), is(10));
+    }
+
+    @Test
+    public void uploadAllShouldReportFailuresAndContinue() throws Exception {
+        final List<File> files = asList(new File("ok"), new File("fail"));
+        final List<String> results = new ArrayList<>();
+
+        try (UploadScheduler scheduler = new UploadScheduler(1)) {
+            scheduler.uploadAll(files, file -> {
+                if (file.getName().equals("fail")) {
+                    throw new IOException("broken");
+                }
+                return file.getName();
+            }, (file, result, error) -> {
+                if (error != null) {
+                    assertThat(result, is(nullValue()));
+                    results.add(file.getName() + ":" + error.getMessage());
+                } else {
+                    results.add(file.getName() + ":" + result);
+                }
+            });
+        }
+
+        assertThat(results, is(asList("ok:ok", "fail:broken")));
+    }
+
+    @Test
+    public void uploadAllShouldStartUploadsBeforeIteratorEnds() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final Iterator<File> files = new Iterator<File>() {
+            private int returned;
+
+            @Override
+            public boolean hasNext() {
+                if (returned == 1) {
+                    try {
+                        // the rest of the directory is scanned only once the first file is uploading
+                        assertThat(firstStarted.await(5, SECONDS), is(true));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return returned < 3;
+            }
+
+            @Override
+            public File next() {
+                return new File("file" + returned++);
+            }
+        };
+        final List<String> completed = new ArrayList<>();
+
+        try (UploadScheduler scheduler = new UploadScheduler(2)) {
+            scheduler.uploadAll(files, file -> {
+                firstStarted.countDown();
+                return file.getName();
+            }, (file, result, error) -> completed.add(result));
+        }
+
+        assertThat(completed.size(), is(3));
+    }
+}